@@ -0,0 +1,57 @@
+#!/bin/sh
+#
+# Stand-in for pbrt which accepts the same arguments as the real renderer,
+# reports its progress in the same format and writes empty result files.
+# Used with distributed.LocalTransport to load test the scheduler with many
+# simulated machines on a single box.
+#
+# The render takes PBRT_STUB_TIME seconds (default 2) and exits with
+# PBRT_STUB_STATUS (default 0). When PBRT_STUB_SNAPSHOTS is set, a 1x1
+# intermediate image <outfile>-snapshot-<n>.pfm is written after every
+# progress step, whose pixel converges from 2 towards 1.
+#
+
+outfile=
+while [ $# -gt 0 ]; do
+	case "$1" in
+		--outfile) outfile="$2"; shift 2 ;;
+		--seed|--nthreads) shift 2 ;;
+		*) shift ;;
+	esac
+done
+
+if [ -z "$outfile" ]; then
+	echo "usage: pbrt-stub.sh --outfile <file> [--seed <n>] [--nthreads <n>] <scene>" >&2
+	exit 1
+fi
+
+time=${PBRT_STUB_TIME:-2}
+steps=10
+i=1
+while [ $i -le $steps ]; do
+	sleep $(awk "BEGIN { print $time / $steps }")
+	plusses=$(printf '%*s' $i '' | tr ' ' '+')
+	spaces=$(printf '%*s' $((steps - i)) '')
+	elapsed=$(awk "BEGIN { printf \"%.1f\", $time * $i / $steps }")
+	remaining=$(awk "BEGIN { printf \"%.1f\", $time * ($steps - $i) / $steps }")
+	echo "Rendering: [$plusses$spaces] ($elapsed""s|$remaining""s)"
+	if [ -n "$PBRT_STUB_SNAPSHOTS" ]; then
+		# little endian floats 2, 1.5, 1.25, 1.125, 1.0625 and 1
+		case $i in
+			1) pixel='\000\000\000\100' ;;
+			2) pixel='\000\000\300\077' ;;
+			3) pixel='\000\000\240\077' ;;
+			4) pixel='\000\000\220\077' ;;
+			5) pixel='\000\000\210\077' ;;
+			*) pixel='\000\000\200\077' ;;
+		esac
+		printf "PF\n1 1\n-1.0\n$pixel$pixel$pixel" > "$outfile.snapshot.tmp"
+		mv "$outfile.snapshot.tmp" "$outfile-snapshot-$i.pfm"
+	fi
+	i=$((i + 1))
+done
+
+for extension in pfm txt exr png; do
+	: > "$outfile.$extension"
+done
+exit ${PBRT_STUB_STATUS:-0}
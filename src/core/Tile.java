@@ -1,6 +1,11 @@
 package core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
+ * A rectangular region of an image. The minimum coordinates are inclusive and
+ * the maximum coordinates are exclusive.
  * 
  * @author Niels Billen
  * @version 0.1
@@ -40,6 +45,69 @@ public class Tile {
 		this.maxY = Math.max(minY, maxY);
 	}
 
+	/**
+	 * Returns the number of columns in this tile.
+	 * 
+	 * @return the number of columns in this tile.
+	 */
+	public int width() {
+		return maxX - minX;
+	}
+
+	/**
+	 * Returns the number of rows in this tile.
+	 * 
+	 * @return the number of rows in this tile.
+	 */
+	public int height() {
+		return maxY - minY;
+	}
+
+	/**
+	 * Returns the number of pixels in this tile.
+	 * 
+	 * @return the number of pixels in this tile.
+	 */
+	public int area() {
+		return width() * height();
+	}
+
+	/**
+	 * Splits an image with the given resolution into tiles of at most the
+	 * given size, ordered row by row.
+	 * 
+	 * The tiles only depend on the given sizes, so the same image is always
+	 * split in the same way.
+	 * 
+	 * @param width
+	 *            the width of the image.
+	 * @param height
+	 *            the height of the image.
+	 * @param tileWidth
+	 *            the maximum width of a tile.
+	 * @param tileHeight
+	 *            the maximum height of a tile.
+	 * @throws IllegalArgumentException
+	 *             when one of the sizes is smaller than or equal to zero.
+	 * @return the tiles covering the image.
+	 */
+	public static List<Tile> split(int width, int height, int tileWidth,
+			int tileHeight) throws IllegalArgumentException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException(
+					"the size of the image must be larger than zero!");
+		if (tileWidth <= 0 || tileHeight <= 0)
+			throw new IllegalArgumentException(
+					"the size of the tiles must be larger than zero!");
+
+		List<Tile> result = new ArrayList<Tile>();
+		for (int y = 0; y < height; y += tileHeight)
+			for (int x = 0; x < width; x += tileWidth)
+				result.add(new Tile(x, y, Math.min(x + tileWidth, width), Math
+						.min(y + tileHeight, height)));
+		return result;
+	}
+
 	/**
 	 * 
 	 * @param resolution
@@ -0,0 +1,571 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import util.MetricsRegistry;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * A content-addressed cache of the files scenes depend on, in
+ * <code>~/.pbrt-cache</code> of a remote machine.
+ * 
+ * The includes, meshes and textures a scene file refers to are looked up in
+ * the local directory of the scene and stored once per machine in
+ * <code>objects/&lt;digest&gt;</code>, where the digest is the SHA-256 hash
+ * of their content. Every distinct set of files gets a view
+ * <code>views/&lt;digest&gt;</code> with a symbolic link to the object of
+ * every file under the path the scene refers to it by, so pbrt resolves the
+ * references of a scene file which is put in the view as if it were in the
+ * scene directory. Once the view exists, staging another scene file which
+ * refers to the same files only transfers the scene file itself.
+ * 
+ * Files which do not exist locally are linked to the scene directory of the
+ * pbrt installation on the remote machine instead, so scenes whose data only
+ * sits on the remote machines keep working.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class AssetCache {
+	/**
+	 * The directory of the cache relative to the home directory.
+	 */
+	private static final String CACHE_DIRECTORY = ".pbrt-cache";
+
+	/**
+	 * The scenes directory of the pbrt installation relative to the home
+	 * directory.
+	 */
+	private static final String SCENES_DIRECTORY = "workspace/pbrt-tmlt/scenes";
+
+	/**
+	 * Matches the files included by a scene file.
+	 */
+	private static final Pattern includePattern = Pattern
+			.compile("\\bInclude\\s+\"([^\"]+)\"");
+
+	/**
+	 * Matches the string parameters which refer to a file.
+	 */
+	private static final Pattern filePattern = Pattern
+			.compile("\"string\\s+(?:filename|mapname|bsdffile)\"\\s*\\[?\\s*\"([^\"]+)\"");
+
+	/**
+	 * The caches by their connection.
+	 */
+	private static final Map<SSHConnection, AssetCache> caches = new HashMap<SSHConnection, AssetCache>();
+
+	/**
+	 * The lock guarding the caches.
+	 */
+	private static final ReentrantLock cachesLock = new ReentrantLock();
+
+	/**
+	 * The digests of the local files, which are only recomputed when the size
+	 * or modification time of a file changes.
+	 */
+	private static final Map<File, LocalDigest> digests = new ConcurrentHashMap<File, LocalDigest>();
+
+	/**
+	 * The connection to the remote machine.
+	 */
+	private final SSHConnection connection;
+
+	/**
+	 * The name of the remote machine the metrics of the cache are labelled
+	 * with.
+	 */
+	private final String host;
+
+	/**
+	 * The digests of the objects which are known to exist on the remote
+	 * machine.
+	 */
+	private final Set<String> objects = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The digests of the views which are known to exist on the remote
+	 * machine.
+	 */
+	private final Set<String> views = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The lock serializing the creation of views, so concurrent tasks do not
+	 * upload the same files.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The home directory on the remote machine (null until the cache is
+	 * opened).
+	 */
+	private volatile String home;
+
+	/**
+	 * The number of bytes uploaded into the cache.
+	 */
+	private final AtomicLong uploadedBytes = new AtomicLong();
+
+	/**
+	 * The number of bytes which did not need to be uploaded because they were
+	 * already cached.
+	 */
+	private final AtomicLong reusedBytes = new AtomicLong();
+
+	/**
+	 * Creates a cache on the machine of the given connection.
+	 * 
+	 * @param connection
+	 *            the connection to the remote machine.
+	 */
+	private AssetCache(SSHConnection connection) {
+		this.connection = connection;
+		int index = connection.hostName.indexOf('.');
+		this.host = index < 0 ? connection.hostName : connection.hostName
+				.substring(0, index);
+	}
+
+	/**
+	 * Returns the shared cache on the machine of the given connection.
+	 * 
+	 * @param connection
+	 *            the connection to the remote machine.
+	 * @throws NullPointerException
+	 *             when the given connection is null.
+	 * @return the shared cache on the machine of the given connection.
+	 */
+	public static AssetCache get(SSHConnection connection)
+			throws NullPointerException {
+		if (connection == null)
+			throw new NullPointerException("the given connection is null!");
+		cachesLock.lock();
+		try {
+			AssetCache cache = caches.get(connection);
+			if (cache == null) {
+				cache = new AssetCache(connection);
+				caches.put(connection, cache);
+			}
+			return cache;
+		} finally {
+			cachesLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the absolute path of the cache on the remote machine, creating
+	 * the cache and listing the objects it already contains when this is the
+	 * first call.
+	 * 
+	 * @return the absolute path of the cache on the remote machine.
+	 * @throws IOException
+	 *             when the cache could not be created.
+	 */
+	public String getRoot() throws IOException {
+		if (home == null) {
+			lock.lock();
+			try {
+				if (home == null) {
+					String[] lines = RemoteCommand.query(
+							connection,
+							String.format(
+									"mkdir -p %1$s/objects %1$s/views && pwd && ls %1$s/objects",
+									CACHE_DIRECTORY), 0).split("\n");
+					for (int i = 1; i < lines.length; ++i)
+						if (!lines[i].contains("."))
+							objects.add(lines[i].trim());
+					home = lines[0].trim();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return home + "/" + CACHE_DIRECTORY;
+	}
+
+	/**
+	 * Makes sure the files the given scene file refers to are cached and
+	 * returns the view in which the scene file has to be put.
+	 * 
+	 * @param sceneFile
+	 *            the scene file.
+	 * @param sceneName
+	 *            the name of the scene, whose local directory contains the
+	 *            files the scene file refers to.
+	 * @return the absolute path of the view on the remote machine.
+	 * @throws NullPointerException
+	 *             when the given scene file or scene name is null.
+	 * @throws IOException
+	 *             when the scene file could not be read or the files could
+	 *             not be cached.
+	 */
+	public String stage(File sceneFile, String sceneName)
+			throws NullPointerException, IOException {
+		if (sceneFile == null)
+			throw new NullPointerException("the given scene file is null!");
+		if (sceneName == null)
+			throw new NullPointerException("the given scene name is null!");
+		String root = getRoot();
+
+		/*----------------------------------------------------------------------
+		 * Collect the files the scene refers to
+		 *--------------------------------------------------------------------*/
+
+		File sceneDirectory = LocalComputer.get().getSceneDirectory(sceneName);
+		Map<String, String> links = new TreeMap<String, String>();
+		Map<String, File> files = new HashMap<String, File>();
+		Deque<String> pending = new ArrayDeque<String>();
+		references(new String(Files.readAllBytes(sceneFile.toPath()),
+				StandardCharsets.UTF_8), pending);
+		while (!pending.isEmpty()) {
+			String path = pending.pop();
+			if (links.containsKey(path))
+				continue;
+			File file = new File(sceneDirectory, path);
+			if (file.isFile()) {
+				String digest = digest(file);
+				links.put(path, root + "/objects/" + digest);
+				files.put(digest, file);
+				if (path.endsWith(".pbrt"))
+					references(new String(Files.readAllBytes(file.toPath()),
+							StandardCharsets.UTF_8), pending);
+			} else
+				links.put(path, String.format("%s/%s/%s/%s", home,
+						SCENES_DIRECTORY, sceneName, path));
+		}
+
+		StringBuilder manifest = new StringBuilder();
+		for (Map.Entry<String, String> link : links.entrySet())
+			manifest.append(link.getKey()).append('\0')
+					.append(link.getValue()).append('\n');
+		String view = digest(manifest.toString().getBytes(
+				StandardCharsets.UTF_8));
+		String viewDirectory = root + "/views/" + view;
+		if (views.contains(view)) {
+			for (File file : files.values())
+				reused(file.length());
+			return viewDirectory;
+		}
+
+		/*----------------------------------------------------------------------
+		 * Upload the missing objects and create the view
+		 *--------------------------------------------------------------------*/
+
+		lock.lock();
+		try {
+			if (views.contains(view))
+				return viewDirectory;
+
+			for (Map.Entry<String, File> file : files.entrySet()) {
+				if (objects.contains(file.getKey()))
+					reused(file.getValue().length());
+				else {
+					store(file.getValue(), file.getKey());
+					objects.add(file.getKey());
+				}
+			}
+
+			// the view is assembled aside and renamed into place, so a
+			// concurrent client never sees a partial view
+			StringBuilder command = new StringBuilder("cd ")
+					.append(RemoteCommand.quote(root))
+					.append(" && tmp=$(mktemp -d views/.tmp-XXXXXXXX)");
+			for (Map.Entry<String, String> link : links.entrySet()) {
+				String path = link.getKey();
+				int index = path.lastIndexOf('/');
+				if (index > 0)
+					command.append(" && mkdir -p \"$tmp\"/").append(
+							RemoteCommand.quote(path.substring(0, index)));
+				command.append(" && ln -s ")
+						.append(RemoteCommand.quote(link.getValue()))
+						.append(" \"$tmp\"/")
+						.append(RemoteCommand.quote(path));
+			}
+			command.append(" && { mv -T \"$tmp\" ")
+					.append(RemoteCommand.quote("views/" + view))
+					.append(" 2>/dev/null || rm -rf \"$tmp\"; }");
+			RemoteCommand.query(connection, command.toString(), 0);
+			views.add(view);
+			return viewDirectory;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stages the given scene file and copies it to its view.
+	 * 
+	 * @param sceneFile
+	 *            the scene file.
+	 * @param sceneName
+	 *            the name of the scene, whose local directory contains the
+	 *            files the scene file refers to.
+	 * @return the absolute path of the copy of the scene file on the remote
+	 *         machine.
+	 * @throws NullPointerException
+	 *             when the given scene file or scene name is null.
+	 * @throws IOException
+	 *             when the scene file could not be staged or copied.
+	 * @see #stage(File, String)
+	 */
+	public String upload(File sceneFile, String sceneName)
+			throws NullPointerException, IOException {
+		String path = stage(sceneFile, sceneName) + "/" + sceneFile.getName();
+		final long start = System.nanoTime();
+		try {
+			ChannelSftp sftp = connection.acquireSftp();
+			try {
+				sftp.put(sceneFile.getAbsolutePath(), path);
+			} finally {
+				connection.release(sftp);
+			}
+		} catch (JSchException | SftpException e) {
+			throw new IOException("could not upload \"" + sceneFile.getName()
+					+ "\" to " + connection.hostName + "!", e);
+		}
+		uploaded(sceneFile.length(), start);
+		return path;
+	}
+
+	/**
+	 * Returns the number of bytes which were uploaded to the remote machine.
+	 * 
+	 * @return the number of bytes which were uploaded to the remote machine.
+	 */
+	public long getUploadedBytes() {
+		return uploadedBytes.get();
+	}
+
+	/**
+	 * Returns the number of bytes which did not have to be uploaded because
+	 * they were already cached on the remote machine.
+	 * 
+	 * @return the number of bytes which did not have to be uploaded.
+	 */
+	public long getReusedBytes() {
+		return reusedBytes.get();
+	}
+
+	/**
+	 * Uploads the given file as the object with the given digest. The file is
+	 * uploaded under a temporary name and renamed afterwards, so a partial
+	 * upload is never mistaken for the object.
+	 * 
+	 * @param file
+	 *            the local file.
+	 * @param digest
+	 *            the digest of the file.
+	 * @throws IOException
+	 *             when the file could not be uploaded.
+	 */
+	private void store(File file, String digest) throws IOException {
+		String object = CACHE_DIRECTORY + "/objects/" + digest;
+		String part = object + "." + UUID.randomUUID();
+		final long start = System.nanoTime();
+		try {
+			ChannelSftp sftp = connection.acquireSftp();
+			try {
+				sftp.put(file.getAbsolutePath(), part);
+				try {
+					sftp.rename(part, object);
+				} catch (SftpException e) {
+					// another client uploaded the same object first
+					sftp.rm(part);
+				}
+			} finally {
+				connection.release(sftp);
+			}
+		} catch (JSchException | SftpException e) {
+			throw new IOException("could not upload \"" + file.getPath()
+					+ "\" to " + connection.hostName + "!", e);
+		}
+		uploaded(file.length(), start);
+	}
+
+	/**
+	 * Counts the given number of uploaded bytes, which took from the given
+	 * time until now to upload.
+	 * 
+	 * @param bytes
+	 *            the number of uploaded bytes.
+	 * @param start
+	 *            the time in nanoseconds at which the upload started.
+	 */
+	private void uploaded(long bytes, long start) {
+		uploadedBytes.addAndGet(bytes);
+		MetricsRegistry metrics = MetricsRegistry.get();
+		metrics.counter("upload_bytes", host).add(bytes);
+		metrics.histogram("upload_seconds", host).add(
+				(System.nanoTime() - start) * 1e-9);
+	}
+
+	/**
+	 * Counts the given number of bytes which did not have to be uploaded.
+	 * 
+	 * @param bytes
+	 *            the number of reused bytes.
+	 */
+	private void reused(long bytes) {
+		reusedBytes.addAndGet(bytes);
+		MetricsRegistry.get().counter("reused_bytes", host).add(bytes);
+	}
+
+	/**
+	 * Adds the relative paths of the files the given scene description refers
+	 * to to the given paths. Absolute paths and paths outside the scene
+	 * directory are skipped.
+	 * 
+	 * @param scene
+	 *            the scene description.
+	 * @param paths
+	 *            the paths.
+	 */
+	private static void references(String scene, Deque<String> paths) {
+		StringBuilder builder = new StringBuilder(scene.length());
+		for (String line : scene.split("\n")) {
+			int index = line.indexOf('#');
+			builder.append(index < 0 ? line : line.substring(0, index))
+					.append('\n');
+		}
+		String text = builder.toString();
+
+		for (Pattern pattern : new Pattern[] { includePattern, filePattern }) {
+			Matcher matcher = pattern.matcher(text);
+			while (matcher.find()) {
+				String path = new File(matcher.group(1)).toPath().normalize()
+						.toString();
+				if (!path.isEmpty() && !path.startsWith("/")
+						&& !path.startsWith(".."))
+					paths.push(path);
+			}
+		}
+	}
+
+	/**
+	 * Returns the digest of the given local file.
+	 * 
+	 * @param file
+	 *            the local file.
+	 * @return the digest of the given local file.
+	 * @throws IOException
+	 *             when the file could not be read.
+	 */
+	private static String digest(File file) throws IOException {
+		File key = file.getAbsoluteFile();
+		long length = key.length();
+		long modified = key.lastModified();
+		LocalDigest digest = digests.get(key);
+		if (digest == null || digest.length != length
+				|| digest.modified != modified) {
+			MessageDigest sha = sha256();
+			byte[] buffer = new byte[65536];
+			try (InputStream in = Files.newInputStream(key.toPath())) {
+				int read;
+				while ((read = in.read(buffer)) >= 0)
+					sha.update(buffer, 0, read);
+			}
+			digest = new LocalDigest(length, modified, hex(sha.digest()));
+			digests.put(key, digest);
+		}
+		return digest.digest;
+	}
+
+	/**
+	 * Returns the digest of the given bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes.
+	 * @return the digest of the given bytes.
+	 */
+	private static String digest(byte[] bytes) {
+		return hex(sha256().digest(bytes));
+	}
+
+	/**
+	 * Returns a new SHA-256 message digest.
+	 * 
+	 * @return a new SHA-256 message digest.
+	 */
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the given bytes as a hexadecimal string.
+	 * 
+	 * @param bytes
+	 *            the bytes.
+	 * @return the given bytes as a hexadecimal string.
+	 */
+	private static String hex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes)
+			builder.append(String.format("%02x", b & 0xFF));
+		return builder.toString();
+	}
+
+	/**
+	 * The digest of a local file together with the size and modification time
+	 * of the file when the digest was computed.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class LocalDigest {
+		/**
+		 * The size of the file.
+		 */
+		private final long length;
+
+		/**
+		 * The modification time of the file.
+		 */
+		private final long modified;
+
+		/**
+		 * The digest of the file.
+		 */
+		private final String digest;
+
+		/**
+		 * Creates a new digest of a local file.
+		 * 
+		 * @param length
+		 *            the size of the file.
+		 * @param modified
+		 *            the modification time of the file.
+		 * @param digest
+		 *            the digest of the file.
+		 */
+		public LocalDigest(long length, long modified, String digest) {
+			this.length = length;
+			this.modified = modified;
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package distributed;
+
+import task.RenderTaskInterface;
+
+/**
+ * Listener which is notified of the progress of the individual tasks in a
+ * batch of tasks executed by a {@link Computer}.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public interface BatchExecutionListener {
+	/**
+	 * Called when the computer starts rendering the given task.
+	 * 
+	 * @param task
+	 *            the task which is started.
+	 */
+	public void started(RenderTaskInterface task);
+
+	/**
+	 * Called when the rendering of the given task progressed.
+	 * 
+	 * @param task
+	 *            the task which progressed.
+	 * @param progress
+	 *            the completed fraction of the task.
+	 * @param elapsed
+	 *            the elapsed time in seconds.
+	 * @param eta
+	 *            the estimated remaining time in seconds.
+	 */
+	public void progress(RenderTaskInterface task, double progress,
+			double elapsed, double eta);
+
+	/**
+	 * Called when the results of the given task are available.
+	 * 
+	 * @param task
+	 *            the task which is finished.
+	 */
+	public void finished(RenderTaskInterface task);
+
+	/**
+	 * Called when the given task could not be completed. The other tasks in
+	 * the batch are still executed.
+	 * 
+	 * @param task
+	 *            the task which failed.
+	 * @param exception
+	 *            the reason of the failure.
+	 */
+	public void failed(RenderTaskInterface task, Exception exception);
+}
@@ -1,9 +1,11 @@
 package distributed;
 
 import java.io.File;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import task.ConvergenceMonitor;
 import task.RenderTaskInterface;
 import task.RenderTaskProgressListener;
 
@@ -20,6 +22,12 @@ public abstract class Computer {
 	 */
 	public final int nCores;
 
+	/**
+	 * The maximum time in milliseconds a single task may render on this
+	 * computer (0 = no limit).
+	 */
+	private volatile long timeout = 0;
+
 	/**
 	 * Pattern of the pbrt progress reporter.
 	 * 
@@ -62,6 +70,71 @@ public abstract class Computer {
 		return nCores;
 	}
 
+	/**
+	 * Returns the number of processors of this computer. Computers which do
+	 * not know their number of processors report a single processor, since
+	 * the processors of the computer running the service say nothing about
+	 * them.
+	 * 
+	 * @return the number of processors of this computer.
+	 */
+	public int nProcessors() {
+		return 1;
+	}
+
+	/**
+	 * Returns the number of tasks this computer can execute concurrently.
+	 * 
+	 * A computer which renders on all its cores executes a single task at a
+	 * time. Otherwise every task gets nCores of the available processors.
+	 * 
+	 * @return the number of tasks this computer can execute concurrently.
+	 */
+	public int nSlots() {
+		if (nCores <= 0)
+			return 1;
+		return Math.max(1, nProcessors() / nCores);
+	}
+
+	/**
+	 * Returns whether this computer observes the intermediate images of its
+	 * renders and stops a task with a {@link ConvergenceMonitor} once it has
+	 * converged.
+	 * 
+	 * @return whether this computer stops converged renders early.
+	 */
+	public boolean canStopEarly() {
+		return false;
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds a single task may render on
+	 * this computer.
+	 * 
+	 * @return the maximum time in milliseconds a single task may render on
+	 *         this computer (0 = no limit).
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds a single task may render on this
+	 * computer. A render which takes longer is killed and its execution ends
+	 * with an exception, so the task can be rescheduled.
+	 * 
+	 * @param timeout
+	 *            the maximum time in milliseconds (0 = no limit).
+	 * @throws IllegalArgumentException
+	 *             when the given timeout is negative.
+	 */
+	public void setTimeout(long timeout) throws IllegalArgumentException {
+		if (timeout < 0)
+			throw new IllegalArgumentException(
+					"the timeout must be larger than or equal to zero!");
+		this.timeout = timeout;
+	}
+
 	/**
 	 * 
 	 * @return
@@ -79,23 +152,100 @@ public abstract class Computer {
 			ExecutionException;
 
 	/**
+	 * Requests this computer to stop executing the given task as soon as
+	 * possible. The call to execute which is rendering the task then ends
+	 * with an exception. Does nothing when the task is not being executed or
+	 * when the computer does not support cancellation.
+	 * 
+	 * @param task
+	 *            the task to cancel.
+	 */
+	public void cancel(RenderTaskInterface task) {
+	}
+
+	/**
+	 * Returns the resources which were used by the last execution of the
+	 * given task on this computer.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @return the resources used by the last execution of the given task
+	 *         (null when unknown).
+	 */
+	public ResourceUsage getResourceUsage(RenderTaskInterface task) {
+		return null;
+	}
+
+	/**
+	 * Executes the given tasks one after the other and reports their progress
+	 * to the given listener. Computers which can execute a batch of tasks more
+	 * efficiently than one at a time should override this method.
+	 * 
+	 * A task which fails stops the execution of the batch. The tasks which
+	 * were not reported as finished or failed when an exception is thrown
+	 * have not been executed.
+	 * 
+	 * @param tasks
+	 *            the tasks to execute.
+	 * @param listener
+	 *            the listener which is notified of the progress of the tasks.
+	 * @throws NullPointerException
+	 *             when the given list of tasks or listener is null.
+	 * @throws ExecutionException
+	 *             when a task could not be executed.
+	 */
+	public void execute(List<RenderTaskInterface> tasks,
+			final BatchExecutionListener listener)
+			throws NullPointerException, ExecutionException {
+		if (tasks == null)
+			throw new NullPointerException("the given list of tasks is null!");
+		if (listener == null)
+			throw new NullPointerException("the given listener is null!");
+
+		for (final RenderTaskInterface task : tasks) {
+			listener.started(task);
+			execute(task, new RenderTaskProgressListener() {
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see task.RenderTaskProgressListener#completion(double,
+				 * double, double)
+				 */
+				@Override
+				public void completion(double percentage, double elapsed,
+						double eta) {
+					listener.progress(task, percentage, elapsed, eta);
+				}
+			});
+			listener.finished(task);
+		}
+	}
+
+	/**
+	 * Returns whether the results of the given task are present: the scene
+	 * file and all its artifacts, or only the image when the render was
+	 * stopped early because it had converged.
 	 * 
 	 * @param task
 	 * @return
 	 */
 	public boolean done(RenderTaskInterface task) {
+		File directory = new File(task.getDirectory());
 		String fileName = task.getFilename();
-		String directoryName = task.getDirectory();
-
-		File directory = new File(directoryName);
-		File pbrt = new File(directory, fileName.concat(".pbrt"));
-		File pfm = new File(directory, fileName.concat(".pfm"));
-		File txt = new File(directory, fileName.concat(".txt"));
-		File exr = new File(directory, fileName.concat(".exr"));
-		File png = new File(directory, fileName.concat(".png"));
-		return pbrt.exists() && pfm.exists() && txt.exists() && png.exists()
-				&& exr.exists();
-
+		if (!new File(directory, fileName.concat(".pbrt")).exists())
+			return false;
+		boolean complete = true;
+		for (String extension : task.getArtifacts())
+			if (!new File(directory, fileName + "." + extension).exists()) {
+				complete = false;
+				break;
+			}
+		if (complete)
+			return true;
+		return task.getConvergenceMonitor() != null
+				&& new File(directory, fileName + ".pfm").exists()
+				&& ConvergenceMonitor.isStoppedEarly(new File(directory,
+						fileName + "-convergence.txt"));
 	}
 
 	/**
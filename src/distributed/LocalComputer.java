@@ -1,14 +1,18 @@
 package distributed;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import pbrt.scene.PBRTScene;
+import pfm.PFMReader;
+import task.ConvergenceMonitor;
 import task.RenderTaskInterface;
 import task.RenderTaskProgressListener;
 import util.FileUtil;
@@ -20,6 +24,18 @@ import util.FileUtil;
  * @version 0.1
  */
 public class LocalComputer extends Computer {
+	/**
+	 * The maximum number of resource usages which are kept for tasks whose
+	 * usage was not asked for.
+	 */
+	private static final int MAX_USAGES = 64;
+
+	/**
+	 * The number of threads a render of the local computer uses at least
+	 * when the processors are divided over several renders.
+	 */
+	private static final int THREADS_PER_TASK = 4;
+
 	/**
 	 * Lock for thread-safe access to the instance.
 	 */
@@ -30,6 +46,33 @@ public class LocalComputer extends Computer {
 	 */
 	private static LocalComputer instance;
 
+	/**
+	 * The rendering processes of the tasks which are being executed.
+	 */
+	private final Map<RenderTaskInterface, ProcessSupervisor> processes = new ConcurrentHashMap<RenderTaskInterface, ProcessSupervisor>();
+
+	/**
+	 * The resources used by the last execution of the tasks whose usage was
+	 * not asked for yet, the oldest of which are forgotten when there are too
+	 * many.
+	 */
+	private final Map<RenderTaskInterface, ResourceUsage> usages = Collections
+			.synchronizedMap(new LinkedHashMap<RenderTaskInterface, ResourceUsage>() {
+				private static final long serialVersionUID = 1L;
+
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see
+				 * java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<RenderTaskInterface, ResourceUsage> eldest) {
+					return size() > MAX_USAGES;
+				}
+			});
+
 	/**
 	 * The home directory of the local computer.
 	 */
@@ -48,10 +91,32 @@ public class LocalComputer extends Computer {
 			"workspace/pbrt-tmlt/scenes");
 
 	/**
-	 * Constructs the singleton instance of the local computer.
+	 * Constructs the singleton instance of the local computer, which divides
+	 * its processors evenly over as many concurrent renders as possible
+	 * while giving every render at least {@link #THREADS_PER_TASK} threads.
 	 */
 	private LocalComputer() {
-		super(0);
+		super(coresPerTask());
+	}
+
+	/**
+	 * Returns the number of threads of every render on the local computer.
+	 * 
+	 * @return the number of threads of every render on the local computer.
+	 */
+	private static int coresPerTask() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return processors / Math.max(1, processors / THREADS_PER_TASK);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#nProcessors()
+	 */
+	@Override
+	public int nProcessors() {
+		return Runtime.getRuntime().availableProcessors();
 	}
 
 	/**
@@ -124,8 +189,8 @@ public class LocalComputer extends Computer {
 	 * java.lang.String, computer.ProgressListener)
 	 */
 	@Override
-	public void execute(RenderTaskInterface task,
-			RenderTaskProgressListener listener) {
+	public void execute(final RenderTaskInterface task,
+			final RenderTaskProgressListener listener) {
 		if (done(task))
 			return;
 
@@ -174,42 +239,86 @@ public class LocalComputer extends Computer {
 		ProcessBuilder builder = new ProcessBuilder(command.split(" +"));
 		builder.directory(getPBRTDirectory());
 
+		// every execution starts from an empty error curve, so a retry is not
+		// stopped by the curve of an earlier execution
+		ConvergenceMonitor template = task.getConvergenceMonitor();
+		ConvergenceMonitor monitor = template == null ? null : template.copy();
+		SnapshotWatcher watcher = null;
+		if (monitor != null) {
+			try {
+				watcher = new SnapshotWatcher(resultDirectory,
+						task.getFilename(), monitor, new Runnable() {
+							/*
+							 * (non-Javadoc)
+							 * 
+							 * @see java.lang.Runnable#run()
+							 */
+							@Override
+							public void run() {
+								ProcessSupervisor supervisor = processes
+										.get(task);
+								if (supervisor != null)
+									supervisor.kill();
+							}
+						});
+			} catch (IOException e) {
+				throw new ExecutionException(
+						"could not watch the intermediate images in \""
+								+ resultDirectory.getAbsolutePath() + "\"!", e);
+			}
+		}
+
 		Process process;
 		try {
 			process = builder.start();
 		} catch (IOException e) {
+			close(watcher);
 			throw new ExecutionException(
 					"could not start the rendering process!", e);
 		}
 
-		BufferedReader reader = new BufferedReader(new InputStreamReader(
-				process.getInputStream()));
-
-		double percentage = 0;
-		while (process.isAlive()) {
-			Thread.yield();
-
-			try {
-				if (reader.ready()) {
-					String line = reader.readLine();
-					percentage = updateProgress(line, percentage, listener);
-				}
-			} catch (Exception e) {
+		ProcessSupervisor supervisor = new ProcessSupervisor(process, "pbrt-"
+				+ task.getFilename(), new ProcessSupervisor.LineHandler() {
+			private double percentage = 0;
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * distributed.ProcessSupervisor.LineHandler#handle(java.lang.String)
+			 */
+			@Override
+			public void handle(String line) {
+				percentage = updateProgress(line, percentage, listener);
 			}
-		}
+		});
+		processes.put(task, supervisor);
+		if (watcher != null && watcher.getSnapshot() != null)
+			supervisor.kill();
 
 		int result;
 		try {
-			result = process.waitFor();
-		} catch (InterruptedException e) {
-			throw new ExecutionException(
-					"interrupted while waiting for the rendering"
-							+ " process to finish!", e);
+			result = supervisor.waitFor(getTimeout());
+		} finally {
+			processes.remove(task);
+			usages.put(task, supervisor.getUsage());
+			close(watcher);
 		}
 
-		if (result != 0)
-			throw new ExecutionException("pbrt stopped with exit code "
-					+ result + "!");
+		File snapshot = watcher == null ? null : watcher.getSnapshot();
+		try {
+			if (result != 0 && snapshot == null) {
+				String errors = supervisor.getErrorOutput();
+				throw new ExecutionException("pbrt stopped with exit code "
+						+ result + "!"
+						+ (errors.isEmpty() ? "" : "\n" + errors));
+			}
+			if (monitor != null)
+				finishConvergence(task, monitor, snapshot);
+		} finally {
+			if (monitor != null)
+				deleteSnapshots(resultDirectory, task.getFilename());
+		}
 
 		// perform cleanup
 		File sceneFileCopy = new File(resultDirectory, sceneFile.getName());
@@ -233,6 +342,116 @@ public class LocalComputer extends Computer {
 					"not required rendered files are present!");
 	}
 
+	/**
+	 * Writes the error curve of the given task next to its results. When the
+	 * render was stopped early, the intermediate image it converged with
+	 * becomes the result of the task: it is stored as the PFM file and the
+	 * tone mapped PNG file. The other artifacts are not written by pbrt, the
+	 * curve file marks the task as done without them.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param monitor
+	 *            the monitor of the task.
+	 * @param snapshot
+	 *            the intermediate image the render converged with (null when
+	 *            it rendered to completion).
+	 * @throws ExecutionException
+	 *             when the results could not be written.
+	 */
+	private void finishConvergence(RenderTaskInterface task,
+			ConvergenceMonitor monitor, File snapshot)
+			throws ExecutionException {
+		File directory = new File(task.getDirectory());
+		String name = task.getFilename();
+		try {
+			monitor.write(new File(directory, name + "-convergence.txt"));
+			if (snapshot == null)
+				return;
+
+			Files.copy(snapshot.toPath(),
+					new File(directory, name + ".pfm").toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			PFMReader.read(snapshot).write(new File(directory, name + ".png"));
+		} catch (IOException e) {
+			throw new ExecutionException(
+					"could not write the results of the converged render!", e);
+		}
+	}
+
+	/**
+	 * Deletes the intermediate images pbrt wrote for the output file with the
+	 * given name.
+	 * 
+	 * @param directory
+	 *            the directory containing the output file.
+	 * @param name
+	 *            the name of the output file (without an extension).
+	 */
+	private static void deleteSnapshots(File directory, String name) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		final String prefix = name + "-snapshot-";
+		for (File file : files)
+			if (file.getName().startsWith(prefix)
+					&& file.getName().endsWith(".pfm") && !file.delete())
+				System.err.println("could not delete \"" + file + "\"!");
+	}
+
+	/**
+	 * Stops the given watcher, when there is one.
+	 * 
+	 * @param watcher
+	 *            the watcher (may be null).
+	 */
+	private static void close(SnapshotWatcher watcher) {
+		if (watcher == null)
+			return;
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#canStopEarly()
+	 */
+	@Override
+	public boolean canStopEarly() {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#cancel(task.RenderTaskInterface)
+	 */
+	@Override
+	public void cancel(RenderTaskInterface task) {
+		ProcessSupervisor supervisor = processes.get(task);
+		if (supervisor != null)
+			supervisor.kill();
+	}
+
+	/**
+	 * Returns the resources which were used by the last execution of the
+	 * given task on this computer. The usage is forgotten afterwards, so it
+	 * can be asked for only once.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @return the resources used by the last execution of the given task
+	 *         (null when unknown).
+	 */
+	@Override
+	public ResourceUsage getResourceUsage(RenderTaskInterface task) {
+		return usages.remove(task);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
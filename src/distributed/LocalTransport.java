@@ -0,0 +1,238 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import util.FileUtil;
+
+/**
+ * Transports tasks to pbrt processes on the local machine.
+ * 
+ * Every transport has its own scenes and scratch directory, so many
+ * transports with a stub pbrt executable can stand in for the machines of a
+ * cluster when testing the scheduler.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class LocalTransport implements Transport {
+	/**
+	 * The name of this transport.
+	 */
+	private final String name;
+
+	/**
+	 * The pbrt executable.
+	 */
+	private final File pbrt;
+
+	/**
+	 * The directory containing the scenes.
+	 */
+	private final File scenesDirectory;
+
+	/**
+	 * The directory in which the result directories are created.
+	 */
+	private final File scratchDirectory;
+
+	/**
+	 * The number of processors this transport pretends to have.
+	 */
+	private final int processors;
+
+	/**
+	 * The supervisors of the running renders by their identifier.
+	 */
+	private final Map<String, ProcessSupervisor> renders = new ConcurrentHashMap<String, ProcessSupervisor>();
+
+	/**
+	 * Creates a transport to the pbrt installation of the
+	 * {@link LocalComputer}.
+	 */
+	public LocalTransport() {
+		this("localtransport", LocalComputer.get().getPBRT(), LocalComputer
+				.get().getScenesDirectory(), new File(
+				System.getProperty("java.io.tmpdir")), Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Creates a new local transport.
+	 * 
+	 * @param name
+	 *            the name of the transport.
+	 * @param pbrt
+	 *            the pbrt executable (or a stub with the same arguments).
+	 * @param scenesDirectory
+	 *            the directory containing the scenes.
+	 * @param scratchDirectory
+	 *            the directory in which the result directories are created.
+	 * @param processors
+	 *            the number of processors the transport pretends to have.
+	 * @throws NullPointerException
+	 *             when one of the given arguments is null.
+	 * @throws IllegalArgumentException
+	 *             when the given number of processors is smaller than one.
+	 */
+	public LocalTransport(String name, File pbrt, File scenesDirectory,
+			File scratchDirectory, int processors)
+			throws NullPointerException, IllegalArgumentException {
+		if (name == null)
+			throw new NullPointerException("the given name is null!");
+		if (pbrt == null)
+			throw new NullPointerException("the given executable is null!");
+		if (scenesDirectory == null)
+			throw new NullPointerException(
+					"the given scenes directory is null!");
+		if (scratchDirectory == null)
+			throw new NullPointerException(
+					"the given scratch directory is null!");
+		if (processors < 1)
+			throw new IllegalArgumentException(
+					"the number of processors must be larger than zero!");
+		this.name = name;
+		this.pbrt = pbrt.getAbsoluteFile();
+		this.scenesDirectory = scenesDirectory.getAbsoluteFile();
+		this.scratchDirectory = scratchDirectory.getAbsoluteFile();
+		this.processors = processors;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#getName()
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#nProcessors()
+	 */
+	@Override
+	public int nProcessors() {
+		return processors;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#upload(java.io.File, java.lang.String)
+	 */
+	@Override
+	public String upload(File file, String sceneName) throws IOException {
+		File directory = new File(scenesDirectory, sceneName);
+		if (!FileUtil.mkdirs(directory))
+			throw new IOException("could not create the directory \""
+					+ directory.getAbsolutePath() + "\"!");
+		File copy = new File(directory, file.getName());
+		Files.copy(file.toPath(), copy.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		return copy.getAbsolutePath();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#allocate()
+	 */
+	@Override
+	public String allocate() throws IOException {
+		if (!FileUtil.mkdirs(scratchDirectory))
+			throw new IOException("could not create the directory \""
+					+ scratchDirectory.getAbsolutePath() + "\"!");
+		return Files.createTempDirectory(scratchDirectory.toPath(),
+				"pbrt-").toString();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#run(java.lang.String, java.util.List,
+	 * distributed.ProcessSupervisor.LineHandler, long)
+	 */
+	@Override
+	public int run(String id, List<String> arguments,
+			ProcessSupervisor.LineHandler handler, long timeout)
+			throws IOException, ExecutionException {
+		List<String> command = new ArrayList<String>(arguments.size() + 1);
+		command.add(pbrt.getPath());
+		command.addAll(arguments);
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(pbrt.getParentFile());
+		ProcessSupervisor supervisor = new ProcessSupervisor(builder.start(),
+				name + "-" + id, handler);
+		renders.put(id, supervisor);
+		try {
+			return supervisor.waitFor(timeout);
+		} finally {
+			renders.remove(id);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cancel(java.lang.String)
+	 */
+	@Override
+	public void cancel(String id) {
+		ProcessSupervisor supervisor = renders.get(id);
+		if (supervisor != null)
+			supervisor.kill();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#download(java.lang.String, java.io.File)
+	 */
+	@Override
+	public void download(String directory, File destination)
+			throws IOException {
+		File[] files = new File(directory).listFiles();
+		if (files == null)
+			throw new IOException("the directory \"" + directory
+					+ "\" does not exist!");
+		for (File file : files)
+			if (file.isFile())
+				Files.copy(file.toPath(),
+						new File(destination, file.getName()).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cleanup(java.lang.String[])
+	 */
+	@Override
+	public void cleanup(String... paths) throws IOException {
+		for (String path : paths) {
+			File file = new File(path);
+			if (file.exists() && !FileUtil.rm(file))
+				throw new IOException("could not remove \"" + path + "\"!");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,368 @@
+package distributed;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supervises a running process: its standard output is passed line by line to
+ * a handler and its standard error is kept on dedicated reader threads, so the
+ * process never blocks on a full pipe and nobody has to poll for output.
+ * While waiting for the process, its processor time and peak resident set
+ * size are sampled, and the process is killed when it runs longer than the
+ * allowed time.
+ * 
+ * The processor time and the peak resident set size are read from
+ * <code>/proc</code> and are only known on Linux. Both are sampled
+ * periodically, so the work done in the last sampling interval before the
+ * process exits is not accounted for.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class ProcessSupervisor {
+	/**
+	 * Handles the lines which are written by a process.
+	 */
+	public static interface LineHandler {
+		/**
+		 * Handles a line written by the process.
+		 * 
+		 * @param line
+		 *            the line without its line terminator.
+		 */
+		public void handle(String line);
+	}
+
+	/**
+	 * The interval in milliseconds at which the resource usage of the
+	 * process is sampled.
+	 */
+	private static final long SAMPLE_INTERVAL = 500;
+
+	/**
+	 * The number of lines of the standard error which are kept.
+	 */
+	private static final int ERROR_LINES = 20;
+
+	/**
+	 * The number of clock ticks per second in which <code>/proc</code>
+	 * reports the processor time (<code>USER_HZ</code>, which is 100 on all
+	 * the common Linux platforms).
+	 */
+	private static final long CLOCK_TICKS = 100;
+
+	/**
+	 * The supervised process.
+	 */
+	public final Process process;
+
+	/**
+	 * The process id of the process (-1 when unknown).
+	 */
+	private final long pid;
+
+	/**
+	 * The thread reading the standard output of the process.
+	 */
+	private final Thread outputReader;
+
+	/**
+	 * The thread reading the standard error of the process.
+	 */
+	private final Thread errorReader;
+
+	/**
+	 * The last lines written to the standard error of the process.
+	 */
+	private final ArrayDeque<String> errors = new ArrayDeque<String>();
+
+	/**
+	 * The time at which the supervision started, in nanoseconds.
+	 */
+	private final long start = System.nanoTime();
+
+	/**
+	 * The largest processor time of the process seen so far in milliseconds
+	 * (-1 when unknown).
+	 */
+	private volatile long cpuTime = -1;
+
+	/**
+	 * The largest resident set size of the process seen so far in bytes (-1
+	 * when unknown).
+	 */
+	private volatile long peakMemory = -1;
+
+	/**
+	 * The time the process was running in milliseconds (-1 while running).
+	 */
+	private volatile long wallTime = -1;
+
+	/**
+	 * Starts supervising the given process.
+	 * 
+	 * @param process
+	 *            the process to supervise.
+	 * @param name
+	 *            the name of the reader threads.
+	 * @param handler
+	 *            the handler of the standard output of the process (null to
+	 *            discard the output).
+	 * @throws NullPointerException
+	 *             when the given process or name is null.
+	 */
+	public ProcessSupervisor(Process process, String name,
+			final LineHandler handler) throws NullPointerException {
+		if (process == null)
+			throw new NullPointerException("the given process is null!");
+		if (name == null)
+			throw new NullPointerException("the given name is null!");
+		this.process = process;
+		this.pid = pid(process);
+
+		outputReader = startReader(process.getInputStream(), name + "-stdout",
+				new LineHandler() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see
+					 * distributed.ProcessSupervisor.LineHandler#handle(java
+					 * .lang.String)
+					 */
+					@Override
+					public void handle(String line) {
+						if (handler != null)
+							handler.handle(line);
+					}
+				});
+		errorReader = startReader(process.getErrorStream(), name + "-stderr",
+				new LineHandler() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see
+					 * distributed.ProcessSupervisor.LineHandler#handle(java
+					 * .lang.String)
+					 */
+					@Override
+					public void handle(String line) {
+						synchronized (errors) {
+							if (errors.size() == ERROR_LINES)
+								errors.removeFirst();
+							errors.addLast(line);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Returns the process id of the given process. The process id is not
+	 * exposed by the process api of Java 8, so it is read from the private
+	 * field of the unix implementation, or from the <code>pid()</code> method
+	 * of later versions.
+	 * 
+	 * @param process
+	 *            the process.
+	 * @return the process id of the given process (-1 when unknown).
+	 */
+	private static long pid(Process process) {
+		try {
+			return ((Number) Process.class.getMethod("pid").invoke(process))
+					.longValue();
+		} catch (Exception e) {
+			// Java 8
+		}
+		try {
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getLong(process);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Starts a daemon thread which passes every line of the given stream to
+	 * the given handler until the end of the stream is reached.
+	 * 
+	 * @param stream
+	 *            the stream to read.
+	 * @param name
+	 *            the name of the thread.
+	 * @param handler
+	 *            the handler of the lines.
+	 * @return the started thread.
+	 */
+	private static Thread startReader(final InputStream stream, String name,
+			final LineHandler handler) {
+		Thread thread = new Thread(new Runnable() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run() {
+				try (BufferedReader reader = new BufferedReader(
+						new InputStreamReader(stream))) {
+					String line;
+					while ((line = reader.readLine()) != null)
+						handler.handle(line);
+				} catch (IOException e) {
+					// the stream is closed when the process is destroyed
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Waits until the process exits and all its output has been handled. The
+	 * process is killed when it does not exit within the given time or when
+	 * the waiting thread is interrupted.
+	 * 
+	 * @param timeout
+	 *            the maximum running time of the process in milliseconds (0
+	 *            to wait indefinitely).
+	 * @return the exit code of the process.
+	 * @throws IllegalArgumentException
+	 *             when the given timeout is negative.
+	 * @throws ExecutionException
+	 *             when the process timed out or the waiting thread was
+	 *             interrupted.
+	 */
+	public int waitFor(long timeout) throws IllegalArgumentException,
+			ExecutionException {
+		if (timeout < 0)
+			throw new IllegalArgumentException(
+					"the timeout must be larger than or equal to zero!");
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+		try {
+			while (true) {
+				sample();
+				long wait = SAMPLE_INTERVAL;
+				if (timeout > 0) {
+					long left = TimeUnit.NANOSECONDS.toMillis(deadline
+							- System.nanoTime());
+					if (left <= 0) {
+						kill();
+						throw new ExecutionException(
+								"the process did not finish within " + timeout
+										+ " ms and was killed!");
+					}
+					wait = Math.min(wait, left);
+				}
+				if (process.waitFor(wait, TimeUnit.MILLISECONDS))
+					break;
+			}
+
+			wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- start);
+			outputReader.join();
+			errorReader.join();
+			return process.exitValue();
+		} catch (InterruptedException e) {
+			kill();
+			throw new ExecutionException(
+					"interrupted while waiting for the process to finish!", e);
+		}
+	}
+
+	/**
+	 * Kills the process and its children. The children are killed first, so
+	 * they are not orphaned before they are found.
+	 */
+	public void kill() {
+		if (pid > 0 && process.isAlive())
+			try {
+				new ProcessBuilder("pkill", "-KILL", "-P", Long.toString(pid))
+						.redirectErrorStream(true).start().waitFor();
+			} catch (IOException e) {
+				// pkill is not available on this platform
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		process.destroyForcibly();
+		if (wallTime < 0)
+			wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- start);
+	}
+
+	/**
+	 * Samples the processor time and resident set size of the running
+	 * process.
+	 */
+	private void sample() {
+		if (pid <= 0)
+			return;
+
+		// the user and system time of the process and its waited-for
+		// children are the 14th to 17th field, the name in the 2nd field is
+		// enclosed in parentheses and may contain spaces
+		File stat = new File("/proc/" + pid + "/stat");
+		try {
+			String line = new String(Files.readAllBytes(stat.toPath()),
+					StandardCharsets.US_ASCII);
+			String[] fields = line.substring(line.lastIndexOf(')') + 2)
+					.trim().split(" +");
+			long ticks = 0;
+			for (int i = 11; i <= 14; ++i)
+				ticks += Long.parseLong(fields[i]);
+			cpuTime = Math.max(cpuTime, ticks * 1000 / CLOCK_TICKS);
+		} catch (IOException | RuntimeException e) {
+			// not available on this platform or the process already exited
+		}
+
+		File status = new File("/proc/" + pid + "/status");
+		try {
+			List<String> lines = Files.readAllLines(status.toPath(),
+					StandardCharsets.US_ASCII);
+			for (String line : lines) {
+				if (line.startsWith("VmHWM:")) {
+					String[] fields = line.substring(6).trim().split(" +");
+					peakMemory = Math.max(peakMemory,
+							Long.parseLong(fields[0]) * 1024);
+					break;
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			// not available on this platform or the process already exited
+		}
+	}
+
+	/**
+	 * Returns the last lines the process wrote to its standard error,
+	 * separated by newlines.
+	 * 
+	 * @return the last lines the process wrote to its standard error.
+	 */
+	public String getErrorOutput() {
+		synchronized (errors) {
+			return String.join("\n", errors);
+		}
+	}
+
+	/**
+	 * Returns the resources used by the process so far.
+	 * 
+	 * @return the resources used by the process so far.
+	 */
+	public ResourceUsage getUsage() {
+		long wall = wallTime;
+		if (wall < 0)
+			wall = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		return new ResourceUsage(cpuTime, peakMemory, wall);
+	}
+}
@@ -53,4 +53,34 @@ public class RemoteCluster {
 		}
 		return result;
 	}
+
+	/**
+	 * Returns computers which render on the given remote machines through an
+	 * {@link SSHTransport}.
+	 * 
+	 * @param hostNames
+	 *            the names of the remote machines.
+	 * @param authentication
+	 *            the authentication used to log in on the machines.
+	 * @param nCores
+	 *            the number of cores to use on the machines (0 = all).
+	 * @return computers which render on the given remote machines.
+	 * @throws NullPointerException
+	 *             when the given list of host names or authentication is
+	 *             null.
+	 */
+	public static List<Computer> getCluster(List<String> hostNames,
+			RemoteAuthentication authentication, int nCores)
+			throws NullPointerException {
+		if (hostNames == null)
+			throw new NullPointerException(
+					"the given list of host names is null!");
+		if (authentication == null)
+			throw new NullPointerException("the given authentication is null!");
+		List<Computer> result = new ArrayList<Computer>();
+		for (String hostName : hostNames)
+			result.add(new TransportComputer(new SSHTransport(hostName,
+					authentication), nCores));
+		return result;
+	}
 }
@@ -0,0 +1,459 @@
+package distributed;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+
+/**
+ * A command which is executed on a remote computer over an exec channel of an
+ * {@link SSHConnection}.
+ * 
+ * Nothing polls the channel: the standard output is read by the caller, the
+ * standard error is collected by the session thread of the connection and the
+ * closing of the channel is signalled when that thread closes the error
+ * stream, after the exit status of the command has been received. A command
+ * which does not finish within its timeout is killed by a shared watchdog
+ * thread.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class RemoteCommand implements Closeable {
+	/**
+	 * The number of bytes of the standard error which are kept.
+	 */
+	private static final int ERROR_BYTES = 4096;
+
+	/**
+	 * Kills the commands which exceed their timeout.
+	 */
+	private static final ScheduledExecutorService watchdog = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see
+				 * java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable
+				 * )
+				 */
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable,
+							"remote-command-watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Discards the standard output of commands whose output is not read.
+	 */
+	private static final OutputStream discard = new OutputStream() {
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	/**
+	 * The command which is executed.
+	 */
+	public final String command;
+
+	/**
+	 * The connection on which the command is executed.
+	 */
+	private final SSHConnection connection;
+
+	/**
+	 * The channel executing the command.
+	 */
+	private final ChannelExec exec;
+
+	/**
+	 * Released when the channel is closed.
+	 */
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	/**
+	 * The last bytes written to the standard error, used as a ring buffer.
+	 */
+	private final byte[] errors = new byte[ERROR_BYTES];
+
+	/**
+	 * The total number of bytes written to the standard error.
+	 */
+	private long errorCount = 0;
+
+	/**
+	 * Whether the channel has been returned to the connection.
+	 */
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	/**
+	 * Whether the command has been killed.
+	 */
+	private volatile boolean killed = false;
+
+	/**
+	 * Whether the command has been killed because it exceeded its timeout.
+	 */
+	private volatile boolean timedOut = false;
+
+	/**
+	 * The timeout of the command in milliseconds (0 = no limit).
+	 */
+	private long timeout = 0;
+
+	/**
+	 * Kills the command when its timeout expires (null when there is no
+	 * timeout).
+	 */
+	private ScheduledFuture<?> timer;
+
+	/**
+	 * Opens a channel for executing the given command on the given
+	 * connection. The command is not started before {@link #start(long)} is
+	 * called.
+	 * 
+	 * @param connection
+	 *            the connection to the remote computer.
+	 * @param command
+	 *            the command to execute.
+	 * @throws NullPointerException
+	 *             when the given connection or command is null.
+	 * @throws JSchException
+	 *             when no channel could be opened.
+	 */
+	public RemoteCommand(SSHConnection connection, String command)
+			throws NullPointerException, JSchException {
+		this(connection, command, false);
+	}
+
+	/**
+	 * Opens a channel for executing the given command on the given
+	 * connection. The command is not started before {@link #start(long)} is
+	 * called. The channel of a long-running command does not count towards
+	 * the channel limit of the connection (see
+	 * {@link SSHConnection#openLongRunningExec(String)}).
+	 * 
+	 * @param connection
+	 *            the connection to the remote computer.
+	 * @param command
+	 *            the command to execute.
+	 * @param longRunning
+	 *            whether the command runs for a long time.
+	 * @throws NullPointerException
+	 *             when the given connection or command is null.
+	 * @throws JSchException
+	 *             when no channel could be opened.
+	 */
+	public RemoteCommand(SSHConnection connection, String command,
+			boolean longRunning) throws NullPointerException, JSchException {
+		if (connection == null)
+			throw new NullPointerException("the given connection is null!");
+		if (command == null)
+			throw new NullPointerException("the given command is null!");
+		this.connection = connection;
+		this.command = command;
+		this.exec = longRunning ? connection.openLongRunningExec(command)
+				: connection.openExec(command);
+
+		exec.setOutputStream(discard, true);
+		exec.setErrStream(new OutputStream() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.io.OutputStream#write(int)
+			 */
+			@Override
+			public void write(int b) {
+				synchronized (errors) {
+					errors[(int) (errorCount++ % ERROR_BYTES)] = (byte) b;
+				}
+			}
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.io.OutputStream#close()
+			 */
+			@Override
+			public void close() {
+				closed.countDown();
+			}
+		}, false);
+	}
+
+	/**
+	 * Returns the stream from which the standard output of the command can be
+	 * read. Must be called before the command is started.
+	 * 
+	 * @return the stream from which the standard output can be read.
+	 * @throws IOException
+	 *             when the stream could not be created.
+	 */
+	public InputStream getInputStream() throws IOException {
+		return exec.getInputStream();
+	}
+
+	/**
+	 * Returns the stream to which the standard input of the command can be
+	 * written. Must be called before the command is started.
+	 * 
+	 * @return the stream to which the standard input can be written.
+	 * @throws IOException
+	 *             when the stream could not be created.
+	 */
+	public OutputStream getOutputStream() throws IOException {
+		return exec.getOutputStream();
+	}
+
+	/**
+	 * Starts the command.
+	 * 
+	 * @param timeout
+	 *            the time in milliseconds after which the command is killed
+	 *            (0 = no limit).
+	 * @throws IllegalArgumentException
+	 *             when the given timeout is negative.
+	 * @throws JSchException
+	 *             when the command could not be started.
+	 */
+	public void start(long timeout) throws IllegalArgumentException,
+			JSchException {
+		if (timeout < 0)
+			throw new IllegalArgumentException(
+					"the timeout must be larger than or equal to zero!");
+		exec.connect();
+		this.timeout = timeout;
+		if (timeout > 0)
+			timer = watchdog.schedule(new Runnable() {
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see java.lang.Runnable#run()
+				 */
+				@Override
+				public void run() {
+					timedOut = true;
+					kill();
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the command, passes every line of its standard output to the
+	 * given handler and waits until it finishes.
+	 * 
+	 * @param handler
+	 *            the handler of the standard output (null to discard the
+	 *            output).
+	 * @param timeout
+	 *            the time in milliseconds after which the command is killed
+	 *            (0 = no limit).
+	 * @return the exit status of the command (-1 when it was killed).
+	 * @throws IllegalArgumentException
+	 *             when the given timeout is negative.
+	 * @throws JSchException
+	 *             when the command could not be started.
+	 * @throws IOException
+	 *             when the output could not be read.
+	 * @throws ExecutionException
+	 *             when the command exceeded its timeout or the calling thread
+	 *             was interrupted.
+	 */
+	public int run(ProcessSupervisor.LineHandler handler, long timeout)
+			throws IllegalArgumentException, JSchException, IOException,
+			ExecutionException {
+		InputStream in = getInputStream();
+		start(timeout);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (handler != null)
+					handler.handle(line);
+		} catch (IOException e) {
+			// the output pipe breaks when the command is killed
+			if (!killed)
+				throw e;
+		}
+		return waitFor();
+	}
+
+	/**
+	 * Waits until the channel of the started command is closed.
+	 * 
+	 * @return the exit status of the command (-1 when it was killed).
+	 * @throws ExecutionException
+	 *             when the command exceeded its timeout or the calling thread
+	 *             was interrupted.
+	 */
+	public int waitFor() throws ExecutionException {
+		try {
+			closed.await();
+		} catch (InterruptedException e) {
+			kill();
+			throw new ExecutionException("interrupted while waiting for \""
+					+ command + "\" to finish!", e);
+		} finally {
+			if (timer != null)
+				timer.cancel(false);
+		}
+		if (timedOut)
+			throw new ExecutionException("\"" + command
+					+ "\" did not finish within " + timeout
+					+ " ms and was killed!");
+		return exec.getExitStatus();
+	}
+
+	/**
+	 * Executes the given command on the given connection and returns its
+	 * standard output.
+	 * 
+	 * @param connection
+	 *            the connection to the remote computer.
+	 * @param command
+	 *            the command to execute.
+	 * @param timeout
+	 *            the time in milliseconds after which the command is killed
+	 *            (0 = no limit).
+	 * @return the trimmed standard output of the command.
+	 * @throws NullPointerException
+	 *             when the given connection or command is null.
+	 * @throws IOException
+	 *             when the command could not be executed or exits with a
+	 *             non-zero status.
+	 */
+	public static String query(SSHConnection connection, String command,
+			long timeout) throws NullPointerException, IOException {
+		final StringBuilder builder = new StringBuilder();
+		try (RemoteCommand exec = new RemoteCommand(connection, command)) {
+			exec.check(exec.run(new ProcessSupervisor.LineHandler() {
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see
+				 * distributed.ProcessSupervisor.LineHandler#handle(java.lang
+				 * .String)
+				 */
+				@Override
+				public void handle(String line) {
+					builder.append(line).append("\n");
+				}
+			}, timeout));
+		} catch (JSchException e) {
+			throw new IOException("could not execute \"" + command + "\" on "
+					+ connection.hostName + "!", e);
+		}
+		return builder.toString().trim();
+	}
+
+	/**
+	 * Quotes the given argument for a remote shell.
+	 * 
+	 * @param argument
+	 *            the argument.
+	 * @return the quoted argument.
+	 */
+	public static String quote(String argument) {
+		return "'" + argument.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Throws an exception when the given exit status of this command signals
+	 * a failure.
+	 * 
+	 * @param status
+	 *            the exit status of this command.
+	 * @throws IOException
+	 *             when the given status is not zero.
+	 */
+	public void check(int status) throws IOException {
+		if (status == 0)
+			return;
+		String errors = getErrorOutput();
+		throw new IOException("\"" + command + "\" exited with status "
+				+ status + (errors.isEmpty() ? "!" : ": " + errors));
+	}
+
+	/**
+	 * Kills the remote process and closes the channel. A thread waiting for
+	 * the command returns with an exit status of -1.
+	 */
+	public void kill() {
+		killed = true;
+		try {
+			exec.sendSignal("KILL");
+		} catch (Exception e) {
+			// the server does not have to support signals
+		}
+		exec.disconnect();
+	}
+
+	/**
+	 * Returns whether the command has been killed.
+	 * 
+	 * @return whether the command has been killed.
+	 */
+	public boolean isKilled() {
+		return killed;
+	}
+
+	/**
+	 * Returns the last bytes the command wrote to its standard error.
+	 * 
+	 * @return the last bytes the command wrote to its standard error.
+	 */
+	public String getErrorOutput() {
+		synchronized (errors) {
+			int size = (int) Math.min(errorCount, ERROR_BYTES);
+			int first = (int) ((errorCount - size) % ERROR_BYTES);
+			byte[] bytes = new byte[size];
+			for (int i = 0; i < size; ++i)
+				bytes[i] = errors[(first + i) % ERROR_BYTES];
+			return new String(bytes, StandardCharsets.UTF_8).trim();
+		}
+	}
+
+	/**
+	 * Closes the channel of the command and returns it to the connection.
+	 * Closing a command more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		if (timer != null)
+			timer.cancel(false);
+		if (released.compareAndSet(false, true))
+			connection.close(exec);
+	}
+}
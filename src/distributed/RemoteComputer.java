@@ -1,21 +1,35 @@
 package distributed;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import pbrt.scene.PBRTScene;
 import task.RenderTaskInterface;
 import task.RenderTaskProgressListener;
 import util.FileUtil;
+import util.MetricsRegistry;
+import util.TarReader;
+import util.TarWriter;
 
-import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
 import com.jcraft.jsch.SftpException;
 
 /**
@@ -27,6 +41,59 @@ public class RemoteComputer extends Computer {
 	private final String hostName;
 	private final RemoteAuthentication authentication;
 
+	/**
+	 * The connection to the remote computer, shared by all its tasks.
+	 */
+	private final SSHConnection connection;
+
+	/**
+	 * The channels running pbrt for the tasks which are being executed.
+	 */
+	private final Map<RenderTaskInterface, RemoteCommand> renders = new ConcurrentHashMap<RenderTaskInterface, RemoteCommand>();
+
+	/**
+	 * The time in milliseconds after which the commands which do not render
+	 * are killed (0 = no limit).
+	 */
+	private volatile long commandTimeout = 0;
+
+	/**
+	 * The time in milliseconds a remote pbrt process which exceeded its
+	 * timeout gets to be killed on the remote computer itself, before its
+	 * channel is closed.
+	 */
+	private static final long KILL_GRACE = 30000;
+
+	/**
+	 * The number of processors of the remote computer (0 when unknown).
+	 */
+	private volatile int processors = 0;
+
+	/**
+	 * The lock guarding the render slots.
+	 */
+	private final ReentrantLock renderLock = new ReentrantLock();
+
+	/**
+	 * Signalled when a render slot is freed or a waiting task is cancelled.
+	 */
+	private final Condition renderSlotFreed = renderLock.newCondition();
+
+	/**
+	 * The number of pbrt processes which are running.
+	 */
+	private int rendering = 0;
+
+	/**
+	 * The tasks which are waiting for a render slot.
+	 */
+	private final Set<RenderTaskInterface> waiting = new HashSet<RenderTaskInterface>();
+
+	/**
+	 * The tasks which were cancelled while waiting for a render slot.
+	 */
+	private final Set<RenderTaskInterface> cancelled = new HashSet<RenderTaskInterface>();
+
 	/**
 	 * 
 	 * @param hostName
@@ -54,6 +121,7 @@ public class RemoteComputer extends Computer {
 			throw new NullPointerException("the given authentication is null!");
 		this.hostName = hostName;
 		this.authentication = authentication;
+		this.connection = SSHConnection.get(hostName, authentication);
 
 		ping();
 	}
@@ -63,18 +131,7 @@ public class RemoteComputer extends Computer {
 	 * @return
 	 */
 	public boolean ping() {
-		try {
-			JSch jsch = new JSch();
-			Session session = jsch
-					.getSession(authentication.username, hostName);
-			session.setUserInfo(authentication);
-			session.connect();
-
-			session.disconnect();
-			return true;
-		} catch (Exception e) {
-			return false;
-		}
+		return connection.ping();
 	}
 
 	/**
@@ -97,16 +154,12 @@ public class RemoteComputer extends Computer {
 	 */
 	public void get(String source, String destination) throws JSchException,
 			SftpException {
-		JSch jsch = new JSch();
-		Session session = jsch.getSession(authentication.username, hostName);
-		session.setUserInfo(authentication);
-		session.connect();
-
-		ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
-		sftp.connect();
-		sftp.get(source, destination);
-		sftp.disconnect();
-		session.disconnect();
+		ChannelSftp sftp = connection.acquireSftp();
+		try {
+			sftp.get(source, destination);
+		} finally {
+			connection.release(sftp);
+		}
 	}
 
 	/**
@@ -118,83 +171,280 @@ public class RemoteComputer extends Computer {
 	 */
 	public void put(String source, String destination) throws JSchException,
 			SftpException {
-		JSch jsch = new JSch();
-		Session session = jsch.getSession(authentication.username, hostName);
-		session.setUserInfo(authentication);
-		session.connect();
-
-		ChannelSftp sftp = (ChannelSftp) session.openChannel("sftp");
-		sftp.connect();
-		sftp.put(source, destination);
-		sftp.disconnect();
-		session.disconnect();
+		ChannelSftp sftp = connection.acquireSftp();
+		try {
+			sftp.put(source, destination);
+		} finally {
+			connection.release(sftp);
+		}
 	}
 
 	/**
+	 * Returns the time in milliseconds after which the commands which do not
+	 * render are killed.
 	 * 
-	 * @param source
-	 * @param destination
+	 * @return the time in milliseconds after which the commands which do not
+	 *         render are killed (0 = no limit).
+	 */
+	public long getCommandTimeout() {
+		return commandTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which the commands which do not
+	 * render (creating directories, transferring archives, cleaning up) are
+	 * killed. The renders themselves are limited by {@link #getTimeout()}.
+	 * 
+	 * @param commandTimeout
+	 *            the time in milliseconds (0 = no limit).
+	 * @throws IllegalArgumentException
+	 *             when the given timeout is negative.
+	 */
+	public void setCommandTimeout(long commandTimeout)
+			throws IllegalArgumentException {
+		if (commandTimeout < 0)
+			throw new IllegalArgumentException(
+					"the timeout must be larger than or equal to zero!");
+		this.commandTimeout = commandTimeout;
+	}
+
+	/**
+	 * Executes the given command and waits until it finishes.
+	 * 
+	 * @param command
+	 *            the command to execute.
 	 * @throws JSchException
 	 * @throws SftpException
 	 * @throws IOException
+	 *             when the command exits with a non-zero status.
 	 */
 	public void exec(String command) throws JSchException, SftpException,
 			IOException {
-		JSch jsch = new JSch();
-		Session session = jsch.getSession(authentication.username, hostName);
-		session.setUserInfo(authentication);
-		session.connect();
+		try (RemoteCommand exec = new RemoteCommand(connection, command)) {
+			exec.check(exec.run(null, commandTimeout));
+		}
+	}
+
+	/**
+	 * Executes the given command and returns its standard output.
+	 * 
+	 * @param command
+	 *            the command to execute.
+	 * @return the trimmed standard output of the command.
+	 * @throws IOException
+	 *             when the command could not be executed or exits with a
+	 *             non-zero status.
+	 */
+	public String query(String command) throws IOException {
+		return RemoteCommand.query(connection, command, commandTimeout);
+	}
+
+	/**
+	 * Returns the number of processors of the remote computer, as reported by
+	 * <code>nproc</code>. When the remote computer cannot be queried, a single
+	 * processor is assumed.
+	 * 
+	 * @return the number of processors of the remote computer.
+	 */
+	@Override
+	public int nProcessors() {
+		if (processors == 0) {
+			int result;
+			try {
+				result = Integer.parseInt(query("nproc"));
+			} catch (Exception e) {
+				result = 1;
+			}
+			processors = Math.max(1, result);
+		}
+		return processors;
+	}
+
+	/**
+	 * Returns the number of tasks this computer executes concurrently, which
+	 * is one more than the number of pbrt processes it runs concurrently. The
+	 * extra task uploads its scene file and waits for a render slot while the
+	 * results of another task are retrieved, so the remote computer keeps
+	 * rendering during the retrieval.
+	 * 
+	 * @return the number of tasks this computer executes concurrently.
+	 */
+	@Override
+	public int nSlots() {
+		return super.nSlots() + 1;
+	}
+
+	/**
+	 * Waits until fewer pbrt processes are running than the number of render
+	 * slots of this computer and claims a render slot for the given task.
+	 * 
+	 * @param task
+	 *            the task which is going to be rendered.
+	 * @throws ExecutionException
+	 *             when the task was cancelled while waiting.
+	 */
+	private void acquireRenderSlot(RenderTaskInterface task)
+			throws ExecutionException {
+		int slots = super.nSlots();
+		renderLock.lock();
+		try {
+			waiting.add(task);
+			while (rendering >= slots && !cancelled.contains(task))
+				renderSlotFreed.awaitUninterruptibly();
+			waiting.remove(task);
+			if (cancelled.remove(task))
+				throw new ExecutionException(
+						"the task was cancelled while waiting for a render slot on "
+								+ hostName + "!");
+			++rendering;
+		} finally {
+			renderLock.unlock();
+		}
+	}
 
-		ChannelExec exec = (ChannelExec) session.openChannel("exec");
-		exec.setCommand(command);
-		exec.connect();
+	/**
+	 * Frees a render slot claimed by {@link #acquireRenderSlot}.
+	 */
+	private void releaseRenderSlot() {
+		renderLock.lock();
+		try {
+			--rendering;
+			renderSlotFreed.signalAll();
+		} finally {
+			renderLock.unlock();
+		}
+	}
 
-		while (!exec.isClosed())
-			Thread.yield();
+	/**
+	 * Returns the shell command which renders the given scene file of the
+	 * given task to the given output file, relative to the pbrt directory.
+	 * When a timeout is set, the remote computer kills pbrt itself when it
+	 * exceeds the timeout.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param outFile
+	 *            the output file.
+	 * @param sceneFile
+	 *            the scene file.
+	 * @return the shell command which renders the given task.
+	 */
+	private String pbrtCommand(RenderTaskInterface task, String outFile,
+			String sceneFile) {
+		StringBuilder command = new StringBuilder("nice -n 19");
+		long timeout = getTimeout();
+		if (timeout > 0)
+			command.append(String.format(" timeout -s KILL %d",
+					(timeout + 999) / 1000));
+		command.append(String.format(" ./pbrt --outfile %s --seed %s",
+				outFile, task.getSeed()));
+		if (nCores() > 0)
+			command.append(String.format(" --nthreads %d", nCores()));
+		return command.append(' ').append(sceneFile).toString();
+	}
 
-		exec.disconnect();
-		session.disconnect();
+	/**
+	 * Returns the time in milliseconds after which a channel rendering the
+	 * given number of tasks is closed.
+	 * 
+	 * @param nbOfTasks
+	 *            the number of tasks rendered one after the other.
+	 * @return the time in milliseconds after which the channel is closed (0 =
+	 *         no limit).
+	 */
+	private long renderTimeout(int nbOfTasks) {
+		long timeout = getTimeout();
+		return timeout > 0 ? timeout * nbOfTasks + KILL_GRACE : 0;
 	}
 
 	/**
+	 * Executes the given pbrt command and reports its progress to the given
+	 * listener.
 	 * 
 	 * @param command
+	 * @param task
+	 *            the task which is rendered by the command.
 	 * @param listener
 	 * @throws JSchException
-	 * @throws SftpException
 	 * @throws IOException
+	 * @throws ExecutionException
+	 *             when pbrt exceeded the timeout or did not finish
+	 *             successfully.
 	 */
-	private void pbrt(String command, RenderTaskProgressListener listener)
-			throws JSchException, SftpException, IOException {
-		JSch jsch = new JSch();
-		Session session = jsch.getSession(authentication.username, hostName);
-		session.setUserInfo(authentication);
-		session.connect();
-
-		ChannelExec exec = (ChannelExec) session.openChannel("exec");
-		exec.setCommand(command);
-
-		InputStream in = exec.getInputStream();
-		InputStreamReader reader = new InputStreamReader(in);
-		BufferedReader buffered = new BufferedReader(reader);
-		exec.connect();
-
-		double percentage = 0;
-		while (true) {
-			if (buffered.ready()) {
-				String line = buffered.readLine();
-				percentage = updateProgress(line, percentage, listener);
-			}
-			if (exec.isClosed()) {
-				if (buffered.ready())
-					continue;
-				break;
+	private void pbrt(String command, RenderTaskInterface task,
+			final RenderTaskProgressListener listener) throws JSchException,
+			IOException, ExecutionException {
+		RemoteCommand exec = new RemoteCommand(connection, command, true);
+		renders.put(task, exec);
+		int status;
+		try {
+			status = exec.run(new ProcessSupervisor.LineHandler() {
+				private double percentage = 0;
+
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see
+				 * distributed.ProcessSupervisor.LineHandler#handle(java.lang
+				 * .String)
+				 */
+				@Override
+				public void handle(String line) {
+					percentage = updateProgress(line, percentage, listener);
+				}
+			}, renderTimeout(1));
+		} finally {
+			renders.remove(task);
+			exec.close();
+		}
+
+		if (status != 0) {
+			String errors = exec.getErrorOutput();
+			throw new ExecutionException(describe(status)
+					+ (errors.isEmpty() ? "" : "\n" + errors));
+		}
+	}
+
+	/**
+	 * Describes the given non-zero exit status of pbrt.
+	 * 
+	 * @param status
+	 *            the exit status.
+	 * @return a description of the given exit status.
+	 */
+	private String describe(int status) {
+		if (status == 137 && getTimeout() > 0)
+			return "pbrt was killed, probably because it did not finish within "
+					+ getTimeout() + " ms!";
+		if (status < 0)
+			return "pbrt was killed!";
+		return "pbrt stopped with exit code " + status + "!";
+	}
+
+	/**
+	 * Kills the remote pbrt process of the given task and closes its channel,
+	 * or stops the task from waiting for a render slot. The results of the
+	 * task are not retrieved. A task of a batch stops the batch, whose
+	 * unfinished tasks fail.
+	 * 
+	 * @param task
+	 *            the task to cancel.
+	 */
+	@Override
+	public void cancel(RenderTaskInterface task) {
+		renderLock.lock();
+		try {
+			if (waiting.contains(task)) {
+				cancelled.add(task);
+				renderSlotFreed.signalAll();
 			}
-			Thread.yield();
+		} finally {
+			renderLock.unlock();
 		}
 
-		exec.disconnect();
-		session.disconnect();
+		RemoteCommand exec = renders.get(task);
+		if (exec != null)
+			exec.kill();
 	}
 
 	/*
@@ -238,13 +488,10 @@ public class RemoteComputer extends Computer {
 		 * Copy the file to the remote computer
 		 *--------------------------------------------------------------------*/
 
+		String remoteSceneFile;
 		try {
-			String source = sceneFile.getAbsolutePath();
-			String destination = String.format(
-					"/home/%s/workspace/pbrt-tmlt/scenes/%s/%s",
-					authentication.username, task.getSceneName(),
-					sceneFile.getName());
-			put(source, destination);
+			remoteSceneFile = AssetCache.get(connection).upload(sceneFile,
+					sceneName);
 		} catch (Exception e) {
 			throw new ExecutionException("could not connect to " + hostName
 					+ " to transfer the scene file using sftp!", e);
@@ -268,33 +515,31 @@ public class RemoteComputer extends Computer {
 		 * Execute the pbrt command
 		 *--------------------------------------------------------------------*/
 
-		String remoteSceneFile = String.format("scenes/%s/%s.pbrt", sceneName,
-				outputName);
 		String outFile = String.format("/tmp/%s/%s", sceneName, outputName);
+		acquireRenderSlot(task);
 		try {
-			String command;
-
-			if (nCores() <= 0)
-				command = String
-						.format("cd workspace/pbrt-tmlt && nice -n 19 ./pbrt --outfile %s --seed %s %s",
-								outFile, task.getSeed(), remoteSceneFile);
-			else
-				command = String
-						.format("cd workspace/pbrt-tmlt && nice -n 19 ./pbrt --outfile %s --seed %s --nthreads %d %s",
-								outFile, task.getSeed(), nCores(),
-								remoteSceneFile);
-			pbrt(command, listener);
+			pbrt("cd workspace/pbrt-tmlt && "
+					+ pbrtCommand(task, outFile, remoteSceneFile), task,
+					listener);
+		} catch (ExecutionException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new ExecutionException(
 					"could execute pbrt on the remote pc!", e);
+		} finally {
+			releaseRenderSlot();
 		}
 
 		/*----------------------------------------------------------------------
-		 * Retrieve the remote files
+		 * Retrieve the remote files while the next task renders
 		 *--------------------------------------------------------------------*/
 
 		try {
-			get(outFile.concat(".*"), task.getDirectory());
+			List<String> names = new ArrayList<String>();
+			for (String extension : task.getArtifacts())
+				names.add(outputName + "." + extension);
+			retrieve(String.format("/tmp/%s", sceneName), names,
+					new RenderTaskInterface[] { task });
 		} catch (Exception e) {
 			throw new ExecutionException(
 					"could not retrieve the rendered files!", e);
@@ -305,7 +550,7 @@ public class RemoteComputer extends Computer {
 		 *--------------------------------------------------------------------*/
 
 		try {
-			exec(String.format("rm workspace/pbrt-tmlt/%s", remoteSceneFile));
+			exec(String.format("rm %s", remoteSceneFile));
 		} catch (Exception e) {
 			throw new ExecutionException(
 					"could not cleand the remote files in /tmp folder!", e);
@@ -326,4 +571,316 @@ public class RemoteComputer extends Computer {
 			throw new ExecutionException(
 					"not required rendered files are present!");
 	}
+
+	/**
+	 * Retrieves the given result files from the given remote directory as a
+	 * single compressed archive and stores every file in the directory of the
+	 * task it belongs to. The name of a file in a subdirectory starts with
+	 * the index of its task, the files directly in the remote directory
+	 * belong to the first task. Every file is written under a temporary name
+	 * first, so an interrupted retrieval never leaves a partial result behind.
+	 * 
+	 * @param directory
+	 *            the remote directory.
+	 * @param names
+	 *            the names of the files relative to the remote directory.
+	 * @param tasks
+	 *            the tasks the files belong to.
+	 * @throws JSchException
+	 * @throws IOException
+	 *             when the files could not be retrieved.
+	 */
+	private void retrieve(String directory, List<String> names,
+			RenderTaskInterface[] tasks) throws JSchException, IOException {
+		// the exit status of tar is passed through a file, since a pipeline
+		// exits with the status of gzip and not every shell has pipefail
+		StringBuilder command = new StringBuilder("cd ").append(directory)
+				.append(" && { tar -c -f -");
+		for (String name : names)
+			command.append(' ').append(name);
+		command.append(" ; echo $? > .tar-status ; } | gzip -1")
+				.append(" && exit $(cat .tar-status)");
+
+		Set<String> expected = new HashSet<String>(names);
+		final long start = System.nanoTime();
+		long bytes = 0;
+		try (RemoteCommand download = new RemoteCommand(connection,
+				command.toString())) {
+			InputStream in = download.getInputStream();
+			download.start(commandTimeout);
+			try (InputStream gzip = new GZIPInputStream(in)) {
+				TarReader tar = new TarReader(gzip);
+				while (tar.next()) {
+					String name = tar.getName();
+					if (!expected.contains(name))
+						continue;
+					int index = name.indexOf('/');
+					RenderTaskInterface task = tasks[index < 0 ? 0 : Integer
+							.parseInt(name.substring(0, index))];
+					File file = new File(task.getDirectory(),
+							name.substring(index + 1));
+					File part = new File(file.getPath() + ".part");
+					tar.copy(part);
+					bytes += tar.getSize();
+					Files.move(part.toPath(), file.toPath(),
+							StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+				}
+
+				// consume the end of the compressed stream
+				byte[] buffer = new byte[4096];
+				while (gzip.read(buffer) >= 0)
+					;
+			}
+			download.check(download.waitFor());
+		}
+
+		MetricsRegistry metrics = MetricsRegistry.get();
+		metrics.counter("download_bytes", getName()).add(bytes);
+		metrics.histogram("download_seconds", getName()).add(
+				(System.nanoTime() - start) * 1e-9);
+	}
+
+	/**
+	 * Marks the start and end of the tasks in the output of a batch.
+	 */
+	private static final Pattern batchMarker = Pattern
+			.compile("@@pbrt-batch (start|end) ([0-9]+)(?: (-?[0-9]+))?");
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#execute(java.util.List,
+	 * distributed.BatchExecutionListener)
+	 */
+	@Override
+	public void execute(List<RenderTaskInterface> tasks,
+			final BatchExecutionListener listener)
+			throws NullPointerException, ExecutionException {
+		if (tasks == null)
+			throw new NullPointerException("the given list of tasks is null!");
+		if (listener == null)
+			throw new NullPointerException("the given listener is null!");
+		if (tasks.size() <= 1) {
+			super.execute(tasks, listener);
+			return;
+		}
+
+		final List<RenderTaskInterface> pending = new ArrayList<RenderTaskInterface>();
+		for (RenderTaskInterface task : tasks) {
+			if (done(task)) {
+				listener.started(task);
+				listener.finished(task);
+			} else
+				pending.add(task);
+		}
+		if (pending.isEmpty())
+			return;
+
+		final String batchDirectory = "/tmp/pbrt-batch-" + UUID.randomUUID();
+
+		/*----------------------------------------------------------------------
+		 * Write the scene files and ship them in a single archive
+		 *--------------------------------------------------------------------*/
+
+		StringBuilder cleanup = new StringBuilder("rm -rf ")
+				.append(batchDirectory);
+		String[] remoteSceneFiles = new String[pending.size()];
+		RemoteCommand upload = null;
+		try {
+			AssetCache cache = AssetCache.get(connection);
+			String root = cache.getRoot();
+			File[] sceneFiles = new File[pending.size()];
+			for (int i = 0; i < pending.size(); ++i) {
+				RenderTaskInterface task = pending.get(i);
+				final File resultDirectory = new File(task.getDirectory());
+				if (!FileUtil.mkdirs(resultDirectory))
+					throw new ExecutionException("the requested directory \""
+							+ resultDirectory.getAbsolutePath()
+							+ "\" could not be allocated!");
+
+				sceneFiles[i] = new File(resultDirectory, task.getFilename()
+						.concat(".pbrt"));
+				task.getScene().print(sceneFiles[i]);
+				remoteSceneFiles[i] = cache.stage(sceneFiles[i],
+						task.getSceneName())
+						+ "/" + sceneFiles[i].getName();
+				cleanup.append(' ').append(remoteSceneFiles[i]);
+			}
+
+			final long start = System.nanoTime();
+			upload = new RemoteCommand(connection, "tar -x -f - -C " + root);
+			OutputStream out = upload.getOutputStream();
+			upload.start(commandTimeout);
+
+			long bytes = 0;
+			try (TarWriter tar = new TarWriter(out)) {
+				for (int i = 0; i < pending.size(); ++i) {
+					tar.add(remoteSceneFiles[i].substring(root.length() + 1),
+							sceneFiles[i]);
+					bytes += sceneFiles[i].length();
+				}
+			}
+
+			upload.check(upload.waitFor());
+			MetricsRegistry metrics = MetricsRegistry.get();
+			metrics.counter("upload_bytes", getName()).add(bytes);
+			metrics.histogram("upload_seconds", getName()).add(
+					(System.nanoTime() - start) * 1e-9);
+		} catch (IOException | JSchException e) {
+			throw new ExecutionException("could not transfer the scene files to "
+					+ hostName + "!", e);
+		} finally {
+			if (upload != null)
+				upload.close();
+		}
+
+		try {
+			/*------------------------------------------------------------------
+			 * Render all the scenes one after the other in a single shell
+			 *----------------------------------------------------------------*/
+
+			StringBuilder script = new StringBuilder("cd workspace/pbrt-tmlt");
+			for (int i = 0; i < pending.size(); ++i) {
+				RenderTaskInterface task = pending.get(i);
+				String outFile = String.format("%s/%d/%s", batchDirectory, i,
+						task.getFilename());
+
+				script.append(String.format(
+						" ; mkdir -p %s/%d ; echo '@@pbrt-batch start %d'",
+						batchDirectory, i, i));
+				script.append(" ; ").append(
+						pbrtCommand(task, outFile, remoteSceneFiles[i]));
+				script.append(String.format(
+						" ; printf '\\n@@pbrt-batch end %d %%d\\n' $?", i));
+			}
+
+			final int[] status = new int[pending.size()];
+			Arrays.fill(status, -1);
+
+			// the shell renders the scenes one after the other, so the batch
+			// never runs more than one pbrt process and takes one render slot
+			acquireRenderSlot(pending.get(0));
+			RemoteCommand run = null;
+			try {
+				run = new RemoteCommand(connection, script.toString(), true);
+
+				// cancelling a task which did not finish yet stops the whole
+				// batch, whose remaining tasks fail and are retried elsewhere
+				for (RenderTaskInterface task : pending)
+					renders.put(task, run);
+				int exit = run.run(new ProcessSupervisor.LineHandler() {
+					private RenderTaskInterface current = null;
+					private double percentage = 0;
+
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see
+					 * distributed.ProcessSupervisor.LineHandler#handle(java
+					 * .lang.String)
+					 */
+					@Override
+					public void handle(String line) {
+						Matcher matcher = batchMarker.matcher(line);
+						if (matcher.find()) {
+							int index = Integer.parseInt(matcher.group(2));
+							if (matcher.group(1).equals("start")) {
+								current = pending.get(index);
+								percentage = 0;
+								listener.started(current);
+							} else {
+								status[index] = Integer.parseInt(matcher
+										.group(3));
+								renders.remove(pending.get(index));
+								current = null;
+							}
+						} else if (current != null) {
+							final RenderTaskInterface task = current;
+							percentage = updateProgress(line, percentage,
+									new RenderTaskProgressListener() {
+										/*
+										 * (non-Javadoc)
+										 * 
+										 * @see
+										 * task.RenderTaskProgressListener#completion
+										 * (double, double, double)
+										 */
+										@Override
+										public void completion(double percentage,
+												double elapsed, double eta) {
+											listener.progress(task, percentage,
+													elapsed, eta);
+										}
+									});
+						}
+					}
+				}, renderTimeout(pending.size()));
+
+				// the results of the tasks which finished before a
+				// cancellation killed the batch are still retrieved
+				if (!run.isKilled())
+					run.check(exit);
+			} catch (ExecutionException e) {
+				// the tasks which did not report an exit status fail below
+				e.printStackTrace();
+			} finally {
+				for (RenderTaskInterface task : pending)
+					renders.remove(task);
+				if (run != null)
+					run.close();
+				releaseRenderSlot();
+			}
+
+			/*------------------------------------------------------------------
+			 * Retrieve the rendered files in a single compressed archive
+			 *----------------------------------------------------------------*/
+
+			List<String> names = new ArrayList<String>();
+			RenderTaskInterface[] owners = new RenderTaskInterface[pending
+					.size()];
+			for (int i = 0; i < pending.size(); ++i) {
+				RenderTaskInterface task = pending.get(i);
+				owners[i] = task;
+				if (status[i] == 0)
+					for (String extension : task.getArtifacts())
+						names.add(String.format("%d/%s.%s", i,
+								task.getFilename(), extension));
+			}
+			if (!names.isEmpty())
+				retrieve(batchDirectory, names, owners);
+
+			/*------------------------------------------------------------------
+			 * Report the result of every task
+			 *----------------------------------------------------------------*/
+
+			for (int i = 0; i < pending.size(); ++i) {
+				RenderTaskInterface task = pending.get(i);
+				if (status[i] < 0)
+					listener.failed(task, new ExecutionException(
+							"the task was not executed by " + hostName + "!"));
+				else if (status[i] != 0)
+					listener.failed(task, new ExecutionException(
+							describe(status[i])));
+				else if (!done(task))
+					listener.failed(task, new ExecutionException(
+							"not required rendered files are present!"));
+				else
+					listener.finished(task);
+			}
+		} catch (IOException | JSchException | NumberFormatException e) {
+			throw new ExecutionException("could not execute the batch on "
+					+ hostName + "!", e);
+		} finally {
+			/*------------------------------------------------------------------
+			 * Perform cleanup
+			 *----------------------------------------------------------------*/
+
+			try {
+				exec(cleanup.toString());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
 }
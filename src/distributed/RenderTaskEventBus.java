@@ -0,0 +1,487 @@
+package distributed;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import task.RenderTaskInterface;
+
+/**
+ * Delivers the events of a {@link RenderTaskExecutionService} to its
+ * listeners on a thread of its own, so slow listeners never hold up the
+ * threads executing the tasks or the dispatcher.
+ * 
+ * Publishing an event appends it to a bounded ring buffer. A progress event
+ * of an execution whose previous progress event was not delivered yet
+ * replaces the values of that event, so the listeners only see the latest
+ * progress of every execution. Progress events never wait: they may fill at
+ * most half of the buffer and are dropped and counted beyond that. The other
+ * half is reserved for the events which start, finish or fail a task, which
+ * are never dropped; when the listeners fall behind by the whole buffer,
+ * publishing them waits until the buffer is emptied. They must therefore not
+ * be published while holding a lock a listener may need.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class RenderTaskEventBus implements RenderTaskExecutionServiceListener {
+	/**
+	 * The listeners, which can be added while events are delivered.
+	 */
+	private final List<RenderTaskExecutionServiceListener> listeners = new CopyOnWriteArrayList<RenderTaskExecutionServiceListener>();
+
+	/**
+	 * The events which were not delivered yet, starting at the head.
+	 */
+	private final Event[] ring;
+
+	/**
+	 * The index of the oldest event in the ring.
+	 */
+	private int head = 0;
+
+	/**
+	 * The number of events in the ring.
+	 */
+	private int size = 0;
+
+	/**
+	 * The undelivered progress events by the execution they belong to.
+	 */
+	private final Map<Execution, Event> pending = new HashMap<Execution, Event>();
+
+	/**
+	 * The number of progress events which were merged into an undelivered
+	 * event.
+	 */
+	private long coalesced = 0;
+
+	/**
+	 * The number of progress events which were dropped because the ring was
+	 * too full.
+	 */
+	private long dropped = 0;
+
+	/**
+	 * Whether the bus was closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The lock guarding the ring.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when an event is added to the ring or the bus is closed.
+	 */
+	private final Condition published = lock.newCondition();
+
+	/**
+	 * Signalled when the ring is emptied or the bus is closed.
+	 */
+	private final Condition delivered = lock.newCondition();
+
+	/**
+	 * The thread delivering the events (null when it was not started).
+	 */
+	private Thread consumer;
+
+	/**
+	 * Creates a bus which buffers the given number of undelivered events.
+	 * 
+	 * @param capacity
+	 *            the maximum number of undelivered events.
+	 * @throws IllegalArgumentException
+	 *             when the given capacity is not positive.
+	 */
+	public RenderTaskEventBus(int capacity) throws IllegalArgumentException {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(
+					"the capacity must be larger than zero!");
+		this.ring = new Event[capacity];
+	}
+
+	/**
+	 * Adds the given listener, which receives the events published after it
+	 * was added.
+	 * 
+	 * @param listener
+	 *            the listener.
+	 * @throws NullPointerException
+	 *             when the given listener is null.
+	 */
+	public void addListener(RenderTaskExecutionServiceListener listener)
+			throws NullPointerException {
+		if (listener == null)
+			throw new NullPointerException("the given listener is null!");
+		listeners.add(listener);
+	}
+
+	/**
+	 * Starts delivering the events. Events published before are buffered.
+	 * 
+	 * @throws IllegalStateException
+	 *             when the bus was already started or closed.
+	 */
+	public void start() throws IllegalStateException {
+		lock.lock();
+		try {
+			if (consumer != null || closed)
+				throw new IllegalStateException(
+						"the event bus was already started!");
+			consumer = new Thread(new Runnable() {
+				/*
+				 * (non-Javadoc)
+				 * 
+				 * @see java.lang.Runnable#run()
+				 */
+				@Override
+				public void run() {
+					consume();
+				}
+			}, "render-events");
+			consumer.setDaemon(true);
+			consumer.start();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Delivers the events which were already published and stops the bus.
+	 * Events published afterwards are discarded.
+	 */
+	public void close() {
+		Thread thread;
+		lock.lock();
+		try {
+			closed = true;
+			published.signal();
+			delivered.signalAll();
+			thread = consumer;
+		} finally {
+			lock.unlock();
+		}
+		if (thread == null)
+			return;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of progress events which were merged into an
+	 * undelivered progress event of the same execution.
+	 * 
+	 * @return the number of coalesced progress events.
+	 */
+	public long getCoalescedEvents() {
+		lock.lock();
+		try {
+			return coalesced;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of progress events which were dropped because the
+	 * listeners fell too far behind.
+	 * 
+	 * @return the number of dropped progress events.
+	 */
+	public long getDroppedEvents() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * distributed.RenderTaskExecutionServiceListener#started(distributed.Computer
+	 * , task.RenderTaskInterface)
+	 */
+	@Override
+	public void started(Computer computer, RenderTaskInterface task) {
+		publish(new Event(Kind.STARTED, computer, task));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * distributed.RenderTaskExecutionServiceListener#progress(distributed.Computer
+	 * , task.RenderTaskInterface, double, double, double)
+	 */
+	@Override
+	public void progress(Computer computer, RenderTaskInterface task,
+			double progress, double elapsed, double eta) {
+		Execution execution = new Execution(computer, task);
+		lock.lock();
+		try {
+			Event event = pending.get(execution);
+			if (event != null) {
+				event.progress = progress;
+				event.elapsed = elapsed;
+				event.eta = eta;
+				++coalesced;
+				return;
+			}
+			if (closed)
+				return;
+			if (size >= Math.max(1, ring.length / 2)) {
+				++dropped;
+				return;
+			}
+			event = new Event(Kind.PROGRESS, computer, task);
+			event.progress = progress;
+			event.elapsed = elapsed;
+			event.eta = eta;
+			enqueue(event);
+			pending.put(execution, event);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * distributed.RenderTaskExecutionServiceListener#finished(distributed.Computer
+	 * , task.RenderTaskInterface)
+	 */
+	@Override
+	public void finished(Computer computer, RenderTaskInterface task) {
+		publish(new Event(Kind.FINISHED, computer, task));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * distributed.RenderTaskExecutionServiceListener#error(distributed.Computer
+	 * , task.RenderTaskInterface)
+	 */
+	@Override
+	public void error(Computer computer, RenderTaskInterface task) {
+		publish(new Event(Kind.ERROR, computer, task));
+	}
+
+	/**
+	 * Appends the given event to the ring, waiting for the consumer to empty
+	 * the ring when it is full. The event is discarded when the bus is
+	 * closed.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	private void publish(Event event) {
+		lock.lock();
+		try {
+			while (size == ring.length && !closed)
+				delivered.awaitUninterruptibly();
+			if (!closed)
+				enqueue(event);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the given event to the ring, which must have room for it. The
+	 * lock must be held by the caller.
+	 * 
+	 * @param event
+	 *            the event.
+	 */
+	private void enqueue(Event event) {
+		ring[(head + size) % ring.length] = event;
+		++size;
+		published.signal();
+	}
+
+	/**
+	 * Delivers the events until the bus is closed and the ring is empty. All
+	 * the events in the ring are taken at once, so publishers only wait for
+	 * the lock while the ring is emptied and never while a listener runs.
+	 */
+	private void consume() {
+		while (true) {
+			Event[] batch;
+			lock.lock();
+			try {
+				while (size == 0 && !closed)
+					published.awaitUninterruptibly();
+				if (size == 0)
+					return;
+				batch = new Event[size];
+				for (int i = 0; i < batch.length; ++i) {
+					batch[i] = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+				}
+				size = 0;
+				pending.clear();
+				delivered.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			for (Event event : batch)
+				for (RenderTaskExecutionServiceListener listener : listeners)
+					try {
+						event.deliver(listener);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+		}
+	}
+
+	/**
+	 * The kinds of events.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static enum Kind {
+		STARTED, PROGRESS, FINISHED, ERROR
+	}
+
+	/**
+	 * An event which was not delivered yet.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class Event {
+		/**
+		 * The kind of the event.
+		 */
+		public final Kind kind;
+
+		/**
+		 * The computer executing the task.
+		 */
+		public final Computer computer;
+
+		/**
+		 * The task.
+		 */
+		public final RenderTaskInterface task;
+
+		/**
+		 * The progress of the task (progress events only).
+		 */
+		public double progress;
+
+		/**
+		 * The elapsed time (progress events only).
+		 */
+		public double elapsed;
+
+		/**
+		 * The estimated remaining time (progress events only).
+		 */
+		public double eta;
+
+		/**
+		 * 
+		 * @param kind
+		 * @param computer
+		 * @param task
+		 */
+		public Event(Kind kind, Computer computer, RenderTaskInterface task) {
+			this.kind = kind;
+			this.computer = computer;
+			this.task = task;
+		}
+
+		/**
+		 * Delivers this event to the given listener.
+		 * 
+		 * @param listener
+		 *            the listener.
+		 */
+		public void deliver(RenderTaskExecutionServiceListener listener) {
+			switch (kind) {
+			case STARTED:
+				listener.started(computer, task);
+				break;
+			case PROGRESS:
+				listener.progress(computer, task, progress, elapsed, eta);
+				break;
+			case FINISHED:
+				listener.finished(computer, task);
+				break;
+			case ERROR:
+				listener.error(computer, task);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * The execution of a task by a computer, which identifies the progress
+	 * events that can be merged.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class Execution {
+		/**
+		 * The computer executing the task.
+		 */
+		private final Computer computer;
+
+		/**
+		 * The task.
+		 */
+		private final RenderTaskInterface task;
+
+		/**
+		 * 
+		 * @param computer
+		 * @param task
+		 */
+		public Execution(Computer computer, RenderTaskInterface task) {
+			this.computer = computer;
+			this.task = task;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(computer)
+					+ System.identityHashCode(task);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Execution))
+				return false;
+			Execution other = (Execution) object;
+			return computer == other.computer && task == other.task;
+		}
+	}
+}
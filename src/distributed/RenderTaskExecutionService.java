@@ -1,14 +1,30 @@
 package distributed;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 
 import task.RenderTaskInterface;
 import task.RenderTaskProgressListener;
+import util.InstrumentedLock;
+import util.MetricsRegistry;
+import util.StreamingStatistics;
 
 /**
  * Utility class which is reponsible for executing rendering tasks using a set
@@ -18,6 +34,29 @@ import task.RenderTaskProgressListener;
  * @version 0.1
  */
 public class RenderTaskExecutionService {
+	/**
+	 * The default time in milliseconds a computer is excluded from executing
+	 * tasks after it failed to execute a task.
+	 */
+	private static final long ERROR_DELAY = 60000;
+
+	/**
+	 * The weight of a new measurement in the throughput estimates.
+	 */
+	private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+	/**
+	 * The interval in nanoseconds at which idle slots look for straggling
+	 * tasks at the end of the execution.
+	 */
+	private static final long SPECULATION_INTERVAL = TimeUnit.SECONDS
+			.toNanos(1);
+
+	/**
+	 * The maximum number of events waiting to be delivered to the listeners.
+	 */
+	private static final int EVENT_CAPACITY = 4096;
+
 	/**
 	 * The list with all the tasks.
 	 */
@@ -28,11 +67,51 @@ public class RenderTaskExecutionService {
 	 */
 	private final LinkedList<RenderTaskInterface> remainingTasks = new LinkedList<RenderTaskInterface>();
 
+	/**
+	 * The times in nanoseconds at which the remaining tasks were put in the
+	 * queue, from which the dispatch latency is measured when they waited
+	 * for a task and not for a free slot.
+	 */
+	private final Map<RenderTaskInterface, Long> enqueued = new HashMap<RenderTaskInterface, Long>();
+
 	/**
 	 * The list with all the finished tasks.
 	 */
 	private final LinkedList<RenderTaskInterface> finishedTasks = new LinkedList<RenderTaskInterface>();
 
+	/**
+	 * The set with all the finished tasks, for fast lookups.
+	 */
+	private final Set<RenderTaskInterface> finished = new HashSet<RenderTaskInterface>();
+
+	/**
+	 * The computers which are rendering each task. A task is rendered by more
+	 * than one computer when it is executed speculatively.
+	 */
+	private final Map<RenderTaskInterface, List<Execution>> executions = new LinkedHashMap<RenderTaskInterface, List<Execution>>();
+
+	/**
+	 * The estimated throughput (samples per second) of each computer which
+	 * finished at least one task.
+	 */
+	private final Map<Computer, Double> throughput = new HashMap<Computer, Double>();
+
+	/**
+	 * The journal in which the finished and failed tasks are recorded (null
+	 * when there is none).
+	 */
+	private TaskJournal journal;
+
+	/**
+	 * Whether straggling tasks are executed speculatively on idle computers.
+	 */
+	private boolean speculative = true;
+
+	/**
+	 * The number of speculative executions.
+	 */
+	private long speculations = 0;
+
 	/**
 	 * The list containing all the computers responsible for completing the
 	 * tasks.
@@ -40,20 +119,72 @@ public class RenderTaskExecutionService {
 	private final List<Computer> computers = new ArrayList<Computer>();
 
 	/**
-	 * The list containing all the computers which are available for executing a
-	 * task.
+	 * The list containing the free slots of the computers. A computer which
+	 * can execute several tasks concurrently occurs once for every free slot.
 	 */
-	private final LinkedList<Computer> available = new LinkedList<Computer>();
+	private final LinkedList<Slot> available = new LinkedList<Slot>();
 
 	/**
-	 * 
+	 * The list containing a computer once for every task it is executing.
 	 */
 	private final LinkedList<Computer> busy = new LinkedList<Computer>();
 
+	/**
+	 * The total number of slots of all the computers.
+	 */
+	private int nbOfSlots = 0;
+
+	/**
+	 * The maximum number of tasks handed to a slot at once.
+	 */
+	private int batchSize = 1;
+
+	/**
+	 * The time in milliseconds a computer is excluded from executing tasks
+	 * after it failed to execute a task.
+	 */
+	private long errorDelay = ERROR_DELAY;
+
 	/**
 	 * 
 	 */
-	private final ReentrantLock monitor = new ReentrantLock();
+	private final InstrumentedLock monitor = new InstrumentedLock();
+
+	/**
+	 * Signalled whenever a computer becomes available or a task has to be
+	 * executed again.
+	 */
+	private final Condition changed = monitor.newCondition();
+
+	/**
+	 * The number of computers which are temporarily excluded after an error.
+	 */
+	private int penalized = 0;
+
+	/**
+	 * The statistics of the dispatch latency in milliseconds.
+	 */
+	private final StreamingStatistics dispatchLatency = new StreamingStatistics();
+
+	/**
+	 * The number of times the dispatcher woke up.
+	 */
+	private long wakeups = 0;
+
+	/**
+	 * The registry the metrics of the execution are reported to.
+	 */
+	private MetricsRegistry metrics = MetricsRegistry.get();
+
+	/**
+	 * The executor which executes the tasks on the computers.
+	 */
+	private ExecutorService workers;
+
+	/**
+	 * The executor which returns failed computers after a delay.
+	 */
+	private ScheduledExecutorService scheduler;
 
 	/**
 	 * 
@@ -66,9 +197,11 @@ public class RenderTaskExecutionService {
 	private Thread executionThread;
 
 	/**
-	 * 
+	 * The bus delivering the events to the listeners, so the listeners are
+	 * never called with the monitor held.
 	 */
-	private final List<RenderTaskExecutionServiceListener> listeners = new ArrayList<RenderTaskExecutionServiceListener>();
+	private final RenderTaskEventBus events = new RenderTaskEventBus(
+			EVENT_CAPACITY);
 
 	/**
 	 * Creates an empty render task execution service.
@@ -94,7 +227,7 @@ public class RenderTaskExecutionService {
 	 */
 	public void addListener(RenderTaskExecutionServiceListener listener) {
 		if (listener != null)
-			listeners.add(listener);
+			events.addListener(listener);
 	}
 
 	/**
@@ -130,6 +263,173 @@ public class RenderTaskExecutionService {
 		return result;
 	}
 
+	/**
+	 * Sets the maximum number of tasks which are handed to a computer at once.
+	 * Computers such as the {@link RemoteComputer} execute a batch of tasks
+	 * with far fewer round trips than the tasks one by one. Towards the end of
+	 * the execution smaller batches are handed out, so all the computers stay
+	 * busy.
+	 * 
+	 * @param batchSize
+	 *            the maximum number of tasks in a batch.
+	 * @throws IllegalArgumentException
+	 *             when the batch size is smaller than one.
+	 * @throws IllegalStateException
+	 *             when the execution has already started.
+	 */
+	public void setBatchSize(int batchSize) throws IllegalArgumentException,
+			IllegalStateException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException(
+					"the batch size must be at least one!");
+		monitor.lock();
+		try {
+			if (started)
+				throw new IllegalStateException(
+						"cannot change the batch size when the execution has already started!");
+			this.batchSize = batchSize;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Sets the journal in which the finished and failed tasks are recorded.
+	 * The tasks which the journal already records as finished are skipped
+	 * when the execution starts. A journal whose file was just created is
+	 * first seeded with the tasks whose results are already present, since
+	 * they were rendered before the journal existed. The journal is not
+	 * closed by the service.
+	 * 
+	 * @param journal
+	 *            the journal (null to disable journaling).
+	 * @throws IllegalStateException
+	 *             when the execution has already started.
+	 */
+	public void setJournal(TaskJournal journal) throws IllegalStateException {
+		monitor.lock();
+		try {
+			if (started)
+				throw new IllegalStateException(
+						"cannot change the journal when the execution has already started!");
+			this.journal = journal;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Sets whether straggling tasks are executed speculatively. When there are
+	 * no tasks left, an idle computer which is expected to finish a running
+	 * task sooner than the computer currently rendering it starts rendering
+	 * that task as well. The first result is kept and the other execution is
+	 * cancelled.
+	 * 
+	 * @param speculative
+	 *            whether straggling tasks are executed speculatively.
+	 * @throws IllegalStateException
+	 *             when the execution has already started.
+	 */
+	public void setSpeculative(boolean speculative)
+			throws IllegalStateException {
+		monitor.lock();
+		try {
+			if (started)
+				throw new IllegalStateException(
+						"cannot change the speculation when the execution has already started!");
+			this.speculative = speculative;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Sets the time a computer is excluded from executing tasks after it
+	 * failed to execute a task (one minute by default).
+	 * 
+	 * @param errorDelay
+	 *            the time in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             when the given delay is negative.
+	 * @throws IllegalStateException
+	 *             when the execution has already started.
+	 */
+	public void setErrorDelay(long errorDelay)
+			throws IllegalArgumentException, IllegalStateException {
+		if (errorDelay < 0)
+			throw new IllegalArgumentException(
+					"the error delay must be larger than or equal to zero!");
+		monitor.lock();
+		try {
+			if (started)
+				throw new IllegalStateException(
+						"cannot change the error delay when the execution has already started!");
+			this.errorDelay = errorDelay;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Sets the registry the metrics of the execution are reported to (the
+	 * shared registry by default). The metrics are labelled with the name of
+	 * the computer they concern.
+	 * 
+	 * @param metrics
+	 *            the registry.
+	 * @throws NullPointerException
+	 *             when the given registry is null.
+	 * @throws IllegalStateException
+	 *             when the execution has already started.
+	 */
+	public void setMetrics(MetricsRegistry metrics)
+			throws NullPointerException, IllegalStateException {
+		if (metrics == null)
+			throw new NullPointerException("the given registry is null!");
+		monitor.lock();
+		try {
+			if (started)
+				throw new IllegalStateException(
+						"cannot change the metrics when the execution has already started!");
+			this.metrics = metrics;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Returns the estimated throughput of the given computer in samples per
+	 * second, learned from the tasks it finished.
+	 * 
+	 * @param computer
+	 *            the computer.
+	 * @return the estimated throughput of the given computer or NaN when it
+	 *         did not finish any task yet.
+	 */
+	public double getThroughput(Computer computer) {
+		monitor.lock();
+		try {
+			Double result = throughput.get(computer);
+			return result == null ? Double.NaN : result;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of speculative executions of straggling tasks.
+	 * 
+	 * @return the number of speculative executions of straggling tasks.
+	 */
+	public long getSpeculations() {
+		monitor.lock();
+		try {
+			return speculations;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
 	/**
 	 * 
 	 * @param task
@@ -158,25 +458,134 @@ public class RenderTaskExecutionService {
 				throw new IllegalStateException(
 						"cannot add new computers when the execution has already started!");
 			computers.add(computer);
-			available.add(computer);
+			final int slots = computer.nSlots();
+			for (int i = 0; i < slots; ++i)
+				available.add(new Slot(computer));
+			nbOfSlots += slots;
 		} finally {
 			monitor.unlock();
 		}
 	}
 
+	/**
+	 * Returns the statistics of the dispatch latency in milliseconds. The
+	 * dispatch latency is the time between the moment a computer and a task
+	 * are both ready and the moment the task starts executing on the
+	 * computer.
+	 * 
+	 * @return a copy of the statistics of the dispatch latency.
+	 */
+	public StreamingStatistics getDispatchLatency() {
+		monitor.lock();
+		try {
+			return new StreamingStatistics().merge(dispatchLatency);
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the dispatcher woke up to schedule tasks.
+	 * 
+	 * @return the number of times the dispatcher woke up to schedule tasks.
+	 */
+	public long getDispatcherWakeups() {
+		monitor.lock();
+		try {
+			return wakeups;
+		} finally {
+			monitor.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the monitor of this service was acquired.
+	 * 
+	 * @return the number of times the monitor of this service was acquired.
+	 */
+	public long getLockAcquisitions() {
+		return monitor.getAcquisitions();
+	}
+
+	/**
+	 * Returns the number of times a thread had to wait for the monitor of
+	 * this service.
+	 * 
+	 * @return the number of times a thread had to wait for the monitor.
+	 */
+	public long getLockContentions() {
+		return monitor.getContentions();
+	}
+
+	/**
+	 * Returns the total time in nanoseconds threads waited for the monitor of
+	 * this service.
+	 * 
+	 * @return the total time in nanoseconds threads waited for the monitor.
+	 */
+	public long getLockWaitTime() {
+		return monitor.getWaitTime();
+	}
+
 	/**
 	 * Executes the tasks using the available computers.
 	 */
 	public void shutdown() {
+		seedJournal();
 		monitor.lock();
 
 		try {
+			if (started)
+				throw new IllegalStateException("already started!");
+			checkEarlyStopping();
 			started = true;
+
+			final long now = System.nanoTime();
+			for (Slot slot : available)
+				slot.readySince = now;
+			for (RenderTaskInterface task : remainingTasks)
+				enqueued.put(task, now);
+
+			// skip the tasks which finished during a previous execution
+			if (journal != null)
+				for (Iterator<RenderTaskInterface> it = remainingTasks
+						.iterator(); it.hasNext();) {
+					RenderTaskInterface task = it.next();
+					if (!journal.isDone(task))
+						continue;
+					it.remove();
+					finished.add(task);
+					finishedTasks.add(task);
+				}
+
+			// the most expensive tasks are executed first, so no long task is
+			// left for the end of the execution
+			Collections.sort(remainingTasks,
+					new Comparator<RenderTaskInterface>() {
+						/*
+						 * (non-Javadoc)
+						 * 
+						 * @see java.util.Comparator#compare(java.lang.Object,
+						 * java.lang.Object)
+						 */
+						@Override
+						public int compare(RenderTaskInterface a,
+								RenderTaskInterface b) {
+							return Long.compare(b.getCost(), a.getCost());
+						}
+					});
+
+			workers = Executors.newFixedThreadPool(Math.max(1, nbOfSlots),
+					new DaemonThreadFactory(
+							"render-worker"));
+			scheduler = Executors.newSingleThreadScheduledExecutor(
+					new DaemonThreadFactory("render-scheduler"));
 			executionThread = new ExecutionThread();
 		} finally {
 			monitor.unlock();
 		}
 
+		events.start();
 		executionThread.start();
 	}
 
@@ -191,6 +600,10 @@ public class RenderTaskExecutionService {
 		if (isStarted)
 			try {
 				executionThread.join();
+				workers.shutdown();
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				scheduler.shutdownNow();
+				events.close();
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -199,12 +612,194 @@ public class RenderTaskExecutionService {
 
 	}
 
+	/**
+	 * Checks that every computer can stop the tasks with a convergence
+	 * monitor early, since the others would silently render them to
+	 * completion. The monitor must be held by the caller.
+	 * 
+	 * @throws IllegalStateException
+	 *             when a computer cannot stop a task early.
+	 */
+	private void checkEarlyStopping() throws IllegalStateException {
+		for (RenderTaskInterface task : remainingTasks) {
+			if (task.getConvergenceMonitor() == null)
+				continue;
+			for (Computer computer : computers)
+				if (!computer.canStopEarly())
+					throw new IllegalStateException("the task \""
+							+ task.getFilename()
+							+ "\" should stop when it has converged, which "
+							+ computer.getName() + " does not support!");
+		}
+	}
+
+	/**
+	 * Adds the tasks whose results are already present to a journal whose
+	 * file was just created, so the result files are only probed once, when
+	 * the journal is created. The files are probed without holding the
+	 * monitor.
+	 */
+	private void seedJournal() {
+		TaskJournal journal;
+		Computer computer;
+		List<RenderTaskInterface> tasks;
+		monitor.lock();
+		try {
+			if (started || this.journal == null || !this.journal.isNew()
+					|| computers.isEmpty())
+				return;
+			journal = this.journal;
+			computer = computers.get(0);
+			tasks = new ArrayList<RenderTaskInterface>(remainingTasks);
+		} finally {
+			monitor.unlock();
+		}
+
+		for (RenderTaskInterface task : tasks)
+			if (!journal.isDone(task) && computer.done(task))
+				try {
+					journal.recordExisting(task);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+	}
+
+	/**
+	 * Returns the estimated throughput of the given computer. Computers which
+	 * did not finish a task yet are assumed to be average. The monitor must be
+	 * held by the caller.
+	 * 
+	 * @param computer
+	 *            the computer.
+	 * @return the estimated throughput of the given computer.
+	 */
+	private double estimateThroughput(Computer computer) {
+		Double result = throughput.get(computer);
+		if (result != null)
+			return result;
+		if (throughput.isEmpty())
+			return 0;
+		double sum = 0;
+		for (double value : throughput.values())
+			sum += value;
+		return sum / throughput.size();
+	}
+
+	/**
+	 * Removes the free slot of the computer with the highest estimated
+	 * throughput from the available slots. The monitor must be held by the
+	 * caller.
+	 * 
+	 * @return the free slot of the fastest computer.
+	 */
+	private Slot takeFastestSlot() {
+		Slot best = null;
+		double bestThroughput = Double.NEGATIVE_INFINITY;
+		for (Slot slot : available) {
+			double estimate = estimateThroughput(slot.computer);
+			if (estimate > bestThroughput) {
+				best = slot;
+				bestThroughput = estimate;
+			}
+		}
+		available.remove(best);
+		return best;
+	}
+
+	/**
+	 * Returns the running task which the given idle computer is expected to
+	 * finish the most time before the computer currently rendering it. The
+	 * monitor must be held by the caller.
+	 * 
+	 * @param idle
+	 *            the idle computer.
+	 * @return the task to execute speculatively on the given computer or null
+	 *         when no computer is expected to be overtaken.
+	 */
+	private RenderTaskInterface findStraggler(Computer idle) {
+		Double speed = throughput.get(idle);
+		if (speed == null)
+			return null;
+
+		final long now = System.nanoTime();
+		RenderTaskInterface result = null;
+		double largestGain = 0;
+		for (Map.Entry<RenderTaskInterface, List<Execution>> entry : executions
+				.entrySet()) {
+			if (entry.getValue().size() != 1)
+				continue;
+			Execution execution = entry.getValue().get(0);
+			Double other = throughput.get(execution.computer);
+			if (execution.computer == idle || other == null)
+				continue;
+
+			final double cost = entry.getKey().getCost();
+			final double remaining = cost / other - (now - execution.start)
+					* 1e-9;
+			final double gain = remaining - cost / speed;
+			if (gain > largestGain) {
+				result = entry.getKey();
+				largestGain = gain;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the execution of the given task by the given computer. The
+	 * monitor must be held by the caller.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param computer
+	 *            the computer which stopped executing the task.
+	 * @return the removed execution or null when the computer did not start
+	 *         executing the task.
+	 */
+	private Execution removeExecution(RenderTaskInterface task,
+			Computer computer) {
+		List<Execution> list = executions.get(task);
+		if (list == null)
+			return null;
+		Execution result = null;
+		for (Execution execution : list)
+			if (execution.computer == computer) {
+				result = execution;
+				break;
+			}
+		list.remove(result);
+		if (list.isEmpty())
+			executions.remove(task);
+		return result;
+	}
+
+	/**
+	 * Returns a slot of the given computer to the pool of available slots and
+	 * wakes up the dispatcher. The monitor must be held by the caller.
+	 * 
+	 * @param pc
+	 *            the computer which has a free slot again.
+	 */
+	private void release(Computer pc) {
+		Slot slot = new Slot(pc);
+		slot.readySince = System.nanoTime();
+		available.add(slot);
+		changed.signal();
+	}
+
 	/**
 	 * 
 	 * @author Niels Billen
 	 * @version 0.1
 	 */
 	private class ExecutionThread extends Thread {
+		/**
+		 * Creates the thread which dispatches the tasks.
+		 */
+		public ExecutionThread() {
+			super("render-dispatcher");
+		}
+
 		/*
 		 * (non-Javadoc)
 		 * 
@@ -212,118 +807,496 @@ public class RenderTaskExecutionService {
 		 */
 		@Override
 		public void run() {
-			while (true) {
-				Thread.yield();
-
-				// check if there are available jobs
-				monitor.lock();
-				if (!available.isEmpty() && !remainingTasks.isEmpty()) {
-					Computer pc = available.removeFirst();
-					RenderTaskInterface task = remainingTasks.removeFirst();
-					busy.add(pc);
-					monitor.unlock();
-
-					schedule(pc, task);
-				} else {
-					boolean isBusy = !busy.isEmpty();
-					monitor.unlock();
+			monitor.lock();
+			try {
+				while (true) {
+					++wakeups;
 
-					try {
-						Thread.sleep(100);
-					} catch (InterruptedException e) {
+					// hand out the most expensive tasks to the fastest free slots
+					while (!available.isEmpty() && !remainingTasks.isEmpty()) {
+						Slot slot = takeFastestSlot();
+						final int n = Math.min(batchSize, (remainingTasks
+								.size() + nbOfSlots - 1) / nbOfSlots);
+						List<RenderTaskInterface> batch = new ArrayList<RenderTaskInterface>(
+								n);
+						// the batch is ready when its slot and all its tasks
+						// are, an idle slot waiting for a task is no latency
+						long ready = slot.readySince;
+						for (int i = 0; i < n; ++i) {
+							RenderTaskInterface task = remainingTasks
+									.removeFirst();
+							Long since = enqueued.remove(task);
+							if (since != null)
+								ready = Math.max(ready, since);
+							batch.add(task);
+						}
+						busy.add(slot.computer);
+						schedule(slot.computer, batch, ready);
 					}
 
-					if (!isBusy)
+					// let idle slots overtake slow computers at the end
+					boolean stragglers = false;
+					if (speculative && remainingTasks.isEmpty()) {
+						while (!available.isEmpty()) {
+							Slot slot = takeFastestSlot();
+							RenderTaskInterface task = findStraggler(slot.computer);
+							if (task == null) {
+								available.addFirst(slot);
+								break;
+							}
+							++speculations;
+							metrics.counter("speculations", "").increment();
+							// the speculative execution is registered before it
+							// starts, so no other idle slot picks the same task
+							executions.get(task).add(
+									new Execution(slot.computer));
+							busy.add(slot.computer);
+							// a task becomes a straggler while the slot is
+							// idle, so the latency starts when it is found
+							schedule(slot.computer,
+									Collections.singletonList(task),
+									System.nanoTime());
+						}
+						stragglers = !available.isEmpty() && !busy.isEmpty();
+					}
+
+					metrics.gauge("queue_depth", "").set(remainingTasks.size());
+					metrics.gauge("running_executions", "").set(busy.size());
+
+					// stop when all the tasks are finished or when there are
+					// no computers left to execute the remaining tasks on
+					if (busy.isEmpty()
+							&& (remainingTasks.isEmpty() || (available
+									.isEmpty() && penalized == 0)))
 						break;
+
+					if (stragglers)
+						try {
+							changed.awaitNanos(SPECULATION_INTERVAL);
+						} catch (InterruptedException e) {
+						}
+					else
+						changed.awaitUninterruptibly();
 				}
+			} finally {
+				monitor.unlock();
 			}
 		}
 
 		/**
 		 * 
 		 * @param pc
-		 * @param task
+		 * @param batch
+		 *            the tasks to execute on the computer.
+		 * @param readySince
+		 *            the time in nanoseconds at which both the slot and the
+		 *            tasks became available.
 		 */
-		private void schedule(final Computer pc, final RenderTaskInterface task) {
-			Thread thread = new Thread() {
+		private void schedule(final Computer pc,
+				final List<RenderTaskInterface> batch, final long readySince) {
+			workers.execute(new Runnable() {
+				/**
+				 * The tasks of the batch which have not finished or failed.
+				 */
+				private final List<RenderTaskInterface> unresolved = new ArrayList<RenderTaskInterface>(
+						batch);
+
+				/**
+				 * Whether one of the tasks failed.
+				 */
+				private boolean failed = false;
+
 				/*
 				 * (non-Javadoc)
 				 * 
-				 * @see java.lang.Thread#run()
+				 * @see java.lang.Runnable#run()
 				 */
+				@Override
 				public void run() {
+					final double latency = (System.nanoTime() - readySince) * 1e-6;
+					monitor.lock();
 					try {
-						monitor.lock();
-						try {
-							for (RenderTaskExecutionServiceListener listener : listeners)
-								listener.started(pc, task);
-						} finally {
-							monitor.unlock();
-						}
+						dispatchLatency.add(latency);
+					} finally {
+						monitor.unlock();
+					}
+					metrics.histogram("dispatch_latency_ms", pc.getName()).add(
+							latency);
 
-						pc.execute(task, new RenderTaskProgressListener() {
+					Exception error = null;
+					try {
+						pc.execute(batch, new BatchExecutionListener() {
 							/*
 							 * (non-Javadoc)
 							 * 
 							 * @see
-							 * task.RenderTaskProgressListener#completion(double
-							 * , double, double)
+							 * distributed.BatchExecutionListener#started(task
+							 * .RenderTaskInterface)
 							 */
 							@Override
-							public void completion(double percentage,
-									double elapsed, double eta) {
+							public void started(RenderTaskInterface task) {
 								monitor.lock();
 								try {
-									for (RenderTaskExecutionServiceListener listener : listeners)
-										listener.progress(pc, task, percentage,
-												elapsed, eta);
+									// replaces the speculative execution which
+									// was registered by the dispatcher
+									removeExecution(task, pc);
+									List<Execution> list = executions.get(task);
+									if (list == null) {
+										list = new ArrayList<Execution>(2);
+										executions.put(task, list);
+									}
+									list.add(new Execution(pc));
+									metrics.counter("tasks_started", pc.getName())
+											.increment();
 								} finally {
 									monitor.unlock();
 								}
+								events.started(pc, task);
 							}
-						});
 
-						monitor.lock();
-						try {
-							busy.remove(pc);
-							available.add(pc);
-							finishedTasks.add(task);
-
-							for (RenderTaskExecutionServiceListener listener : listeners)
-								listener.finished(pc, task);
-						} finally {
-							monitor.unlock();
-						}
-					} catch (Exception e) {
-						monitor.lock();
-						try {
-							e.printStackTrace();
-							busy.remove(pc);
-							remainingTasks.addFirst(task);
-							for (RenderTaskExecutionServiceListener listener : listeners)
-								listener.error(pc, task);
-						} finally {
-							monitor.unlock();
-						}
+							/*
+							 * (non-Javadoc)
+							 * 
+							 * @see
+							 * distributed.BatchExecutionListener#progress(task
+							 * .RenderTaskInterface, double, double, double)
+							 */
+							@Override
+							public void progress(RenderTaskInterface task,
+									double percentage, double elapsed,
+									double eta) {
+								events.progress(pc, task, percentage, elapsed,
+										eta);
+							}
+
+							/*
+							 * (non-Javadoc)
+							 * 
+							 * @see
+							 * distributed.BatchExecutionListener#finished(task
+							 * .RenderTaskInterface)
+							 */
+							@Override
+							public void finished(RenderTaskInterface task) {
+								List<Execution> others;
+								Execution own;
+								monitor.lock();
+								try {
+									unresolved.remove(task);
+									own = removeExecution(task, pc);
+
+									// only the first result of a task counts
+									if (!finished.add(task))
+										return;
+									finishedTasks.add(task);
+
+									metrics.counter("tasks_finished", pc.getName())
+											.increment();
+									if (own != null) {
+										final double seconds = (System
+												.nanoTime() - own.start) * 1e-9;
+										learn(pc, task.getCost(), seconds);
+										metrics.histogram("render_seconds",
+												pc.getName()).add(seconds);
+										if (seconds > 0)
+											metrics.histogram(
+													"samples_per_second",
+													pc.getName()).add(
+													task.getCost() / seconds);
+									}
+									others = executions.remove(task);
+								} finally {
+									monitor.unlock();
+								}
+								events.finished(pc, task);
+
+								if (others != null)
+									for (Execution execution : others)
+										execution.computer.cancel(task);
+								record(task, TaskJournal.Status.FINISHED, own);
+							}
 
-						TimerTask delayed = new TimerTask() {
 							/*
 							 * (non-Javadoc)
 							 * 
-							 * @see java.util.TimerTask#run()
+							 * @see
+							 * distributed.BatchExecutionListener#failed(task
+							 * .RenderTaskInterface, java.lang.Exception)
 							 */
 							@Override
-							public void run() {
+							public void failed(RenderTaskInterface task,
+									Exception exception) {
+								Execution own;
 								monitor.lock();
-								available.add(pc);
+								try {
+									unresolved.remove(task);
+									own = removeExecution(task, pc);
+									if (isResolved(task))
+										return;
+									exception.printStackTrace();
+									fail(task);
+								} finally {
+									monitor.unlock();
+								}
+								events.error(pc, task);
+								record(task, TaskJournal.Status.FAILED, own);
+							}
+						});
+					} catch (Exception e) {
+						error = e;
+					}
+					retryUnresolved(error);
+
+					monitor.lock();
+					try {
+						busy.remove(pc);
+						if (!failed) {
+							release(pc);
+							return;
+						}
+						++penalized;
+						changed.signal();
+					} finally {
+						monitor.unlock();
+					}
+
+					scheduler.schedule(new Runnable() {
+						/*
+						 * (non-Javadoc)
+						 * 
+						 * @see java.lang.Runnable#run()
+						 */
+						@Override
+						public void run() {
+							monitor.lock();
+							try {
+								--penalized;
+								release(pc);
+							} finally {
 								monitor.unlock();
 							}
-						};
-						new Timer().schedule(delayed, 60000);
+						}
+					}, errorDelay, TimeUnit.MILLISECONDS);
+				}
+
+				/**
+				 * Retries the tasks of the batch which neither finished nor
+				 * failed, because the execution of the batch failed or
+				 * returned without reporting them. A task which finished or
+				 * is still executed by another computer, e.g. a cancelled
+				 * speculative execution, is not an error.
+				 * 
+				 * @param error
+				 *            the exception which stopped the execution (null
+				 *            when it returned normally).
+				 */
+				private void retryUnresolved(Exception error) {
+					List<RenderTaskInterface> failedTasks = new ArrayList<RenderTaskInterface>();
+					Map<RenderTaskInterface, Execution> started = new LinkedHashMap<RenderTaskInterface, Execution>();
+					monitor.lock();
+					try {
+						boolean reported = false;
+						for (int i = unresolved.size() - 1; i >= 0; --i) {
+							RenderTaskInterface task = unresolved.get(i);
+							Execution own = removeExecution(task, pc);
+							if (isResolved(task))
+								continue;
+							if (!reported) {
+								if (error == null)
+									error = new ExecutionException(
+											pc.getName()
+													+ " returned without finishing or failing every task of the batch!");
+								error.printStackTrace();
+								reported = true;
+							}
+							fail(task);
+							failedTasks.add(task);
+							if (own != null)
+								started.put(task, own);
+						}
+						unresolved.clear();
+					} finally {
+						monitor.unlock();
+					}
+					for (RenderTaskInterface task : failedTasks)
+						events.error(pc, task);
+					for (Map.Entry<RenderTaskInterface, Execution> entry : started
+							.entrySet())
+						record(entry.getKey(), TaskJournal.Status.FAILED,
+								entry.getValue());
+				}
+
+				/**
+				 * Records the given execution of the given task in the
+				 * journal, if there is one. The monitor should not be held by
+				 * the caller.
+				 * 
+				 * @param task
+				 *            the task.
+				 * @param status
+				 *            the status of the task.
+				 * @param execution
+				 *            the execution of the task (null when unknown).
+				 */
+				private void record(RenderTaskInterface task,
+						TaskJournal.Status status, Execution execution) {
+					if (journal == null)
+						return;
+					final long duration = execution == null ? 0
+							: (System.nanoTime() - execution.start) / 1000000;
+					try {
+						journal.record(task, status, pc,
+								System.currentTimeMillis() - duration,
+								duration);
+					} catch (IOException e) {
+						e.printStackTrace();
 					}
-				};
-			};
-			thread.start();
+				}
+
+				/**
+				 * Returns whether the given task finished or is still being
+				 * executed by another computer, in which case a failure of
+				 * this execution does not matter. The monitor must be held by
+				 * the caller.
+				 * 
+				 * @param task
+				 *            the task.
+				 * @return whether the given task is taken care of.
+				 */
+				private boolean isResolved(RenderTaskInterface task) {
+					return finished.contains(task)
+							|| executions.containsKey(task);
+				}
+
+				/**
+				 * Puts the given task back in front of the remaining tasks. The
+				 * monitor must be held by the caller, which notifies the
+				 * listeners after releasing it.
+				 * 
+				 * @param task
+				 *            the task which failed.
+				 */
+				private void fail(RenderTaskInterface task) {
+					failed = true;
+					remainingTasks.addFirst(task);
+					enqueued.put(task, System.nanoTime());
+					metrics.counter("tasks_failed", pc.getName()).increment();
+					changed.signal();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Updates the throughput estimate of the given computer with a finished
+	 * task. The monitor must be held by the caller.
+	 * 
+	 * @param computer
+	 *            the computer which finished the task.
+	 * @param cost
+	 *            the cost of the task.
+	 * @param seconds
+	 *            the time it took to render the task in seconds.
+	 */
+	private void learn(Computer computer, double cost, double seconds) {
+		if (!(seconds > 0))
+			return;
+		final double sample = cost / seconds;
+		Double previous = throughput.get(computer);
+		throughput.put(computer, previous == null ? sample
+				: (1 - THROUGHPUT_SMOOTHING) * previous
+						+ THROUGHPUT_SMOOTHING * sample);
+	}
+
+	/**
+	 * A computer which is executing a task.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class Execution {
+		/**
+		 * The computer which executes the task.
+		 */
+		public final Computer computer;
+
+		/**
+		 * The time in nanoseconds at which the computer started the task.
+		 */
+		public final long start = System.nanoTime();
+
+		/**
+		 * 
+		 * @param computer
+		 */
+		public Execution(Computer computer) {
+			this.computer = computer;
+		}
+	}
+
+	/**
+	 * A free slot of a computer.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class Slot {
+		/**
+		 * The computer the slot belongs to.
+		 */
+		public final Computer computer;
+
+		/**
+		 * The time in nanoseconds at which the slot became available.
+		 */
+		public long readySince;
+
+		/**
+		 * 
+		 * @param computer
+		 */
+		public Slot(Computer computer) {
+			this.computer = computer;
+		}
+	}
+
+	/**
+	 * Creates named daemon threads, so idle executors never keep the virtual
+	 * machine alive.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		/**
+		 * The prefix of the names of the threads.
+		 */
+		private final String name;
+
+		/**
+		 * The number of threads created so far.
+		 */
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * 
+		 * @param name
+		 */
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+		 */
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 }
@@ -0,0 +1,54 @@
+package distributed;
+
+/**
+ * The resources which were used by the process which rendered a task.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class ResourceUsage {
+	/**
+	 * The processor time used by the process in milliseconds (-1 when
+	 * unknown).
+	 */
+	public final long cpuTime;
+
+	/**
+	 * The peak resident set size of the process in bytes (-1 when unknown).
+	 */
+	public final long peakMemory;
+
+	/**
+	 * The time the process was running in milliseconds.
+	 */
+	public final long wallTime;
+
+	/**
+	 * Creates a new resource usage.
+	 * 
+	 * @param cpuTime
+	 *            the processor time used by the process in milliseconds (-1
+	 *            when unknown).
+	 * @param peakMemory
+	 *            the peak resident set size of the process in bytes (-1 when
+	 *            unknown).
+	 * @param wallTime
+	 *            the time the process was running in milliseconds.
+	 */
+	public ResourceUsage(long cpuTime, long peakMemory, long wallTime) {
+		this.cpuTime = cpuTime;
+		this.peakMemory = peakMemory;
+		this.wallTime = wallTime;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("cpu %d ms, peak rss %d KiB, wall %d ms",
+				cpuTime, peakMemory < 0 ? -1 : peakMemory / 1024, wallTime);
+	}
+}
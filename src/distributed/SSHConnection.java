@@ -0,0 +1,378 @@
+package distributed;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * A persistent SSH connection to a remote host which is shared by all the
+ * tasks executed on that host.
+ * 
+ * All the exec and sftp channels are multiplexed over a single session. The
+ * session is kept alive and is transparently reconnected when it was lost.
+ * Idle sftp channels are kept open for reuse. The number of concurrently open
+ * channels is bounded, since ssh servers limit the number of channels per
+ * connection (10 by default for OpenSSH). Channels of long-running commands
+ * do not count towards that bound, since their number is bounded by the
+ * caller and they would otherwise starve the short commands controlling
+ * them, such as the commands which kill them or retrieve their results.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class SSHConnection {
+	/**
+	 * The interval in milliseconds between the keep alive messages.
+	 */
+	private static final int KEEP_ALIVE_INTERVAL = 15000;
+
+	/**
+	 * The number of unanswered keep alive messages after which the session is
+	 * considered lost.
+	 */
+	private static final int KEEP_ALIVE_COUNT = 4;
+
+	/**
+	 * The maximum number of concurrently open channels per session.
+	 */
+	private static final int MAX_CHANNELS = 8;
+
+	/**
+	 * The maximum number of idle sftp channels which are kept open.
+	 */
+	private static final int MAX_IDLE_SFTP = 2;
+
+	/**
+	 * The connections which were opened so far, by user and host name.
+	 */
+	private static final Map<String, SSHConnection> connections = new HashMap<String, SSHConnection>();
+
+	/**
+	 * Lock for thread-safe access to the connections.
+	 */
+	private static final ReentrantLock connectionsLock = new ReentrantLock();
+
+	/**
+	 * The name of the remote host.
+	 */
+	public final String hostName;
+
+	/**
+	 * The authentication used to log in on the remote host.
+	 */
+	private final RemoteAuthentication authentication;
+
+	/**
+	 * 
+	 */
+	private final JSch jsch = new JSch();
+
+	/**
+	 * The current session (null when not connected yet).
+	 */
+	private Session session;
+
+	/**
+	 * The sftp channels which are open but not in use.
+	 */
+	private final LinkedList<ChannelSftp> idle = new LinkedList<ChannelSftp>();
+
+	/**
+	 * The permits for opening channels.
+	 */
+	private final Semaphore channels = new Semaphore(MAX_CHANNELS, true);
+
+	/**
+	 * The open channels of long-running commands, which hold no permit.
+	 */
+	private final Set<Channel> unbounded = Collections
+			.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+
+	/**
+	 * Lock for thread-safe access to the session.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * 
+	 * @param hostName
+	 * @param authentication
+	 */
+	private SSHConnection(String hostName, RemoteAuthentication authentication) {
+		this.hostName = hostName;
+		this.authentication = authentication;
+	}
+
+	/**
+	 * Returns the shared connection to the given host for the given user.
+	 * 
+	 * @param hostName
+	 *            the name of the remote host.
+	 * @param authentication
+	 *            the authentication used to log in on the remote host.
+	 * @throws NullPointerException
+	 *             when the given host name or authentication is null.
+	 * @return the shared connection to the given host.
+	 */
+	public static SSHConnection get(String hostName,
+			RemoteAuthentication authentication) throws NullPointerException {
+		if (hostName == null)
+			throw new NullPointerException("the given host name is null!");
+		if (authentication == null)
+			throw new NullPointerException("the given authentication is null!");
+
+		final String key = authentication.username + "@" + hostName;
+		connectionsLock.lock();
+		try {
+			SSHConnection connection = connections.get(key);
+			if (connection == null) {
+				connection = new SSHConnection(hostName, authentication);
+				connections.put(key, connection);
+			}
+			return connection;
+		} finally {
+			connectionsLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a connected session, (re)connecting when required.
+	 * 
+	 * @return a connected session.
+	 * @throws JSchException
+	 *             when the session could not be established.
+	 */
+	private Session session() throws JSchException {
+		lock.lock();
+		try {
+			if (session == null || !session.isConnected())
+				reconnect();
+			return session;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops the current session and all its idle channels and establishes a
+	 * new session. The lock must be held by the caller.
+	 * 
+	 * @throws JSchException
+	 *             when the session could not be established.
+	 */
+	private void reconnect() throws JSchException {
+		for (ChannelSftp sftp : idle) {
+			sftp.disconnect();
+			channels.release();
+		}
+		idle.clear();
+		if (session != null)
+			session.disconnect();
+		session = null;
+
+		Session result = jsch.getSession(authentication.username, hostName);
+		result.setUserInfo(authentication);
+		result.setServerAliveInterval(KEEP_ALIVE_INTERVAL);
+		result.setServerAliveCountMax(KEEP_ALIVE_COUNT);
+		result.connect();
+		session = result;
+	}
+
+	/**
+	 * Checks whether the remote host can be reached, reconnecting when the
+	 * session was lost.
+	 * 
+	 * @return whether the remote host can be reached.
+	 */
+	public boolean ping() {
+		lock.lock();
+		try {
+			Session current = session();
+			try {
+				current.sendKeepAliveMsg();
+			} catch (Exception e) {
+				reconnect();
+			}
+			return true;
+		} catch (Exception e) {
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Opens a channel of the given type, reconnecting once when the session
+	 * turns out to be broken. A permit must be held by the caller.
+	 * 
+	 * @param type
+	 *            the type of the channel.
+	 * @return a new channel which is not connected yet.
+	 * @throws JSchException
+	 *             when the channel could not be opened.
+	 */
+	private Channel open(String type) throws JSchException {
+		Session current = session();
+		try {
+			return current.openChannel(type);
+		} catch (JSchException e) {
+			lock.lock();
+			try {
+				// another thread may have reconnected in the meantime
+				if (session == current)
+					reconnect();
+				return session().openChannel(type);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Opens an exec channel for the given command. The channel is not
+	 * connected yet, so its streams can be obtained before the command
+	 * starts. Every channel must be closed with {@link #close(Channel)}.
+	 * 
+	 * @param command
+	 *            the command to execute.
+	 * @return an exec channel for the given command.
+	 * @throws JSchException
+	 *             when the channel could not be opened.
+	 */
+	public ChannelExec openExec(String command) throws JSchException {
+		channels.acquireUninterruptibly();
+		try {
+			ChannelExec exec = (ChannelExec) open("exec");
+			exec.setCommand(command);
+			return exec;
+		} catch (JSchException | RuntimeException e) {
+			channels.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens an exec channel for a long-running command, which does not count
+	 * towards the maximum number of open channels. The number of such
+	 * channels must be bounded by the caller. Every channel must be closed
+	 * with {@link #close(Channel)}.
+	 * 
+	 * @param command
+	 *            the command to execute.
+	 * @return an exec channel for the given command.
+	 * @throws JSchException
+	 *             when the channel could not be opened.
+	 */
+	public ChannelExec openLongRunningExec(String command)
+			throws JSchException {
+		ChannelExec exec = (ChannelExec) open("exec");
+		exec.setCommand(command);
+		unbounded.add(exec);
+		return exec;
+	}
+
+	/**
+	 * Returns a connected sftp channel, reusing an idle channel when
+	 * possible. Every channel must be returned with
+	 * {@link #release(ChannelSftp)}.
+	 * 
+	 * @return a connected sftp channel.
+	 * @throws JSchException
+	 *             when the channel could not be opened.
+	 */
+	public ChannelSftp acquireSftp() throws JSchException {
+		lock.lock();
+		try {
+			while (!idle.isEmpty()) {
+				ChannelSftp sftp = idle.removeFirst();
+				if (sftp.isConnected() && !sftp.isClosed())
+					return sftp;
+				sftp.disconnect();
+				channels.release();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		channels.acquireUninterruptibly();
+		try {
+			ChannelSftp sftp = (ChannelSftp) open("sftp");
+			sftp.connect();
+			return sftp;
+		} catch (JSchException | RuntimeException e) {
+			channels.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the given sftp channel to the pool of idle channels, or closes
+	 * it when it is broken or enough channels are idle.
+	 * 
+	 * @param sftp
+	 *            the channel to return.
+	 */
+	public void release(ChannelSftp sftp) {
+		if (sftp == null)
+			return;
+		lock.lock();
+		try {
+			if (sftp.isConnected() && !sftp.isClosed()
+					&& sftp.getSession() == session
+					&& idle.size() < MAX_IDLE_SFTP) {
+				idle.add(sftp);
+				return;
+			}
+		} catch (JSchException e) {
+		} finally {
+			lock.unlock();
+		}
+		close(sftp);
+	}
+
+	/**
+	 * Disconnects the given channel and frees its permit.
+	 * 
+	 * @param channel
+	 *            the channel to close.
+	 */
+	public void close(Channel channel) {
+		if (channel == null)
+			return;
+		channel.disconnect();
+		if (!unbounded.remove(channel))
+			channels.release();
+	}
+
+	/**
+	 * Closes the session and all its idle channels. The connection
+	 * reconnects when it is used again.
+	 */
+	public void disconnect() {
+		lock.lock();
+		try {
+			for (ChannelSftp sftp : idle) {
+				sftp.disconnect();
+				channels.release();
+			}
+			idle.clear();
+			if (session != null)
+				session.disconnect();
+			session = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import util.TarReader;
+
+import com.jcraft.jsch.JSchException;
+
+/**
+ * Transports tasks to the pbrt installation in
+ * <code>~/workspace/pbrt-tmlt</code> of a remote machine over a shared
+ * {@link SSHConnection}.
+ * 
+ * The scene files are uploaded to the {@link AssetCache} of the remote
+ * machine together with the files they refer to, the result directories are
+ * created in <code>/tmp</code>.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class SSHTransport implements Transport {
+	/**
+	 * The pbrt directory relative to the home directory.
+	 */
+	private static final String PBRT_DIRECTORY = "workspace/pbrt-tmlt";
+
+	/**
+	 * The time in milliseconds a remote pbrt process which exceeded its
+	 * timeout gets to be killed on the remote machine itself, before its
+	 * channel is closed.
+	 */
+	private static final long KILL_GRACE = 30000;
+
+	/**
+	 * The connection to the remote machine.
+	 */
+	private final SSHConnection connection;
+
+	/**
+	 * The commands running pbrt by the identifier of their render.
+	 */
+	private final Map<String, RemoteCommand> renders = new ConcurrentHashMap<String, RemoteCommand>();
+
+	/**
+	 * The number of processors of the remote machine (0 when unknown).
+	 */
+	private volatile int processors = 0;
+
+	/**
+	 * Creates a transport to the given remote machine.
+	 * 
+	 * @param hostName
+	 *            the name of the remote machine.
+	 * @param authentication
+	 *            the authentication used to log in.
+	 * @throws NullPointerException
+	 *             when the given host name or authentication is null.
+	 */
+	public SSHTransport(String hostName, RemoteAuthentication authentication)
+			throws NullPointerException {
+		this.connection = SSHConnection.get(hostName, authentication);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#getName()
+	 */
+	@Override
+	public String getName() {
+		int index = connection.hostName.indexOf(".");
+		if (index < 0)
+			return connection.hostName;
+		return connection.hostName.substring(0, index);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#nProcessors()
+	 */
+	@Override
+	public int nProcessors() {
+		if (processors == 0) {
+			int result;
+			try {
+				result = Integer.parseInt(RemoteCommand.query(connection,
+						"nproc", 0));
+			} catch (Exception e) {
+				result = 1;
+			}
+			processors = Math.max(1, result);
+		}
+		return processors;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#upload(java.io.File, java.lang.String)
+	 */
+	@Override
+	public String upload(File file, String sceneName) throws IOException {
+		return AssetCache.get(connection).upload(file, sceneName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#allocate()
+	 */
+	@Override
+	public String allocate() throws IOException {
+		return RemoteCommand.query(connection,
+				"mktemp -d /tmp/pbrt-XXXXXXXX", 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#run(java.lang.String, java.util.List,
+	 * distributed.ProcessSupervisor.LineHandler, long)
+	 */
+	@Override
+	public int run(String id, List<String> arguments,
+			ProcessSupervisor.LineHandler handler, long timeout)
+			throws IOException, ExecutionException {
+		StringBuilder command = new StringBuilder("cd ").append(
+				PBRT_DIRECTORY).append(" && nice -n 19");
+		if (timeout > 0)
+			command.append(String.format(" timeout -s KILL %d",
+					(timeout + 999) / 1000));
+		command.append(" ./pbrt");
+		for (String argument : arguments)
+			command.append(' ').append(RemoteCommand.quote(argument));
+
+		try {
+			RemoteCommand exec = new RemoteCommand(connection,
+					command.toString(), true);
+			renders.put(id, exec);
+			try {
+				return exec.run(handler, timeout > 0 ? timeout + KILL_GRACE
+						: 0);
+			} finally {
+				renders.remove(id);
+				exec.close();
+			}
+		} catch (JSchException e) {
+			throw new IOException("could not run pbrt on "
+					+ connection.hostName + "!", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cancel(java.lang.String)
+	 */
+	@Override
+	public void cancel(String id) {
+		RemoteCommand exec = renders.get(id);
+		if (exec != null)
+			exec.kill();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#download(java.lang.String, java.io.File)
+	 */
+	@Override
+	public void download(String directory, File destination)
+			throws IOException {
+		try (RemoteCommand exec = new RemoteCommand(connection, "cd "
+				+ RemoteCommand.quote(directory) + " && tar -c -f - .")) {
+			TarReader tar = new TarReader(exec.getInputStream());
+			exec.start(0);
+			while (tar.next())
+				if (tar.getName().indexOf('/') < 0)
+					tar.copy(new File(destination, tar.getName()));
+			exec.check(exec.waitFor());
+		} catch (JSchException e) {
+			throw new IOException("could not download \"" + directory
+					+ "\" from " + connection.hostName + "!", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cleanup(java.lang.String[])
+	 */
+	@Override
+	public void cleanup(String... paths) throws IOException {
+		if (paths.length == 0)
+			return;
+		StringBuilder command = new StringBuilder("cd ").append(
+				PBRT_DIRECTORY).append(" && rm -rf");
+		for (String path : paths)
+			command.append(' ').append(RemoteCommand.quote(path));
+		RemoteCommand.query(connection, command.toString(), 0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,193 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Adds the latency and limited bandwidth of a network link to another
+ * transport, so a cluster of remote machines can be simulated with
+ * {@link LocalTransport}s on a single machine.
+ * 
+ * Every operation waits for one round trip before it is performed. File
+ * transfers additionally wait for the time the files take to cross the
+ * link, which is only known for downloads when the wrapped transport stores
+ * its results locally. The waiting threads sleep, so hundreds of simulated
+ * machines cost no processor time.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class SimulatedTransport implements Transport {
+	/**
+	 * The transport which performs the operations.
+	 */
+	private final Transport transport;
+
+	/**
+	 * The round trip time of the link in milliseconds.
+	 */
+	public final long latency;
+
+	/**
+	 * The bandwidth of the link in bytes per second (0 = unlimited).
+	 */
+	public final long bandwidth;
+
+	/**
+	 * Creates a new simulated transport.
+	 * 
+	 * @param transport
+	 *            the transport which performs the operations.
+	 * @param latency
+	 *            the round trip time of the link in milliseconds.
+	 * @param bandwidth
+	 *            the bandwidth of the link in bytes per second (0 =
+	 *            unlimited).
+	 * @throws NullPointerException
+	 *             when the given transport is null.
+	 * @throws IllegalArgumentException
+	 *             when the given latency or bandwidth is negative.
+	 */
+	public SimulatedTransport(Transport transport, long latency,
+			long bandwidth) throws NullPointerException,
+			IllegalArgumentException {
+		if (transport == null)
+			throw new NullPointerException("the given transport is null!");
+		if (latency < 0)
+			throw new IllegalArgumentException(
+					"the latency must be larger than or equal to zero!");
+		if (bandwidth < 0)
+			throw new IllegalArgumentException(
+					"the bandwidth must be larger than or equal to zero!");
+		this.transport = transport;
+		this.latency = latency;
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Waits for one round trip and the transfer of the given number of bytes.
+	 * 
+	 * @param bytes
+	 *            the number of bytes which are transferred.
+	 * @throws IOException
+	 *             when the thread was interrupted.
+	 */
+	private void delay(long bytes) throws IOException {
+		long millis = latency;
+		if (bandwidth > 0)
+			millis += bytes * 1000 / bandwidth;
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while simulating the link!", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#getName()
+	 */
+	@Override
+	public String getName() {
+		return transport.getName();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#nProcessors()
+	 */
+	@Override
+	public int nProcessors() {
+		return transport.nProcessors();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#upload(java.io.File, java.lang.String)
+	 */
+	@Override
+	public String upload(File file, String sceneName) throws IOException {
+		delay(file.length());
+		return transport.upload(file, sceneName);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#allocate()
+	 */
+	@Override
+	public String allocate() throws IOException {
+		delay(0);
+		return transport.allocate();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#run(java.lang.String, java.util.List,
+	 * distributed.ProcessSupervisor.LineHandler, long)
+	 */
+	@Override
+	public int run(String id, List<String> arguments,
+			ProcessSupervisor.LineHandler handler, long timeout)
+			throws IOException, ExecutionException {
+		delay(0);
+		return transport.run(id, arguments, handler, timeout);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cancel(java.lang.String)
+	 */
+	@Override
+	public void cancel(String id) {
+		transport.cancel(id);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#download(java.lang.String, java.io.File)
+	 */
+	@Override
+	public void download(String directory, File destination)
+			throws IOException {
+		long bytes = 0;
+		File[] files = new File(directory).listFiles();
+		if (files != null)
+			for (File file : files)
+				bytes += file.length();
+		delay(bytes);
+		transport.download(directory, destination);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Transport#cleanup(java.lang.String[])
+	 */
+	@Override
+	public void cleanup(String... paths) throws IOException {
+		delay(0);
+		transport.cleanup(paths);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return transport.toString();
+	}
+}
@@ -0,0 +1,210 @@
+package distributed;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import pfm.PFMImage;
+import pfm.PFMReader;
+import task.ConvergenceMonitor;
+
+/**
+ * Feeds the intermediate images pbrt writes during a render to a
+ * {@link ConvergenceMonitor}.
+ * 
+ * The intermediate images of the render with output file
+ * <code>&lt;name&gt;</code> are the files
+ * <code>&lt;name&gt;-snapshot-&lt;index&gt;.pfm</code> next to the output
+ * file. A daemon thread is woken by the file system whenever such a file is
+ * created or written, so nothing polls the directory. A file which cannot be
+ * read yet is retried on its next event, every image is evaluated once.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class SnapshotWatcher implements Closeable {
+	/**
+	 * The directory containing the intermediate images.
+	 */
+	private final File directory;
+
+	/**
+	 * Matches the names of the intermediate images.
+	 */
+	private final Pattern pattern;
+
+	/**
+	 * The monitor evaluating the intermediate images.
+	 */
+	private final ConvergenceMonitor monitor;
+
+	/**
+	 * Invoked once when the render has converged.
+	 */
+	private final Runnable converged;
+
+	/**
+	 * The service signalling the changes in the directory.
+	 */
+	private final WatchService service;
+
+	/**
+	 * The time in nanoseconds at which the watcher was started.
+	 */
+	private final long start = System.nanoTime();
+
+	/**
+	 * The indices of the intermediate images which were evaluated.
+	 */
+	private final Set<Integer> evaluated = new HashSet<Integer>();
+
+	/**
+	 * The intermediate image with which the render converged (null when it
+	 * did not converge).
+	 */
+	private volatile File snapshot = null;
+
+	/**
+	 * Starts watching the given directory for the intermediate images of the
+	 * render with the given output file name.
+	 * 
+	 * @param directory
+	 *            the directory containing the output file.
+	 * @param filename
+	 *            the name of the output file (without an extension).
+	 * @param monitor
+	 *            the monitor evaluating the intermediate images.
+	 * @param converged
+	 *            invoked once when the render has converged.
+	 * @throws NullPointerException
+	 *             when one of the given arguments is null.
+	 * @throws IOException
+	 *             when the directory cannot be watched.
+	 */
+	public SnapshotWatcher(File directory, String filename,
+			ConvergenceMonitor monitor, Runnable converged)
+			throws NullPointerException, IOException {
+		if (directory == null)
+			throw new NullPointerException("the given directory is null!");
+		if (filename == null)
+			throw new NullPointerException("the given filename is null!");
+		if (monitor == null)
+			throw new NullPointerException("the given monitor is null!");
+		if (converged == null)
+			throw new NullPointerException("the given callback is null!");
+		this.directory = directory;
+		this.pattern = Pattern.compile(Pattern.quote(filename)
+				+ "-snapshot-([0-9]+)\\.pfm");
+		this.monitor = monitor;
+		this.converged = converged;
+
+		service = FileSystems.getDefault().newWatchService();
+		try {
+			directory.toPath().register(service,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			service.close();
+			throw e;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "snapshots-" + filename);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Waits for changes in the directory until the watcher is closed.
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+						continue;
+					evaluate(((Path) event.context()).toString());
+				}
+				if (!key.reset())
+					return;
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// the watcher was closed
+		}
+	}
+
+	/**
+	 * Evaluates the intermediate image with the given name, when it is one
+	 * which was not evaluated yet.
+	 * 
+	 * @param name
+	 *            the name of a changed file in the directory.
+	 */
+	private void evaluate(String name) {
+		Matcher matcher = pattern.matcher(name);
+		if (!matcher.matches() || snapshot != null)
+			return;
+		int index = Integer.parseInt(matcher.group(1));
+		if (evaluated.contains(index))
+			return;
+
+		File file = new File(directory, name);
+		PFMImage image;
+		try {
+			image = PFMReader.read(file);
+		} catch (IOException | RuntimeException e) {
+			// pbrt is still writing the image
+			return;
+		}
+		evaluated.add(index);
+
+		double elapsed = (System.nanoTime() - start) * 1e-9;
+		try {
+			if (monitor.add(index, elapsed, image)) {
+				snapshot = file;
+				converged.run();
+			}
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the intermediate image with which the render converged.
+	 * 
+	 * @return the intermediate image with which the render converged (null
+	 *         when it did not converge).
+	 */
+	public File getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Stops watching the directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		service.close();
+	}
+}
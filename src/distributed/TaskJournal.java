@@ -0,0 +1,342 @@
+package distributed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import task.RenderTaskInterface;
+import util.FileUtil;
+
+/**
+ * An append-only journal of the render tasks which finished or failed, so an
+ * interrupted execution can be resumed without checking the result files of
+ * every task.
+ * 
+ * Every line of the journal is a tab separated record with the key of the
+ * task (its result directory and filename), its status, the computer which
+ * executed it, the scene, seed, number of samples and resolution, the start
+ * time and duration in milliseconds, the processor time in milliseconds and
+ * peak memory in bytes of the render as reported by the computer (-1 when
+ * unknown) and the CRC32 checksums of the result files. The journal is read
+ * once when it is opened, after which looking up whether a task finished
+ * takes constant time. A task which finished once stays finished, even when
+ * a failure of another execution of the task was recorded after it.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class TaskJournal implements Closeable {
+	/**
+	 * The status of a task in the journal.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static enum Status {
+		/**
+		 * The task finished and all its result files are present.
+		 */
+		FINISHED,
+
+		/**
+		 * The execution of the task failed.
+		 */
+		FAILED
+	}
+
+	/**
+	 * The extensions of the result files of a task.
+	 */
+	private static final String[] extensions = { "pbrt", "pfm", "txt", "exr",
+			"png" };
+
+	/**
+	 * The file containing the journal.
+	 */
+	public final File file;
+
+	/**
+	 * The keys of the tasks which the journal records as finished.
+	 */
+	private final Set<String> finished = new HashSet<String>();
+
+	/**
+	 * Whether the file did not exist yet when the journal was opened.
+	 */
+	private final boolean created;
+
+	/**
+	 * The writer which appends to the journal.
+	 */
+	private final BufferedWriter writer;
+
+	/**
+	 * Lock for thread-safe access to the journal.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Opens the journal in the given file, creating it when it does not exist
+	 * yet.
+	 * 
+	 * @param file
+	 *            the file containing the journal.
+	 * @throws NullPointerException
+	 *             when the given file is null.
+	 * @throws IOException
+	 *             when the journal could not be read or opened for writing.
+	 */
+	public TaskJournal(File file) throws NullPointerException, IOException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		this.file = file;
+		this.created = !file.exists();
+
+		if (!created) {
+			try (BufferedReader reader = Files.newBufferedReader(
+					file.toPath(), StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t");
+					// skip a line which was only partially written
+					if (fields.length < 2)
+						continue;
+					if (fields[1].equals(Status.FINISHED.name()))
+						finished.add(fields[0]);
+				}
+			}
+		} else {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !FileUtil.mkdirs(parent))
+				throw new IOException("could not allocate the directory \""
+						+ parent + "\"!");
+		}
+
+		writer = Files.newBufferedWriter(file.toPath(),
+				StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+
+		// terminate a line which was only partially written
+		if (file.length() > 0)
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				raf.seek(raf.length() - 1);
+				if (raf.read() != '\n') {
+					writer.write('\n');
+					writer.flush();
+				}
+			}
+	}
+
+	/**
+	 * Returns the key of the given task in the journal.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @return the key of the given task in the journal.
+	 */
+	private static String getKey(RenderTaskInterface task) {
+		return new File(task.getDirectory(), task.getFilename())
+				.getAbsolutePath();
+	}
+
+	/**
+	 * Returns whether the file of the journal did not exist yet when the
+	 * journal was opened, in which case tasks which finished before may be
+	 * missing from it.
+	 * 
+	 * @return whether the file of the journal was created when it was
+	 *         opened.
+	 */
+	public boolean isNew() {
+		return created;
+	}
+
+	/**
+	 * Returns whether the journal records the given task as finished.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @throws NullPointerException
+	 *             when the given task is null.
+	 * @return whether the journal records the given task as finished.
+	 */
+	public boolean isDone(RenderTaskInterface task)
+			throws NullPointerException {
+		if (task == null)
+			throw new NullPointerException("the given task is null!");
+		lock.lock();
+		try {
+			return finished.contains(getKey(task));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a record for the given task to the journal. The record is
+	 * flushed to the file before this method returns.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param status
+	 *            the status of the task.
+	 * @param computer
+	 *            the computer which executed the task.
+	 * @param start
+	 *            the time at which the execution started, in milliseconds
+	 *            since the epoch.
+	 * @param duration
+	 *            the duration of the execution in milliseconds.
+	 * @throws NullPointerException
+	 *             when the given task, status or computer is null.
+	 * @throws IOException
+	 *             when the record could not be written.
+	 */
+	public void record(RenderTaskInterface task, Status status,
+			Computer computer, long start, long duration)
+			throws NullPointerException, IOException {
+		if (task == null)
+			throw new NullPointerException("the given task is null!");
+		if (status == null)
+			throw new NullPointerException("the given status is null!");
+		if (computer == null)
+			throw new NullPointerException("the given computer is null!");
+
+		append(task, status, computer.getName(), start, duration,
+				computer.getResourceUsage(task));
+	}
+
+	/**
+	 * Records the given task, whose results were produced outside of an
+	 * execution with this journal, as finished. The host is recorded as
+	 * "-", the start time is the modification time of the scene file and
+	 * the duration is unknown (-1).
+	 * 
+	 * @param task
+	 *            the task.
+	 * @throws NullPointerException
+	 *             when the given task is null.
+	 * @throws IOException
+	 *             when the record could not be written.
+	 */
+	public void recordExisting(RenderTaskInterface task)
+			throws NullPointerException, IOException {
+		if (task == null)
+			throw new NullPointerException("the given task is null!");
+		File scene = new File(task.getDirectory(), task.getFilename()
+				+ ".pbrt");
+		append(task, Status.FINISHED, "-", scene.lastModified(), -1, null);
+	}
+
+	/**
+	 * Appends a record for the given task to the journal and flushes it.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param status
+	 *            the status of the task.
+	 * @param host
+	 *            the name of the computer which executed the task.
+	 * @param start
+	 *            the time at which the execution started, in milliseconds
+	 *            since the epoch.
+	 * @param duration
+	 *            the duration of the execution in milliseconds.
+	 * @param usage
+	 *            the resources used by the execution (null when unknown).
+	 * @throws IOException
+	 *             when the record could not be written.
+	 */
+	private void append(RenderTaskInterface task, Status status, String host,
+			long start, long duration, ResourceUsage usage)
+			throws IOException {
+		final String key = getKey(task);
+		StringBuilder line = new StringBuilder(key);
+		line.append('\t').append(status);
+		line.append('\t').append(host);
+		line.append('\t').append(task.getSceneName());
+		line.append('\t').append(task.getSeed());
+		line.append('\t').append(task.nbOfSamples());
+		line.append('\t').append(task.getXResolution()).append('x')
+				.append(task.getYResolution());
+		line.append('\t').append(start);
+		line.append('\t').append(duration);
+		line.append('\t').append(usage == null ? -1 : usage.cpuTime);
+		line.append('\t').append(usage == null ? -1 : usage.peakMemory);
+		line.append('\t');
+		if (status == Status.FINISHED)
+			appendChecksums(task, line);
+		line.append('\n');
+
+		lock.lock();
+		try {
+			writer.write(line.toString());
+			writer.flush();
+			if (status == Status.FINISHED)
+				finished.add(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the CRC32 checksums of the result files of the given task.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @param builder
+	 *            the builder to append to.
+	 * @throws IOException
+	 *             when a result file could not be read.
+	 */
+	private static void appendChecksums(RenderTaskInterface task,
+			StringBuilder builder) throws IOException {
+		final byte[] buffer = new byte[65536];
+		boolean first = true;
+		for (String extension : extensions) {
+			File result = new File(task.getDirectory(), task.getFilename()
+					+ "." + extension);
+			if (!result.isFile())
+				continue;
+
+			CRC32 crc = new CRC32();
+			try (InputStream in = Files.newInputStream(result.toPath())) {
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					crc.update(buffer, 0, n);
+			}
+
+			if (!first)
+				builder.append(',');
+			builder.append(extension).append(':')
+					.append(String.format("%08x", crc.getValue()));
+			first = false;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			writer.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
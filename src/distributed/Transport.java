@@ -0,0 +1,116 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The operations a {@link TransportComputer} needs to render a task on a
+ * machine: shipping the scene file, running pbrt, retrieving the results and
+ * removing what was left behind.
+ * 
+ * Paths returned by a transport refer to files on the machine it transports
+ * to and are only meaningful to that transport. All the operations may be
+ * called concurrently by several threads.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public interface Transport {
+	/**
+	 * Returns the name of the machine this transport transports to.
+	 * 
+	 * @return the name of the machine this transport transports to.
+	 */
+	public String getName();
+
+	/**
+	 * Returns the number of processors of the machine.
+	 * 
+	 * @return the number of processors of the machine.
+	 */
+	public int nProcessors();
+
+	/**
+	 * Copies the given local file to the directory of the scene with the
+	 * given name on the machine, so the files the scene refers to can be
+	 * found.
+	 * 
+	 * @param file
+	 *            the local file to copy.
+	 * @param sceneName
+	 *            the name of the scene.
+	 * @return the path of the copy on the machine.
+	 * @throws IOException
+	 *             when the file could not be copied.
+	 */
+	public String upload(File file, String sceneName) throws IOException;
+
+	/**
+	 * Creates a new empty directory on the machine in which a render can
+	 * store its results.
+	 * 
+	 * @return the path of the new directory on the machine.
+	 * @throws IOException
+	 *             when the directory could not be created.
+	 */
+	public String allocate() throws IOException;
+
+	/**
+	 * Runs pbrt with the given arguments on the machine and passes every line
+	 * of its standard output to the given handler.
+	 * 
+	 * @param id
+	 *            an identifier of the render, which can be passed to
+	 *            {@link #cancel(String)}.
+	 * @param arguments
+	 *            the arguments of pbrt.
+	 * @param handler
+	 *            the handler of the standard output.
+	 * @param timeout
+	 *            the time in milliseconds after which pbrt is killed (0 = no
+	 *            limit).
+	 * @return the exit status of pbrt.
+	 * @throws IOException
+	 *             when pbrt could not be started or its output could not be
+	 *             read.
+	 * @throws ExecutionException
+	 *             when pbrt exceeded the timeout.
+	 */
+	public int run(String id, List<String> arguments,
+			ProcessSupervisor.LineHandler handler, long timeout)
+			throws IOException, ExecutionException;
+
+	/**
+	 * Kills the render with the given identifier. Does nothing when no such
+	 * render is running.
+	 * 
+	 * @param id
+	 *            the identifier of the render.
+	 */
+	public void cancel(String id);
+
+	/**
+	 * Copies the files in the given directory on the machine to the given
+	 * local directory.
+	 * 
+	 * @param directory
+	 *            the directory on the machine.
+	 * @param destination
+	 *            the local directory.
+	 * @throws IOException
+	 *             when the files could not be copied.
+	 */
+	public void download(String directory, File destination)
+			throws IOException;
+
+	/**
+	 * Removes the given files and directories from the machine.
+	 * 
+	 * @param paths
+	 *            the paths of the files and directories on the machine.
+	 * @throws IOException
+	 *             when the files could not be removed.
+	 */
+	public void cleanup(String... paths) throws IOException;
+}
@@ -0,0 +1,230 @@
+package distributed;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pbrt.scene.PBRTScene;
+import task.RenderTaskInterface;
+import task.RenderTaskProgressListener;
+import util.FileUtil;
+import util.MetricsRegistry;
+
+/**
+ * A computer which renders tasks on the machine of a {@link Transport}.
+ * 
+ * The scene file of a task is written to its result directory and uploaded to
+ * the scene directory on the machine, pbrt renders it into a fresh directory
+ * on the machine, after which the results are downloaded to the result
+ * directory and everything which was left on the machine is removed.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class TransportComputer extends Computer {
+	/**
+	 * The transport to the machine of this computer.
+	 */
+	public final Transport transport;
+
+	/**
+	 * Creates a computer which renders on all the processors of the machine
+	 * of the given transport.
+	 * 
+	 * @param transport
+	 *            the transport to the machine.
+	 * @throws NullPointerException
+	 *             when the given transport is null.
+	 */
+	public TransportComputer(Transport transport) throws NullPointerException {
+		this(transport, 0);
+	}
+
+	/**
+	 * Creates a new computer.
+	 * 
+	 * @param transport
+	 *            the transport to the machine.
+	 * @param nCores
+	 *            the number of cores to use per task (0 = all).
+	 * @throws NullPointerException
+	 *             when the given transport is null.
+	 * @throws IllegalArgumentException
+	 *             when the number of cores is smaller than zero.
+	 */
+	public TransportComputer(Transport transport, int nCores)
+			throws NullPointerException, IllegalArgumentException {
+		super(nCores);
+		if (transport == null)
+			throw new NullPointerException("the given transport is null!");
+		this.transport = transport;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#getName()
+	 */
+	@Override
+	public String getName() {
+		return transport.getName();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#nProcessors()
+	 */
+	@Override
+	public int nProcessors() {
+		return transport.nProcessors();
+	}
+
+	/**
+	 * Returns the identifier of the render of the given task.
+	 * 
+	 * @param task
+	 *            the task.
+	 * @return the identifier of the render of the given task.
+	 */
+	private static String getId(RenderTaskInterface task) {
+		return task.getDirectory() + "/" + task.getFilename();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#execute(task.RenderTaskInterface,
+	 * task.RenderTaskProgressListener)
+	 */
+	@Override
+	public void execute(RenderTaskInterface task,
+			final RenderTaskProgressListener listener)
+			throws NullPointerException, ExecutionException {
+		if (task == null)
+			throw new NullPointerException("the given task is null!");
+		if (listener == null)
+			throw new NullPointerException("the given listener is null!");
+		if (done(task))
+			return;
+
+		/*----------------------------------------------------------------------
+		 * Write the task to the result directory
+		 *--------------------------------------------------------------------*/
+
+		final File resultDirectory = new File(task.getDirectory());
+		if (!FileUtil.mkdirs(resultDirectory))
+			throw new ExecutionException("the requested directory \""
+					+ resultDirectory.getAbsolutePath()
+					+ "\" could not be allocated!");
+
+		File sceneFile = new File(resultDirectory, task.getFilename().concat(
+				".pbrt"));
+		PBRTScene scene = task.getScene();
+		try {
+			scene.print(sceneFile);
+		} catch (IOException e) {
+			throw new ExecutionException("could not write the scene file \""
+					+ sceneFile.getAbsolutePath() + "\"!", e);
+		}
+
+		/*----------------------------------------------------------------------
+		 * Render the task on the machine and retrieve the results
+		 *--------------------------------------------------------------------*/
+
+		List<String> leftovers = new ArrayList<String>(2);
+		try {
+			String remoteSceneFile = transport.upload(sceneFile,
+					task.getSceneName());
+			leftovers.add(remoteSceneFile);
+			String outputDirectory = transport.allocate();
+			leftovers.add(outputDirectory);
+
+			List<String> arguments = new ArrayList<String>();
+			arguments.add("--outfile");
+			arguments.add(outputDirectory + "/" + task.getFilename());
+			arguments.add("--seed");
+			arguments.add(Long.toString(task.getSeed()));
+			if (nCores() > 0) {
+				arguments.add("--nthreads");
+				arguments.add(Integer.toString(nCores()));
+			}
+			arguments.add(remoteSceneFile);
+
+			int status = transport.run(getId(task), arguments,
+					new ProcessSupervisor.LineHandler() {
+						private double percentage = 0;
+
+						/*
+						 * (non-Javadoc)
+						 * 
+						 * @see
+						 * distributed.ProcessSupervisor.LineHandler#handle(
+						 * java.lang.String)
+						 */
+						@Override
+						public void handle(String line) {
+							percentage = updateProgress(line, percentage,
+									listener);
+						}
+					}, getTimeout());
+			if (status != 0)
+				throw new ExecutionException("pbrt stopped with exit code "
+						+ status + " on " + getName() + "!");
+
+			final long start = System.nanoTime();
+			transport.download(outputDirectory, resultDirectory);
+			long bytes = 0;
+			for (String artifact : task.getArtifacts())
+				bytes += new File(resultDirectory, task.getFilename() + "."
+						+ artifact).length();
+			MetricsRegistry metrics = MetricsRegistry.get();
+			metrics.counter("download_bytes", getName()).add(bytes);
+			metrics.histogram("download_seconds", getName()).add(
+					(System.nanoTime() - start) * 1e-9);
+		} catch (IOException e) {
+			throw new ExecutionException("could not render the task on "
+					+ getName() + "!", e);
+		} finally {
+			/*------------------------------------------------------------------
+			 * Perform cleanup
+			 *----------------------------------------------------------------*/
+
+			try {
+				transport.cleanup(leftovers.toArray(new String[leftovers
+						.size()]));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/*----------------------------------------------------------------------
+		 * Check whether the render was succesful
+		 *--------------------------------------------------------------------*/
+
+		if (!done(task))
+			throw new ExecutionException(
+					"not required rendered files are present!");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see distributed.Computer#cancel(task.RenderTaskInterface)
+	 */
+	@Override
+	public void cancel(RenderTaskInterface task) {
+		transport.cancel(getId(task));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -9,6 +9,7 @@ import utilities.PBRTCleaner;
 import utilities.MPSSMLTAnalysis;
 import utilities.PSSMLTSettingsFinder;
 import utilities.RenderDataOrganizer;
+import utilities.SchedulerBenchmark;
 import cli.CommandLineArguments;
 import cli.CommandLineInterface;
 
@@ -35,6 +36,8 @@ public class MLTUtil extends CommandLineInterface {
 						+ " finding the optimal pssmlt settings.");
 		addAction("pssmltorganizer",
 				"Properly organizes the pssmltsettings data from older executions.");
+		addAction("schedulerbenchmark",
+				"Measures the scheduling of synthetic tasks on simulated computers.");
 	}
 
 	/**
@@ -89,5 +92,7 @@ public class MLTUtil extends CommandLineInterface {
 			PSSMLTSettingsFinder.main(arguments);
 		else if (token.equals("pssmltorganizer"))
 			RenderDataOrganizer.main(arguments);
+		else if (token.equals("schedulerbenchmark"))
+			SchedulerBenchmark.main(arguments);
 	}
 }
@@ -4,7 +4,7 @@ import java.io.IOException;
 
 import pfm.PFMImage;
 import pfm.PFMReader;
-import util.Statistics;
+import util.StreamingStatistics;
 
 public class Test {
 	public static void main(String[] args) throws IOException {
@@ -12,9 +12,7 @@ public class Test {
 				.read("/home/niels/workspace/exrmse/frame0.pfm");
 		image.write("frame0.png", 2.2);
 		
-		Statistics statistics = new Statistics();
-		for(int i = 0;i< image.nbOfFloats(); ++i)
-			statistics.add(image.getFloat(i));
+		StreamingStatistics statistics = image.getStreamingStatistics();
 		System.out.println(statistics);
 	}
 }
@@ -0,0 +1,120 @@
+package pfm;
+
+/**
+ * The errors between two Portable Float Map images, computed in a single pass
+ * over both images by {@link PFMUtil#getError(PFMImage, PFMImage, double, boolean)}.
+ * 
+ * Color components which are negative in either image are ignored.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMError {
+	/**
+	 * The mean squared error between the gamma corrected images.
+	 */
+	public final double mse;
+
+	/**
+	 * The mean squared relative error between the gamma corrected images
+	 * (relative to the second image).
+	 */
+	public final double relativeMse;
+
+	/**
+	 * The mean absolute error between the gamma corrected images.
+	 */
+	public final double mae;
+
+	/**
+	 * The maximum absolute error between the gamma corrected images.
+	 */
+	public final double maxError;
+
+	/**
+	 * The number of color components which contributed to the errors.
+	 */
+	public final long count;
+
+	/**
+	 * The number of color components which contributed to the relative
+	 * error.
+	 */
+	public final long relativeCount;
+
+	/**
+	 * The image containing the squared error of every color component (null
+	 * when it was not requested).
+	 */
+	public final PFMImage image;
+
+	/**
+	 * Creates a new summary of the errors between two images.
+	 * 
+	 * @param mse
+	 *            the mean squared error.
+	 * @param relativeMse
+	 *            the mean squared relative error.
+	 * @param mae
+	 *            the mean absolute error.
+	 * @param maxError
+	 *            the maximum absolute error.
+	 * @param count
+	 *            the number of color components which contributed to the
+	 *            errors.
+	 * @param relativeCount
+	 *            the number of color components which contributed to the
+	 *            relative error.
+	 * @param image
+	 *            the squared error image (may be null).
+	 */
+	public PFMError(double mse, double relativeMse, double mae,
+			double maxError, long count, long relativeCount, PFMImage image) {
+		this.mse = mse;
+		this.relativeMse = relativeMse;
+		this.mae = mae;
+		this.maxError = maxError;
+		this.count = count;
+		this.relativeCount = relativeCount;
+		this.image = image;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("[ Error ]:\n" + "mse:                %.16f\n"
+				+ "relative mse:       %.16f\n"
+				+ "mae:                %.16f\n"
+				+ "maximum error:      %.16f\n"
+				+ "n:                  %d\n", mse, relativeMse, mae,
+				maxError, count);
+	}
+}
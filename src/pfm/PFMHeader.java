@@ -0,0 +1,142 @@
+package pfm;
+
+/**
+ * The header of a Portable Float Map image.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMHeader {
+	/**
+	 * The width of the image.
+	 */
+	public final int width;
+
+	/**
+	 * The height of the image.
+	 */
+	public final int height;
+
+	/**
+	 * The number of color channels in the image (1 for grayscale images, 3
+	 * for color images).
+	 */
+	public final int channels;
+
+	/**
+	 * The scale factor of the image (the sign only encodes the endianness).
+	 */
+	public final float scale;
+
+	/**
+	 * The offset in bytes of the pixel data from the start of the file.
+	 */
+	public final long offset;
+
+	/**
+	 * Creates a new header.
+	 * 
+	 * @param width
+	 *            the width of the image.
+	 * @param height
+	 *            the height of the image.
+	 * @param channels
+	 *            the number of color channels in the image.
+	 * @param scale
+	 *            the scale factor of the image.
+	 * @param offset
+	 *            the offset in bytes of the pixel data.
+	 * @throws IllegalArgumentException
+	 *             when the width or height are smaller than or equal to zero,
+	 *             when the number of channels is not 1 or 3 or when the scale
+	 *             is zero.
+	 */
+	public PFMHeader(int width, int height, int channels, float scale,
+			long offset) throws IllegalArgumentException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException(
+					"header does not contain a valid size!");
+		if (channels != 1 && channels != 3)
+			throw new IllegalArgumentException(
+					"the number of channels must either be 1 or 3!");
+		if (scale == 0 || Float.isNaN(scale))
+			throw new IllegalArgumentException(
+					"header does not contain a valid scale!");
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.scale = scale;
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns whether the image only contains a single color channel.
+	 * 
+	 * @return whether the image only contains a single color channel.
+	 */
+	public boolean isGray() {
+		return channels == 1;
+	}
+
+	/**
+	 * Returns whether the pixel data is stored in little endian byte order.
+	 * 
+	 * @return whether the pixel data is stored in little endian byte order.
+	 */
+	public boolean isLittleEndian() {
+		return scale < 0;
+	}
+
+	/**
+	 * Returns the number of floats stored in the file.
+	 * 
+	 * @return the number of floats stored in the file.
+	 */
+	public int nbOfFloats() {
+		return width * height * channels;
+	}
+
+	/**
+	 * Returns the size in bytes of the pixel data.
+	 * 
+	 * @return the size in bytes of the pixel data.
+	 */
+	public long dataSize() {
+		return (long) nbOfFloats() * Float.BYTES;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s %dx%d (scale %s)", isGray() ? "Pf" : "PF",
+				width, height, Float.toString(scale));
+	}
+}
@@ -3,11 +3,12 @@ package pfm;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
 import util.Statistics;
+import util.StreamingStatistics;
+import core.Tile;
 
 /**
  * The PFMImage describes an image in the Portable Float Map format.
@@ -40,20 +41,29 @@ import util.Statistics;
  *          POSSIBILITY OF SUCH DAMAGE.
  */
 public class PFMImage {
-	private final float[] floats;
+	/**
+	 * The kind of storage used for newly allocated images.
+	 */
+	private static volatile PFMStorage.Type defaultStorageType = PFMStorage.Type.HEAP;
+
+	private final PFMStorage floats;
 	public final int width;
 	public final int height;
 
 	/**
+	 * Creates a new black image with the given dimensions, stored in the
+	 * default kind of storage.
 	 * 
 	 * @param width
+	 *            The width of the image.
 	 * @param height
-	 * @param color
+	 *            The height of the image.
 	 */
 	public PFMImage(int width, int height) {
 		this.width = width;
 		this.height = height;
-		this.floats = new float[width * height * 3];
+		this.floats = PFMStorage.allocate(defaultStorageType,
+				width * height * 3);
 	}
 
 	/**
@@ -104,7 +114,7 @@ public class PFMImage {
 		// allocate the floats
 		this.width = width;
 		this.height = height;
-		this.floats = new float[3 * resolution];
+		this.floats = PFMStorage.allocate(defaultStorageType, 3 * resolution);
 
 		// copy the floats
 		if (gray) {
@@ -120,20 +130,158 @@ public class PFMImage {
 		}
 	}
 
+	/**
+	 * Creates a new image with the given dimensions which is backed by the
+	 * given storage.
+	 * 
+	 * The storage is not copied, which allows direct buffers and memory
+	 * mapped files to be used as images without loading them onto the heap.
+	 * 
+	 * @param width
+	 *            The width of the image.
+	 * @param height
+	 *            The height of the image.
+	 * @param storage
+	 *            The storage containing the red, green and blue components of
+	 *            the pixels.
+	 * @throws IllegalArgumentException
+	 *             When the width or height are smaller than or equal to zero.
+	 * @throws IllegalArgumentException
+	 *             When the size of the storage is not equal to
+	 *             3*width*height.
+	 * @throws NullPointerException
+	 *             When the given storage is null.
+	 */
+	public PFMImage(int width, int height, PFMStorage storage)
+			throws IllegalArgumentException, NullPointerException {
+		if (width <= 0)
+			throw new IllegalArgumentException(
+					"the width has to be larger than zero!");
+		if (height <= 0)
+			throw new IllegalArgumentException(
+					"the height has to be larger than zero!");
+		if (storage == null)
+			throw new NullPointerException("the given storage is null!");
+		if (storage.size() != 3 * width * height)
+			throw new IllegalArgumentException("the number of floats must be "
+					+ "equal to " + (3 * width * height) + " but was "
+					+ storage.size());
+
+		this.width = width;
+		this.height = height;
+		this.floats = storage;
+	}
+
+	/**
+	 * Returns the kind of storage used for newly allocated images.
+	 * 
+	 * @return the kind of storage used for newly allocated images.
+	 */
+	public static PFMStorage.Type getDefaultStorageType() {
+		return defaultStorageType;
+	}
+
+	/**
+	 * Sets the kind of storage used for newly allocated images.
+	 * 
+	 * @param type
+	 *            the kind of storage used for newly allocated images.
+	 * @throws NullPointerException
+	 *             when the given type is null.
+	 */
+	public static void setDefaultStorageType(PFMStorage.Type type)
+			throws NullPointerException {
+		if (type == null)
+			throw new NullPointerException("the given storage type is null!");
+		defaultStorageType = type;
+	}
+
+	/**
+	 * Returns the storage containing the floats of this image.
+	 * 
+	 * @return the storage containing the floats of this image.
+	 */
+	public PFMStorage getStorage() {
+		return floats;
+	}
+
 	/**
 	 * 
 	 * @param value
 	 * @return
 	 */
 	public PFMImage scale(float value) {
-		final int n = nbOfFloats();
+		return copy().scaleInPlace(value);
+	}
+
+	/**
+	 * Returns a copy of this image, stored in the default kind of storage.
+	 * 
+	 * @return a copy of this image.
+	 */
+	public PFMImage copy() {
 		final PFMImage result = new PFMImage(width, height);
+		final float[] row = new float[3 * width];
 
-		for (int i = 0; i < n; ++i)
-			result.setFloat(i, getFloat(i) * value);
+		for (int y = 0; y < height; ++y) {
+			getRow(y, row, 0);
+			result.setRow(y, row, 0);
+		}
 		return result;
 	}
 
+	/**
+	 * Multiplies all the floats in this image with the given value.
+	 * 
+	 * @param value
+	 *            the value to multiply with.
+	 * @return this image.
+	 */
+	public PFMImage scaleInPlace(float value) {
+		floats.scale(value);
+		return this;
+	}
+
+	/**
+	 * Adds the given image to this image.
+	 * 
+	 * @param image
+	 *            the image to add.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return this image.
+	 */
+	public PFMImage addInPlace(PFMImage image) throws NullPointerException,
+			IllegalArgumentException {
+		return fma(image, 1.f);
+	}
+
+	/**
+	 * Adds the given image, multiplied by the given factor, to this image.
+	 * 
+	 * @param image
+	 *            the image to add.
+	 * @param factor
+	 *            the factor to multiply the given image with.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the images do not match.
+	 * @return this image.
+	 */
+	public PFMImage fma(PFMImage image, float factor)
+			throws NullPointerException, IllegalArgumentException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		if (image.width != width || image.height != height)
+			throw new IllegalArgumentException(
+					"the images do not have matching size!");
+		floats.add(image.floats, factor);
+		return this;
+	}
+
 	/**
 	 * 
 	 * @param value
@@ -146,17 +294,65 @@ public class PFMImage {
 	}
 
 	/**
+	 * Returns the exact statistics of all the floats in the image. Every
+	 * float is kept to compute the median, see
+	 * {@link #getStreamingStatistics()} for large images.
 	 * 
-	 * @return
+	 * @return the statistics of all the floats in the image.
 	 */
 	public Statistics getStatistics() {
 		Statistics statistics = new Statistics();
+		float[] row = new float[3 * width];
 
-		for (int i = 0; i < nbOfFloats(); ++i)
-			statistics.add(getFloat(i));
+		for (int y = 0; y < height; ++y) {
+			getRow(y, row, 0);
+			for (int i = 0; i < row.length; ++i)
+				statistics.add(row[i]);
+		}
 
 		return statistics;
+	}
 
+	/**
+	 * Returns the statistics of all the floats in the image in constant
+	 * memory. The floats are summarized per tile in parallel. The mean,
+	 * variance, minimum and maximum are exact, the median and the other
+	 * quantiles are approximated.
+	 * 
+	 * @return the statistics of all the floats in the image.
+	 */
+	public StreamingStatistics getStreamingStatistics() {
+		return PFMTiles.reduce(width, height,
+				new PFMTiles.Kernel<StreamingStatistics>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+					 */
+					@Override
+					public StreamingStatistics apply(Tile tile) {
+						float[] region = new float[3 * tile.area()];
+						getRegion(tile, region, 0);
+
+						StreamingStatistics statistics = new StreamingStatistics();
+						for (int i = 0; i < region.length; ++i)
+							statistics.add(region[i]);
+						return statistics;
+					}
+				}, new PFMTiles.Reducer<StreamingStatistics>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Reducer#reduce(java.lang.Object,
+					 * java.lang.Object)
+					 */
+					@Override
+					public StreamingStatistics reduce(
+							StreamingStatistics first,
+							StreamingStatistics second) {
+						return first.merge(second);
+					}
+				});
 	}
 
 	/**
@@ -169,7 +365,7 @@ public class PFMImage {
 	 * @return the i'th float of the image.
 	 */
 	public float getFloat(int i) throws ArrayIndexOutOfBoundsException {
-		return floats[i];
+		return floats.get(i);
 	}
 
 	/**
@@ -184,24 +380,58 @@ public class PFMImage {
 	 */
 	public void setFloat(int i, float value)
 			throws ArrayIndexOutOfBoundsException {
-		if (value < 0) {
-			int j = i / 3;
-			int k = i % 3;
-			int x = j % width;
-			int y = j / width;
-			String color;
-			if (k == 0)
-				color = "red";
-			else if (k == 1)
-				color = "green";
-			else
-				color = "blue";
-
-			System.err.format("Warning: pixel at coordinate (%d, %d) has "
-					+ "negative value %.16f for the %s color component!", x, y,
-					value, color);
+		floats.set(i, value);
+	}
+
+	/**
+	 * Validates the floats of this image in a single pass, collecting at most
+	 * ten invalid floats.
+	 * 
+	 * @param mode
+	 *            the validation mode.
+	 * @throws NullPointerException
+	 *             when the given mode is null.
+	 * @throws IllegalStateException
+	 *             when the mode is {@link PFMValidation#FAIL_FAST} and an
+	 *             invalid float is found.
+	 * @return a report of the negative, NaN and infinite floats.
+	 */
+	public PFMValidationReport validate(PFMValidation mode)
+			throws NullPointerException, IllegalStateException {
+		return validate(mode, 10);
+	}
+
+	/**
+	 * Validates the floats of this image in a single pass.
+	 * 
+	 * @param mode
+	 *            the validation mode.
+	 * @param limit
+	 *            the maximum number of invalid floats to collect.
+	 * @throws NullPointerException
+	 *             when the given mode is null.
+	 * @throws IllegalArgumentException
+	 *             when the limit is negative.
+	 * @throws IllegalStateException
+	 *             when the mode is {@link PFMValidation#FAIL_FAST} and an
+	 *             invalid float is found.
+	 * @return a report of the negative, NaN and infinite floats.
+	 */
+	public PFMValidationReport validate(PFMValidation mode, int limit)
+			throws NullPointerException, IllegalArgumentException,
+			IllegalStateException {
+		PFMValidationReport report = new PFMValidationReport(mode, limit);
+		if (mode == PFMValidation.OFF)
+			return report;
+
+		float[] row = new float[3 * width];
+		for (int y = 0; y < height; ++y) {
+			getRow(y, row, 0);
+			for (int i = 0; i < row.length; ++i)
+				if (PFMValidationReport.isInvalid(row[i]))
+					report.record(i / 3, y, i % 3, row[i]);
 		}
-		floats[i] = value;
+		return report;
 	}
 
 	/**
@@ -210,7 +440,189 @@ public class PFMImage {
 	 * @return the number of floats in this image.
 	 */
 	public int nbOfFloats() {
-		return floats.length;
+		return floats.size();
+	}
+
+	/**
+	 * Copies the given number of floats, starting from the given index, into
+	 * the given array.
+	 * 
+	 * @param index
+	 *            the index of the first float to copy.
+	 * @param destination
+	 *            the array to copy the floats to.
+	 * @param offset
+	 *            the offset in the destination array.
+	 * @param length
+	 *            the number of floats to copy.
+	 * @throws IndexOutOfBoundsException
+	 *             when the range is out of bounds.
+	 */
+	public void getFloats(int index, float[] destination, int offset,
+			int length) throws IndexOutOfBoundsException {
+		floats.get(index, destination, offset, length);
+	}
+
+	/**
+	 * Copies the given number of floats from the given array into this image,
+	 * starting from the given index.
+	 * 
+	 * @param index
+	 *            the index of the first float to overwrite.
+	 * @param source
+	 *            the array to copy the floats from.
+	 * @param offset
+	 *            the offset in the source array.
+	 * @param length
+	 *            the number of floats to copy.
+	 * @throws IndexOutOfBoundsException
+	 *             when the range is out of bounds.
+	 */
+	public void setFloats(int index, float[] source, int offset, int length)
+			throws IndexOutOfBoundsException {
+		floats.set(index, source, offset, length);
+	}
+
+	/**
+	 * Copies the red, green and blue components of the pixels in the given
+	 * row into the given array.
+	 * 
+	 * @param y
+	 *            the row to copy.
+	 * @param destination
+	 *            the array to copy the 3*width floats to.
+	 * @param offset
+	 *            the offset in the destination array.
+	 * @throws IndexOutOfBoundsException
+	 *             when the row is out of bounds or the array is too small.
+	 */
+	public void getRow(int y, float[] destination, int offset)
+			throws IndexOutOfBoundsException {
+		if (y < 0 || y >= height)
+			throw new IndexOutOfBoundsException("row " + y);
+		floats.get(3 * y * width, destination, offset, 3 * width);
+	}
+
+	/**
+	 * Overwrites the red, green and blue components of the pixels in the given
+	 * row with the floats in the given array.
+	 * 
+	 * @param y
+	 *            the row to overwrite.
+	 * @param source
+	 *            the array containing the 3*width floats.
+	 * @param offset
+	 *            the offset in the source array.
+	 * @throws IndexOutOfBoundsException
+	 *             when the row is out of bounds or the array is too small.
+	 */
+	public void setRow(int y, float[] source, int offset)
+			throws IndexOutOfBoundsException {
+		if (y < 0 || y >= height)
+			throw new IndexOutOfBoundsException("row " + y);
+		floats.set(3 * y * width, source, offset, 3 * width);
+	}
+
+	/**
+	 * Copies the red, green and blue components of the pixels in the given
+	 * tile into the given array, row by row.
+	 * 
+	 * The tile includes its minimum and excludes its maximum coordinates.
+	 * 
+	 * @param tile
+	 *            the region to copy.
+	 * @param destination
+	 *            the array to copy the floats to.
+	 * @param offset
+	 *            the offset in the destination array.
+	 * @throws NullPointerException
+	 *             when the given tile is null.
+	 * @throws IndexOutOfBoundsException
+	 *             when the tile does not lie inside the image or the array is
+	 *             too small.
+	 */
+	public void getRegion(Tile tile, float[] destination, int offset)
+			throws NullPointerException, IndexOutOfBoundsException {
+		checkTile(tile);
+		final int length = 3 * (tile.maxX - tile.minX);
+		for (int y = tile.minY; y < tile.maxY; ++y, offset += length)
+			floats.get(3 * (y * width + tile.minX), destination, offset, length);
+	}
+
+	/**
+	 * Overwrites the red, green and blue components of the pixels in the given
+	 * tile with the floats in the given array, row by row.
+	 * 
+	 * The tile includes its minimum and excludes its maximum coordinates.
+	 * 
+	 * @param tile
+	 *            the region to overwrite.
+	 * @param source
+	 *            the array containing the floats.
+	 * @param offset
+	 *            the offset in the source array.
+	 * @throws NullPointerException
+	 *             when the given tile is null.
+	 * @throws IndexOutOfBoundsException
+	 *             when the tile does not lie inside the image or the array is
+	 *             too small.
+	 */
+	public void setRegion(Tile tile, float[] source, int offset)
+			throws NullPointerException, IndexOutOfBoundsException {
+		checkTile(tile);
+		final int length = 3 * (tile.maxX - tile.minX);
+		for (int y = tile.minY; y < tile.maxY; ++y, offset += length)
+			floats.set(3 * (y * width + tile.minX), source, offset, length);
+	}
+
+	/**
+	 * Copies a single color channel of the pixels in the given row into the
+	 * given array.
+	 * 
+	 * @param channel
+	 *            the color channel (0 = red, 1 = green, 2 = blue).
+	 * @param y
+	 *            the row to copy.
+	 * @param destination
+	 *            the array to copy the width floats to.
+	 * @param offset
+	 *            the offset in the destination array.
+	 * @param buffer
+	 *            an array of at least 3*width floats used as scratch space.
+	 * @throws IllegalArgumentException
+	 *             when the channel is not 0, 1 or 2.
+	 * @throws IndexOutOfBoundsException
+	 *             when the row is out of bounds or an array is too small.
+	 */
+	public void getChannel(int channel, int y, float[] destination,
+			int offset, float[] buffer) throws IllegalArgumentException,
+			IndexOutOfBoundsException {
+		if (channel < 0 || channel > 2)
+			throw new IllegalArgumentException(
+					"the channel must either be 0, 1 or 2!");
+		getRow(y, buffer, 0);
+		for (int x = 0, i = channel; x < width; ++x, i += 3)
+			destination[offset + x] = buffer[i];
+	}
+
+	/**
+	 * Checks whether the given tile lies inside the image.
+	 * 
+	 * @param tile
+	 *            the tile to check.
+	 * @throws NullPointerException
+	 *             when the given tile is null.
+	 * @throws IndexOutOfBoundsException
+	 *             when the tile does not lie inside the image.
+	 */
+	private void checkTile(Tile tile) throws NullPointerException,
+			IndexOutOfBoundsException {
+		if (tile == null)
+			throw new NullPointerException("the given tile is null!");
+		if (tile.minX < 0 || tile.minY < 0 || tile.maxX > width
+				|| tile.maxY > height)
+			throw new IndexOutOfBoundsException("the tile " + tile
+					+ " does not lie inside the image!");
 	}
 
 	/**
@@ -230,8 +642,27 @@ public class PFMImage {
 	 *         the specified pixel in the image.
 	 */
 	public float[] getColorAt(int x, int y) {
-		final int o = 3 * (y * width + x);
-		return Arrays.copyOfRange(floats, o, o + 3);
+		return getColorAt(x, y, new float[3]);
+	}
+
+	/**
+	 * Copies the red, green and blue color channel at the specified pixel in
+	 * the image into the given array.
+	 * 
+	 * @param x
+	 *            x position in the image.
+	 * @param y
+	 *            y position in the image.
+	 * @param destination
+	 *            the array of at least length 3 to copy the color to.
+	 * @throws IndexOutOfBoundsException
+	 *             when the given pixel coordinates are out of range.
+	 * @return the given array.
+	 */
+	public float[] getColorAt(int x, int y, float[] destination)
+			throws IndexOutOfBoundsException {
+		floats.get(3 * (y * width + x), destination, 0, 3);
+		return destination;
 	}
 
 	/**
@@ -274,21 +705,7 @@ public class PFMImage {
 	 * @return a Buffered Image representation of this image.
 	 */
 	public BufferedImage toBufferedImage(double gamma) {
-		BufferedImage result = new BufferedImage(width, height,
-				BufferedImage.TYPE_INT_ARGB);
-
-		int[] rgba = new int[] { 0, 0, 0, 255 };
-
-		for (int i = 0; i < width * height; ++i) {
-			rgba[0] = toInt(getFloat(3 * i), gamma);
-			rgba[1] = toInt(getFloat(3 * i + 1), gamma);
-			rgba[2] = toInt(getFloat(3 * i + 2), gamma);
-			result.getRaster()
-					.setPixel(i % width, height - 1 - i / width, rgba);
-
-		}
-
-		return result;
+		return new PFMToneMapper(gamma).toBufferedImage(this);
 	}
 
 	/**
@@ -308,17 +725,17 @@ public class PFMImage {
 		double min = Double.POSITIVE_INFINITY;
 		double max = Double.NEGATIVE_INFINITY;
 		for (int i = 0; i < width * height; ++i) {
-			floats[i] = (float) Math.pow(floats[i], gamma);
-			if (floats[i] < min)
-				min = floats[i];
-			if (floats[i] > max)
-				max = floats[i];
+			floats.set(i, (float) Math.pow(floats.get(i), gamma));
+			if (floats.get(i) < min)
+				min = floats.get(i);
+			if (floats.get(i) > max)
+				max = floats.get(i);
 		}
 
 		float[] f = new float[nbOfFloats()];
 		double inv_range = 1.0 / (max - min);
 		for (int i = 0; i < width * height; ++i)
-			f[i] = (float) ((floats[i] - min) * inv_range);
+			f[i] = (float) ((floats.get(i) - min) * inv_range);
 
 		for (int i = 0; i < width * height; ++i) {
 			rgba[0] = clamp((int) (255.f * f[3 * i]), 0, 255);
@@ -442,4 +859,4 @@ public class PFMImage {
 		BufferedImage image = toBufferedImage(gamma);
 		ImageIO.write(image, extension, file);
 	}
-}
\ No newline at end of file
+}
@@ -1,14 +1,23 @@
 package pfm;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Implementation of a class capable of reading Portable Float Map images.
  * 
+ * The pixel data is read in large chunks through a single channel. Images
+ * can also be memory mapped instead of being copied onto the heap, in which
+ * case they are copied on the first modification.
+ * 
  * @author Niels Billen
  * @version 1.0
  * 
@@ -37,6 +46,16 @@ import java.nio.ByteOrder;
  *          POSSIBILITY OF SUCH DAMAGE.
  */
 public class PFMReader {
+	/**
+	 * The maximum number of bytes the header of a Portable Float Map can span.
+	 */
+	private static final int MAX_HEADER_SIZE = 256;
+
+	/**
+	 * The size in bytes of the buffer through which the pixels are read.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
 	/**
 	 * Reads a Portable Float Map from the file specified by the given filename.
 	 * 
@@ -51,7 +70,9 @@ public class PFMReader {
 	}
 
 	/**
-	 * Reads a Portable Float Map from the given file.
+	 * Reads a Portable Float Map from the given file. The pixels are copied
+	 * onto the heap, so the returned image does not depend on the file
+	 * afterwards.
 	 * 
 	 * @param file
 	 *            file to read the Portable Float Map from.
@@ -60,88 +81,233 @@ public class PFMReader {
 	 * @return an object containing the Portable Float Map image.
 	 */
 	public static PFMImage read(File file) throws IOException {
-		FileInputStream reader = new FileInputStream(file);
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			PFMHeader header = readHeader(channel, file);
 
-		int lines = 0;
+			final ByteOrder order = header.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN
+					: ByteOrder.BIG_ENDIAN;
+			final int floatsPerPixel = header.channels;
+			final int pixelsPerChunk = Math.max(1, BUFFER_SIZE
+					/ (floatsPerPixel * Float.BYTES));
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(
+					pixelsPerChunk * floatsPerPixel * Float.BYTES).order(order);
+			final float inv_scale = 1.f / Math.abs(header.scale);
+			final int resolution = header.width * header.height;
+			final float[] result = new float[3 * resolution];
+
+			long position = header.offset;
+			for (int start = 0; start < resolution; start += pixelsPerChunk) {
+				final int pixels = Math.min(pixelsPerChunk, resolution - start);
+				buffer.clear();
+				buffer.limit(pixels * floatsPerPixel * Float.BYTES);
+				while (buffer.hasRemaining()) {
+					int read = channel.read(buffer, position);
+					if (read < 0)
+						throw new EOFException("the file \"" + file
+								+ "\" does not contain all the pixel data!");
+					position += read;
+				}
+				buffer.flip();
+
+				FloatBuffer floats = buffer.asFloatBuffer();
+				if (floatsPerPixel == 3)
+					floats.get(result, 3 * start, 3 * pixels);
+				else
+					for (int i = start; i < start + pixels; ++i)
+						result[3 * i] = result[3 * i + 1] = result[3 * i + 2] = floats
+								.get();
+			}
+
+			if (inv_scale != 1.f)
+				for (int i = 0; i < result.length; ++i)
+					result[i] *= inv_scale;
+
+			return new PFMImage(header.width, header.height,
+					PFMStorage.wrap(result));
+		}
+	}
+
+	/**
+	 * Maps the Portable Float Map in the given file into memory instead of
+	 * copying it onto the heap.
+	 * 
+	 * The pixels are paged in lazily by the operating system when they are
+	 * first accessed.
+	 * 
+	 * @param file
+	 *            file to map the Portable Float Map from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image.
+	 * @see #map(File, boolean)
+	 */
+	public static PFMImage map(File file) throws IOException {
+		return map(file, true);
+	}
+
+	/**
+	 * Maps the Portable Float Map in the given file into memory instead of
+	 * copying it onto the heap.
+	 * 
+	 * The mapping is read only: the pixels are copied onto the heap the first
+	 * time the image is modified, so the file on disk is never changed. The
+	 * file must not be truncated or rewritten in place while the image is in
+	 * use. Grayscale and scaled images are always copied onto the heap, since
+	 * their pixels have to be converted.
+	 * 
+	 * @param file
+	 *            file to map the Portable Float Map from.
+	 * @param lazy
+	 *            whether the pixels should be paged in lazily when they are
+	 *            first accessed, or loaded into physical memory before
+	 *            returning.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return an object containing the Portable Float Map image.
+	 */
+	public static PFMImage map(File file, boolean lazy) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			PFMHeader header = readHeader(channel, file);
+			if (header.isGray() || Math.abs(header.scale) != 1.f)
+				return read(file);
+
+			MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY,
+					header.offset, header.dataSize());
+			if (!lazy)
+				mapped.load();
+
+			mapped.order(header.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN
+					: ByteOrder.BIG_ENDIAN);
+			return new PFMImage(header.width, header.height,
+					PFMStorage.wrapMapped(mapped));
+		}
+	}
+
+	/**
+	 * Reads the header at the start of the given channel and checks whether
+	 * the channel contains all the pixel data.
+	 * 
+	 * @param channel
+	 *            the channel to read the header from.
+	 * @param file
+	 *            the file of the channel.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file or
+	 *             the file does not contain all the pixel data.
+	 * @return the header of the Portable Float Map.
+	 */
+	private static PFMHeader readHeader(FileChannel channel, File file)
+			throws IOException {
+		PFMHeader header = readHeader(channel);
+		if (channel.size() < header.offset + header.dataSize())
+			throw new EOFException("the file \"" + file
+					+ "\" does not contain all the pixel data!");
+		return header;
+	}
+
+	/**
+	 * Reads the header of the Portable Float Map specified by the given
+	 * filename without reading any of the pixels.
+	 * 
+	 * @param filename
+	 *            name of the file to read the header from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return the header of the Portable Float Map.
+	 */
+	public static PFMHeader readHeader(String filename) throws IOException {
+		return readHeader(new File(filename));
+	}
+
+	/**
+	 * Reads the header of the given Portable Float Map without reading any of
+	 * the pixels.
+	 * 
+	 * @param file
+	 *            file to read the header from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @return the header of the Portable Float Map.
+	 */
+	public static PFMHeader readHeader(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			return readHeader(channel);
+		}
+	}
+
+	/**
+	 * Reads the header at the start of the given channel.
+	 * 
+	 * @param channel
+	 *            the channel to read the header from.
+	 * @throws IOException
+	 *             when an exception occurs during the reading of the file.
+	 * @throws IllegalArgumentException
+	 *             when the header is not a valid Portable Float Map header.
+	 * @return the header of the Portable Float Map.
+	 */
+	private static PFMHeader readHeader(FileChannel channel)
+			throws IOException, IllegalArgumentException {
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, buffer.position()) <= 0)
+				break;
+		buffer.flip();
 
 		/*****************************************************
 		 * Read the header
 		 *****************************************************/
-		String[] header = new String[] { "", "", "" };
+
+		StringBuilder[] header = new StringBuilder[] { new StringBuilder(),
+				new StringBuilder(), new StringBuilder() };
+		int lines = 0;
 
 		while (lines < 3) {
-			char c = (char) reader.read();
+			if (!buffer.hasRemaining())
+				throw new IllegalArgumentException(
+						"header does not contain a valid PFM format!");
+			char c = (char) buffer.get();
 			if (c == '\n')
 				++lines;
 			else
-				header[lines] += c;
+				header[lines].append(c);
 		}
 
 		/*****************************************************
 		 * Parse the header
 		 *****************************************************/
 
-		boolean gray;
-		if (header[0].contains("Pf"))
-			gray = true;
-		else if (header[0].contains("PF"))
-			gray = false;
-		else {
-			reader.close();
+		int channels;
+		if (header[0].indexOf("Pf") >= 0)
+			channels = 1;
+		else if (header[0].indexOf("PF") >= 0)
+			channels = 3;
+		else
 			throw new IllegalArgumentException(
 					"header does not contain a valid PFM format!");
-		}
 
-		int width = -1, height = -1;
-		String[] dimension = header[1].split(" ");
+		int width, height;
+		String[] dimension = header[1].toString().trim().split(" +");
 		try {
 			width = Integer.parseInt(dimension[0]);
 			height = Integer.parseInt(dimension[1]);
-		} catch (NumberFormatException e) {
-			reader.close();
-			throw new IllegalArgumentException(
-					"header does not contain a valid size!");
-		} catch (ArrayIndexOutOfBoundsException e) {
-			reader.close();
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
 			throw new IllegalArgumentException(
 					"header does not contain a valid size!");
 		}
-		if (width < 0 || height < 0) {
-			reader.close();
-			throw new IllegalArgumentException(
-					"header does not contain a valid size!");
-		}
-		float scale = -1;
+
+		float scale;
 		try {
-			scale = Float.parseFloat(header[2]);
+			scale = Float.parseFloat(header[2].toString().trim());
 		} catch (NumberFormatException e) {
-			reader.close();
 			throw new IllegalArgumentException(
 					"header does not contain a valid scale!");
 		}
-		float inv_scale = 1.f / Math.abs(scale);
-		boolean littleEndian = scale < 0;
-
-		/********************************************************
-		 * Read the data
-		 ********************************************************/
-
-		int samples = (gray ? 1 : 3);
-		int size = width * height * samples * Float.BYTES;
-		byte[] bytes = new byte[size];
-		int read, offset = 0;
-
-		while ((read = reader.read(bytes, offset, size - offset)) > 0)
-			offset += read;
-
-		reader.close();
-
-		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(
-				littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-		float[] floats = new float[samples * width * height];
-		for (int i = 0; i < samples * width * height; ++i)
-			floats[i] = buffer.getFloat() * inv_scale;
 
-		return new PFMImage(width, height, floats);
+		return new PFMHeader(width, height, channels, scale,
+				buffer.position());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,719 @@
+package pfm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * The storage for the floats of a Portable Float Map image.
+ * 
+ * The floats can either be stored in an array on the heap, in a direct buffer
+ * outside of the heap or in a memory mapped file which is paged in and out by
+ * the operating system.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public abstract class PFMStorage {
+	/**
+	 * The number of floats processed at once by the default implementations
+	 * of the bulk operations.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * The different kinds of storage.
+	 */
+	public static enum Type {
+		/**
+		 * The floats are stored in an array on the heap.
+		 */
+		HEAP,
+
+		/**
+		 * The floats are stored in a direct buffer outside of the heap.
+		 */
+		DIRECT,
+
+		/**
+		 * The floats are stored in a temporary memory mapped file.
+		 */
+		MAPPED
+	}
+
+	/**
+	 * Returns the number of floats in the storage.
+	 * 
+	 * @return the number of floats in the storage.
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the i'th float of the storage.
+	 * 
+	 * @param i
+	 *            the index of the float.
+	 * @throws IndexOutOfBoundsException
+	 *             when the given index is out of bounds.
+	 * @return the i'th float of the storage.
+	 */
+	public abstract float get(int i) throws IndexOutOfBoundsException;
+
+	/**
+	 * Sets the i'th float of the storage.
+	 * 
+	 * @param i
+	 *            the index of the float.
+	 * @param value
+	 *            the new value of the float.
+	 * @throws IndexOutOfBoundsException
+	 *             when the given index is out of bounds.
+	 */
+	public abstract void set(int i, float value)
+			throws IndexOutOfBoundsException;
+
+	/**
+	 * Copies the given number of floats, starting from the given index, into
+	 * the given array.
+	 * 
+	 * @param index
+	 *            the index of the first float to copy.
+	 * @param destination
+	 *            the array to copy the floats to.
+	 * @param offset
+	 *            the offset in the destination array.
+	 * @param length
+	 *            the number of floats to copy.
+	 * @throws IndexOutOfBoundsException
+	 *             when the range is out of bounds for the storage or the
+	 *             array.
+	 */
+	public abstract void get(int index, float[] destination, int offset,
+			int length) throws IndexOutOfBoundsException;
+
+	/**
+	 * Copies the given number of floats from the given array into this
+	 * storage, starting from the given index.
+	 * 
+	 * @param index
+	 *            the index of the first float to overwrite.
+	 * @param source
+	 *            the array to copy the floats from.
+	 * @param offset
+	 *            the offset in the source array.
+	 * @param length
+	 *            the number of floats to copy.
+	 * @throws IndexOutOfBoundsException
+	 *             when the range is out of bounds for the storage or the
+	 *             array.
+	 */
+	public abstract void set(int index, float[] source, int offset, int length)
+			throws IndexOutOfBoundsException;
+
+	/**
+	 * Multiplies all the floats in this storage with the given factor.
+	 * 
+	 * @param factor
+	 *            the factor to multiply with.
+	 */
+	public void scale(float factor) {
+		final int n = size();
+		final float[] chunk = new float[Math.min(n, CHUNK_SIZE)];
+
+		for (int start = 0; start < n; start += chunk.length) {
+			final int length = Math.min(chunk.length, n - start);
+			get(start, chunk, 0, length);
+			for (int i = 0; i < length; ++i)
+				chunk[i] *= factor;
+			set(start, chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Adds the floats of the given storage, multiplied by the given factor,
+	 * to the floats of this storage.
+	 * 
+	 * @param other
+	 *            the storage to add.
+	 * @param factor
+	 *            the factor to multiply the floats of the other storage with.
+	 * @throws NullPointerException
+	 *             when the given storage is null.
+	 * @throws IllegalArgumentException
+	 *             when the sizes of the storages do not match.
+	 */
+	public void add(PFMStorage other, float factor)
+			throws NullPointerException, IllegalArgumentException {
+		if (other == null)
+			throw new NullPointerException("the given storage is null!");
+		if (other.size() != size())
+			throw new IllegalArgumentException(
+					"the sizes of the storages do not match!");
+
+		final int n = size();
+		final float[] chunk = new float[Math.min(n, CHUNK_SIZE)];
+		final float[] otherChunk = new float[chunk.length];
+
+		for (int start = 0; start < n; start += chunk.length) {
+			final int length = Math.min(chunk.length, n - start);
+			get(start, chunk, 0, length);
+			other.get(start, otherChunk, 0, length);
+			for (int i = 0; i < length; ++i)
+				chunk[i] += factor * otherChunk[i];
+			set(start, chunk, 0, length);
+		}
+	}
+
+	/**
+	 * Returns the kind of this storage.
+	 * 
+	 * @return the kind of this storage.
+	 */
+	public abstract Type getType();
+
+	/**
+	 * Returns a view of the raw bytes of this storage, or null when the floats
+	 * are not backed by a byte buffer. The view has the byte order in which
+	 * the floats are stored and can be written to a channel without copying
+	 * the floats.
+	 * 
+	 * @return a view of the raw bytes of this storage or null.
+	 */
+	ByteBuffer getBytes() {
+		return null;
+	}
+
+	/**
+	 * Allocates a new storage of the given kind with the given number of
+	 * floats, all initialized to zero.
+	 * 
+	 * @param type
+	 *            the kind of storage to allocate.
+	 * @param size
+	 *            the number of floats.
+	 * @throws NullPointerException
+	 *             when the given type is null.
+	 * @throws IllegalArgumentException
+	 *             when the size is negative.
+	 * @throws IllegalStateException
+	 *             when the temporary file for a mapped storage could not be
+	 *             allocated.
+	 * @return a new storage of the given kind.
+	 */
+	public static PFMStorage allocate(Type type, int size)
+			throws NullPointerException, IllegalArgumentException,
+			IllegalStateException {
+		if (type == null)
+			throw new NullPointerException("the given storage type is null!");
+		if (size < 0)
+			throw new IllegalArgumentException("the size cannot be negative!");
+
+		switch (type) {
+		case DIRECT:
+			return new BufferStorage(ByteBuffer.allocateDirect(
+					size * Float.BYTES).order(ByteOrder.nativeOrder()),
+					Type.DIRECT);
+		case MAPPED:
+			try {
+				File file = File.createTempFile("pfm-", ".raw");
+				try {
+					return map(file, size);
+				} finally {
+					// the mapping stays valid without the file, which is
+					// kept until exit where a mapped file cannot be deleted
+					if (!file.delete())
+						file.deleteOnExit();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(
+						"could not allocate a temporary file for the image!",
+						e);
+			}
+		default:
+			return wrap(new float[size]);
+		}
+	}
+
+	/**
+	 * Maps the given file into memory as a storage with the given number of
+	 * floats. The file is grown when it is too small. Changes to the storage
+	 * are written back to the file.
+	 * 
+	 * @param file
+	 *            the file to map.
+	 * @param size
+	 *            the number of floats.
+	 * @throws IOException
+	 *             when the file could not be mapped.
+	 * @return a storage backed by the given file.
+	 */
+	public static PFMStorage map(File file, int size) throws IOException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+
+		final long bytes = (long) size * Float.BYTES;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				FileChannel channel = raf.getChannel()) {
+			if (raf.length() < bytes)
+				raf.setLength(bytes);
+			ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, bytes)
+					.order(ByteOrder.nativeOrder());
+			return new BufferStorage(buffer, Type.MAPPED);
+		}
+	}
+
+	/**
+	 * Returns a storage which is backed by the given array.
+	 * 
+	 * @param floats
+	 *            the array containing the floats.
+	 * @throws NullPointerException
+	 *             when the given array is null.
+	 * @return a storage backed by the given array.
+	 */
+	public static PFMStorage wrap(float[] floats) throws NullPointerException {
+		if (floats == null)
+			throw new NullPointerException("the given float array is null!");
+		return new ArrayStorage(floats);
+	}
+
+	/**
+	 * Returns a storage which is backed by the remaining floats in the given
+	 * buffer.
+	 * 
+	 * @param buffer
+	 *            the buffer containing the floats.
+	 * @throws NullPointerException
+	 *             when the given buffer is null.
+	 * @return a storage backed by the given buffer.
+	 */
+	public static PFMStorage wrap(FloatBuffer buffer)
+			throws NullPointerException {
+		if (buffer == null)
+			throw new NullPointerException("the given float buffer is null!");
+		if (buffer.hasArray())
+			return new ArrayStorage(buffer.array(), buffer.arrayOffset()
+					+ buffer.position(), buffer.remaining());
+		return new BufferStorage(buffer.slice(),
+				buffer.isDirect() ? Type.DIRECT : Type.HEAP);
+	}
+
+	/**
+	 * Returns a storage which is backed by the remaining bytes of the given
+	 * memory mapped file, interpreted in the byte order of the buffer. The
+	 * floats are copied onto the heap the first time they are modified, so
+	 * the buffer may be read only.
+	 * 
+	 * @param buffer
+	 *            the memory mapped file.
+	 * @return a storage backed by the given buffer.
+	 */
+	static PFMStorage wrapMapped(ByteBuffer buffer) {
+		return new CopyOnWriteStorage(new BufferStorage(buffer.slice().order(
+				buffer.order()), Type.MAPPED));
+	}
+
+	/**
+	 * Storage backed by an array on the heap.
+	 */
+	private static final class ArrayStorage extends PFMStorage {
+		private final float[] floats;
+		private final int offset;
+		private final int size;
+
+		/**
+		 * 
+		 * @param floats
+		 */
+		public ArrayStorage(float[] floats) {
+			this(floats, 0, floats.length);
+		}
+
+		/**
+		 * 
+		 * @param floats
+		 * @param offset
+		 * @param size
+		 */
+		public ArrayStorage(float[] floats, int offset, int size) {
+			this.floats = floats;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#size()
+		 */
+		@Override
+		public int size() {
+			return size;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int)
+		 */
+		@Override
+		public float get(int i) {
+			if (i < 0 || i >= size)
+				throw new IndexOutOfBoundsException(Integer.toString(i));
+			return floats[offset + i];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float)
+		 */
+		@Override
+		public void set(int i, float value) {
+			if (i < 0 || i >= size)
+				throw new IndexOutOfBoundsException(Integer.toString(i));
+			floats[offset + i] = value;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int, float[], int, int)
+		 */
+		@Override
+		public void get(int index, float[] destination, int offset, int length) {
+			if (index < 0 || length < 0 || index + length > size)
+				throw new IndexOutOfBoundsException(index + "+" + length);
+			System.arraycopy(floats, this.offset + index, destination, offset,
+					length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float[], int, int)
+		 */
+		@Override
+		public void set(int index, float[] source, int offset, int length) {
+			if (index < 0 || length < 0 || index + length > size)
+				throw new IndexOutOfBoundsException(index + "+" + length);
+			System.arraycopy(source, offset, floats, this.offset + index,
+					length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#scale(float)
+		 */
+		@Override
+		public void scale(float factor) {
+			final float[] f = floats;
+			final int end = offset + size;
+			for (int i = offset; i < end; ++i)
+				f[i] *= factor;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#add(pfm.PFMStorage, float)
+		 */
+		@Override
+		public void add(PFMStorage other, float factor) {
+			if (!(other instanceof ArrayStorage)) {
+				super.add(other, factor);
+				return;
+			}
+			if (other.size() != size)
+				throw new IllegalArgumentException(
+						"the sizes of the storages do not match!");
+
+			final ArrayStorage o = (ArrayStorage) other;
+			final float[] f = floats;
+			final float[] g = o.floats;
+			final int delta = o.offset - offset;
+			final int end = offset + size;
+			for (int i = offset; i < end; ++i)
+				f[i] += factor * g[i + delta];
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#getType()
+		 */
+		@Override
+		public Type getType() {
+			return Type.HEAP;
+		}
+	}
+
+	/**
+	 * Storage backed by a direct or memory mapped buffer.
+	 */
+	private static final class BufferStorage extends PFMStorage {
+		private final FloatBuffer floats;
+		private final ByteBuffer bytes;
+		private final Type type;
+
+		/**
+		 * 
+		 * @param floats
+		 * @param type
+		 */
+		public BufferStorage(FloatBuffer floats, Type type) {
+			this.floats = floats;
+			this.bytes = null;
+			this.type = type;
+		}
+
+		/**
+		 * 
+		 * @param bytes
+		 * @param type
+		 */
+		public BufferStorage(ByteBuffer bytes, Type type) {
+			this.floats = bytes.asFloatBuffer();
+			this.bytes = bytes;
+			this.type = type;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#size()
+		 */
+		@Override
+		public int size() {
+			return floats.capacity();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int)
+		 */
+		@Override
+		public float get(int i) {
+			return floats.get(i);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float)
+		 */
+		@Override
+		public void set(int i, float value) {
+			floats.put(i, value);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int, float[], int, int)
+		 */
+		@Override
+		public void get(int index, float[] destination, int offset, int length) {
+			if (index < 0 || length < 0 || index + length > size())
+				throw new IndexOutOfBoundsException(index + "+" + length);
+			FloatBuffer view = floats.duplicate();
+			view.position(index);
+			view.get(destination, offset, length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float[], int, int)
+		 */
+		@Override
+		public void set(int index, float[] source, int offset, int length) {
+			if (index < 0 || length < 0 || index + length > size())
+				throw new IndexOutOfBoundsException(index + "+" + length);
+			FloatBuffer view = floats.duplicate();
+			view.position(index);
+			view.put(source, offset, length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#getType()
+		 */
+		@Override
+		public Type getType() {
+			return type;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#getBytes()
+		 */
+		@Override
+		ByteBuffer getBytes() {
+			if (bytes == null)
+				return null;
+			return bytes.duplicate().order(bytes.order());
+		}
+	}
+
+	/**
+	 * Storage which reads from another storage until it is first modified,
+	 * at which point the floats are copied onto the heap. The floats are
+	 * copied once, also when several threads modify the storage at the same
+	 * time.
+	 */
+	private static final class CopyOnWriteStorage extends PFMStorage {
+		private volatile PFMStorage storage;
+		private volatile boolean copied = false;
+
+		/**
+		 * 
+		 * @param storage
+		 */
+		public CopyOnWriteStorage(PFMStorage storage) {
+			this.storage = storage;
+		}
+
+		/**
+		 * Returns the storage which can be modified, copying the floats onto
+		 * the heap when this is the first modification.
+		 * 
+		 * @return the storage which can be modified.
+		 */
+		private PFMStorage writable() {
+			if (!copied)
+				synchronized (this) {
+					if (!copied) {
+						float[] floats = new float[storage.size()];
+						storage.get(0, floats, 0, floats.length);
+						storage = new ArrayStorage(floats);
+						copied = true;
+					}
+				}
+			return storage;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#size()
+		 */
+		@Override
+		public int size() {
+			return storage.size();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int)
+		 */
+		@Override
+		public float get(int i) {
+			return storage.get(i);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float)
+		 */
+		@Override
+		public void set(int i, float value) {
+			writable().set(i, value);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#get(int, float[], int, int)
+		 */
+		@Override
+		public void get(int index, float[] destination, int offset, int length) {
+			storage.get(index, destination, offset, length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#set(int, float[], int, int)
+		 */
+		@Override
+		public void set(int index, float[] source, int offset, int length) {
+			writable().set(index, source, offset, length);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#scale(float)
+		 */
+		@Override
+		public void scale(float factor) {
+			writable().scale(factor);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#add(pfm.PFMStorage, float)
+		 */
+		@Override
+		public void add(PFMStorage other, float factor) {
+			writable().add(other, factor);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#getType()
+		 */
+		@Override
+		public Type getType() {
+			return storage.getType();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see pfm.PFMStorage#getBytes()
+		 */
+		@Override
+		ByteBuffer getBytes() {
+			return storage.getBytes();
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package pfm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import core.Tile;
+
+/**
+ * Executes operations on Portable Float Map images in parallel, one tile at a
+ * time, on the common fork-join pool.
+ * 
+ * The partitioning of an image into tiles only depends on its size and the
+ * partial results are returned in tile order, so reductions over them give
+ * the same result regardless of the number of threads.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+class PFMTiles {
+	/**
+	 * The size of the tiles in pixels.
+	 */
+	static final int TILE_SIZE = 64;
+
+	/**
+	 * An operation on a single tile of an image.
+	 * 
+	 * @param <T>
+	 *            the type of the partial result of a tile.
+	 */
+	static interface Kernel<T> {
+		/**
+		 * Applies the operation on the given tile.
+		 * 
+		 * @param tile
+		 *            the tile to process.
+		 * @return the partial result of the tile.
+		 */
+		public T apply(Tile tile);
+	}
+
+	/**
+	 * Combines the partial results of two groups of tiles.
+	 * 
+	 * @param <T>
+	 *            the type of the partial results.
+	 */
+	static interface Reducer<T> {
+		/**
+		 * Combines the given partial results.
+		 * 
+		 * @param first
+		 *            the partial result of the first group of tiles.
+		 * @param second
+		 *            the partial result of the second group of tiles.
+		 * @return the combined partial result.
+		 */
+		public T reduce(T first, T second);
+	}
+
+	/**
+	 * Applies the given kernel on all the tiles of an image with the given
+	 * size in parallel.
+	 * 
+	 * @param width
+	 *            the width of the image.
+	 * @param height
+	 *            the height of the image.
+	 * @param kernel
+	 *            the operation to apply.
+	 * @return the partial results, in the order of the tiles.
+	 */
+	static <T> List<T> map(int width, int height, Kernel<T> kernel) {
+		return map(Tile.split(width, height, TILE_SIZE, TILE_SIZE), kernel);
+	}
+
+	/**
+	 * Applies the given kernel on all the given tiles in parallel.
+	 * 
+	 * @param tiles
+	 *            the tiles to apply the kernel on.
+	 * @param kernel
+	 *            the operation to apply.
+	 * @return the partial results, in the order of the tiles.
+	 */
+	static <T> List<T> map(List<Tile> tiles, Kernel<T> kernel) {
+		Object[] results = new Object[tiles.size()];
+
+		if (results.length > 0)
+			ForkJoinPool.commonPool().invoke(
+					new TileAction<T>(tiles, kernel, results, 0,
+							results.length));
+
+		@SuppressWarnings("unchecked")
+		List<T> result = (List<T>) new ArrayList<Object>(Arrays.asList(results));
+		return result;
+	}
+
+	/**
+	 * Applies the given kernel on all the tiles of an image with the given
+	 * size in parallel and combines the partial results pairwise in tile
+	 * order.
+	 * 
+	 * @param width
+	 *            the width of the image.
+	 * @param height
+	 *            the height of the image.
+	 * @param kernel
+	 *            the operation to apply.
+	 * @param reducer
+	 *            combines the partial results.
+	 * @return the combined result of all the tiles.
+	 */
+	static <T> T reduce(int width, int height, Kernel<T> kernel,
+			Reducer<T> reducer) {
+		List<T> partials = map(width, height, kernel);
+		return reduce(partials, 0, partials.size(), reducer);
+	}
+
+	/**
+	 * Combines the partial results in the given range pairwise.
+	 * 
+	 * @param partials
+	 *            the partial results.
+	 * @param start
+	 *            the first partial result (inclusive).
+	 * @param end
+	 *            the last partial result (exclusive).
+	 * @param reducer
+	 *            combines the partial results.
+	 * @return the combined partial result.
+	 */
+	private static <T> T reduce(List<T> partials, int start, int end,
+			Reducer<T> reducer) {
+		if (end - start == 1)
+			return partials.get(start);
+		int middle = (start + end) >>> 1;
+		return reducer.reduce(reduce(partials, start, middle, reducer),
+				reduce(partials, middle, end, reducer));
+	}
+
+	/**
+	 * Applies a kernel on a range of tiles, splitting the range in halves
+	 * until a single tile remains.
+	 * 
+	 * @param <T>
+	 *            the type of the partial result of a tile.
+	 */
+	private static class TileAction<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<Tile> tiles;
+		private final Kernel<T> kernel;
+		private final Object[] results;
+		private final int start;
+		private final int end;
+
+		/**
+		 * 
+		 * @param tiles
+		 * @param kernel
+		 * @param results
+		 * @param start
+		 * @param end
+		 */
+		public TileAction(List<Tile> tiles, Kernel<T> kernel,
+				Object[] results, int start, int end) {
+			this.tiles = tiles;
+			this.kernel = kernel;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute() {
+			if (end - start == 1) {
+				results[start] = kernel.apply(tiles.get(start));
+				return;
+			}
+
+			final int middle = (start + end) >>> 1;
+			invokeAll(
+					new TileAction<T>(tiles, kernel, results, start, middle),
+					new TileAction<T>(tiles, kernel, results, middle, end));
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package pfm;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
+
+import core.Tile;
+
+/**
+ * Converts Portable Float Map images to 8-bit BufferedImages.
+ * 
+ * The gamma correction is looked up in a precomputed table instead of being
+ * evaluated for every component. The packed pixels are written straight into
+ * the data buffer of the image, several rows at a time in parallel. Images
+ * can be reduced to thumbnails in the same pass by averaging square blocks
+ * of pixels.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMToneMapper {
+	/**
+	 * The number of entries in the gamma lookup table.
+	 */
+	public static final int LUT_SIZE = 4096;
+
+	/**
+	 * The number of rows of the resulting image converted by a single task.
+	 */
+	private static final int ROWS_PER_TASK = 16;
+
+	/**
+	 * The gamma correction factor.
+	 */
+	public final double gamma;
+
+	/**
+	 * The gamma corrected 8-bit values of LUT_SIZE floats between zero and
+	 * one. The table is indexed by the square root of the float, which spends
+	 * more entries on dark values where the gamma curve is steep.
+	 */
+	private final int[] lut = new int[LUT_SIZE];
+
+	/**
+	 * Creates a new tone mapper with the given gamma correction factor.
+	 * 
+	 * @param gamma
+	 *            The gamma correction factor.
+	 * @throws IllegalArgumentException
+	 *             when the gamma is not strictly positive.
+	 */
+	public PFMToneMapper(double gamma) throws IllegalArgumentException {
+		if (!(gamma > 0))
+			throw new IllegalArgumentException(
+					"the gamma must be strictly positive!");
+		this.gamma = gamma;
+		for (int i = 0; i < LUT_SIZE; ++i) {
+			final double t = i / (double) (LUT_SIZE - 1);
+			lut[i] = PFMImage.toInt(t * t, gamma);
+		}
+	}
+
+	/**
+	 * Returns the gamma corrected 8-bit value of the given float.
+	 * 
+	 * @param f
+	 *            the float within the range [-Infinity,Infinity].
+	 * @return the gamma corrected value within the range [0,255].
+	 */
+	public int toInt(double f) {
+		if (f <= 0.0 || Double.isNaN(f))
+			return 0;
+		else if (f >= 1.0)
+			return 255;
+		else
+			return lut[(int) (Math.sqrt(f) * (LUT_SIZE - 1) + 0.5)];
+	}
+
+	/**
+	 * Converts the given image to a BufferedImage of the same size.
+	 * 
+	 * @param image
+	 *            the image to convert.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @return a Buffered Image representation of the given image.
+	 */
+	public BufferedImage toBufferedImage(PFMImage image)
+			throws NullPointerException {
+		return toBufferedImage(image, 1);
+	}
+
+	/**
+	 * Converts the given image to a thumbnail whose largest side is at most
+	 * the given size. Images which are already small enough keep their size.
+	 * 
+	 * @param image
+	 *            the image to convert.
+	 * @param size
+	 *            the maximum width and height of the thumbnail.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the given size is not strictly positive.
+	 * @return a thumbnail of the given image.
+	 */
+	public BufferedImage toThumbnail(PFMImage image, int size)
+			throws NullPointerException, IllegalArgumentException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		if (size <= 0)
+			throw new IllegalArgumentException(
+					"the size of the thumbnail must be strictly positive!");
+		final int largest = Math.max(image.width, image.height);
+		return toBufferedImage(image, (largest + size - 1) / size);
+	}
+
+	/**
+	 * Converts the given image to a BufferedImage which is the given factor
+	 * smaller in both directions. Every pixel of the result is the average of
+	 * a block of factor x factor pixels, which is clipped at the borders of
+	 * the image.
+	 * 
+	 * @param image
+	 *            the image to convert.
+	 * @param factor
+	 *            the downsampling factor.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the given factor is not strictly positive.
+	 * @return a downsampled Buffered Image representation of the given image.
+	 */
+	public BufferedImage toBufferedImage(final PFMImage image, final int factor)
+			throws NullPointerException, IllegalArgumentException {
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		if (factor <= 0)
+			throw new IllegalArgumentException(
+					"the downsampling factor must be strictly positive!");
+
+		final int width = (image.width + factor - 1) / factor;
+		final int height = (image.height + factor - 1) / factor;
+		final BufferedImage result = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		final int[] pixels = ((DataBufferInt) result.getRaster()
+				.getDataBuffer()).getData();
+
+		List<Tile> bands = Tile.split(width, height, width, ROWS_PER_TASK);
+		PFMTiles.map(bands, new PFMTiles.Kernel<Void>() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+			 */
+			@Override
+			public Void apply(Tile band) {
+				final float[] row = new float[3 * image.width];
+				final double[] sums = new double[3 * width];
+
+				for (int y = band.minY; y < band.maxY; ++y) {
+					final int firstRow = y * factor;
+					final int lastRow = Math.min(firstRow + factor,
+							image.height);
+
+					// the rows of a Portable Float Map are stored from
+					// bottom to top
+					for (int r = firstRow; r < lastRow; ++r) {
+						image.getRow(image.height - 1 - r, row, 0);
+						if (factor == 1) {
+							for (int i = 0; i < row.length; ++i)
+								sums[i] = row[i];
+						} else {
+							for (int x = 0; x < image.width; ++x) {
+								final int o = 3 * (x / factor);
+								sums[o] += row[3 * x];
+								sums[o + 1] += row[3 * x + 1];
+								sums[o + 2] += row[3 * x + 2];
+							}
+						}
+					}
+
+					final int rows = lastRow - firstRow;
+					final int offset = y * width;
+					for (int x = 0; x < width; ++x) {
+						final double inv_count = 1.0 / (rows * (Math.min(
+								(x + 1) * factor, image.width) - x * factor));
+						final int o = 3 * x;
+						pixels[offset + x] = 0xFF000000
+								| toInt(sums[o] * inv_count) << 16
+								| toInt(sums[o + 1] * inv_count) << 8
+								| toInt(sums[o + 2] * inv_count);
+						sums[o] = sums[o + 1] = sums[o + 2] = 0;
+					}
+				}
+				return null;
+			}
+		});
+
+		return result;
+	}
+}
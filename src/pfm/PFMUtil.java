@@ -1,10 +1,17 @@
 package pfm;
 
-import util.Statistics;
+import pfm.PFMTiles.Kernel;
+import pfm.PFMTiles.Reducer;
+import util.CompensatedSum;
+import core.Tile;
 
 /**
  * Utility methods for operations on Portable Float Map images.
  * 
+ * The operations are executed in parallel on tiles of the images. Sums are
+ * compensated per tile and combined in a fixed order, so the results do not
+ * depend on the number of threads.
+ * 
  * @author Niels Billen
  * @version 1.0
  * 
@@ -38,14 +45,27 @@ public class PFMUtil {
 	 * @param image
 	 * @return
 	 */
-	public static PFMImage normalizeByAverage(PFMImage image) {
-		double average = getAverage(image);
-		double inv = 1.0 / average;
-
-		PFMImage result = new PFMImage(image.width, image.height);
-		for (int i = 0; i < image.nbOfFloats(); ++i) {
-			result.setFloat(i, (float) (image.getFloat(i) * inv));
-		}
+	public static PFMImage normalizeByAverage(final PFMImage image) {
+		final double average = getAverage(image);
+		final double inv = 1.0 / average;
+		final PFMImage result = new PFMImage(image.width, image.height);
+
+		PFMTiles.map(image.width, image.height, new Kernel<Void>() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+			 */
+			@Override
+			public Void apply(Tile tile) {
+				float[] floats = new float[3 * tile.area()];
+				image.getRegion(tile, floats, 0);
+				for (int i = 0; i < floats.length; ++i)
+					floats[i] = (float) (floats[i] * inv);
+				result.setRegion(tile, floats, 0);
+				return null;
+			}
+		});
 		return result;
 	}
 
@@ -56,20 +76,47 @@ public class PFMUtil {
 	 *            the image to get the average value of .
 	 * @return the average value of the color components in the image.
 	 */
-	public static double getAverage(PFMImage image) throws NullPointerException {
+	public static double getAverage(final PFMImage image)
+			throws NullPointerException {
 		if (image == null)
 			throw new NullPointerException("the given image is null!");
 
-		Statistics statistic = new Statistics();
-
-		for (int i = 0; i < image.nbOfFloats(); ++i)
-			statistic.add(image.getFloat(i));
-
-		return statistic.getAverage();
+		CompensatedSum sum = PFMTiles.reduce(image.width, image.height,
+				new Kernel<CompensatedSum>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+					 */
+					@Override
+					public CompensatedSum apply(Tile tile) {
+						float[] floats = new float[3 * tile.area()];
+						image.getRegion(tile, floats, 0);
+
+						CompensatedSum sum = new CompensatedSum();
+						for (int i = 0; i < floats.length; ++i)
+							sum.add(floats[i]);
+						return sum;
+					}
+				}, new Reducer<CompensatedSum>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Reducer#reduce(java.lang.Object,
+					 * java.lang.Object)
+					 */
+					@Override
+					public CompensatedSum reduce(CompensatedSum first,
+							CompensatedSum second) {
+						return first.add(second);
+					}
+				});
+
+		return sum.getSum() / image.nbOfFloats();
 	}
 
 	/**
-	 * Computes the mean squared error between the two given images.
+	 * Computes the mean squared relative error between the two given images.
 	 * 
 	 * @param image1
 	 *            the first image.
@@ -81,48 +128,12 @@ public class PFMUtil {
 	 *             when one of the images is null.
 	 * @throws IllegalArgumentException
 	 *             when the sizes of the images do not match.
-	 * @return the mean squared error between the two given images.
+	 * @return the mean squared relative error between the two given images.
 	 */
 	public static double
 			getRMSE(PFMImage image1, PFMImage image2, double gamma)
 					throws IllegalArgumentException {
-		if (image1 == null)
-			throw new NullPointerException("the first image is null!");
-		if (image2 == null)
-			throw new NullPointerException("the second image is null!");
-		if (gamma <= 0)
-			throw new IllegalArgumentException("the gamma must be positive!");
-		if (image1.width != image2.width || image1.height != image2.height)
-			throw new IllegalArgumentException(
-					"the images do not have matching size!" + image1.width
-							+ "x" + image1.height + " vs " + image2.width + "x"
-							+ image2.height);
-
-		final int n = image1.nbOfFloats();
-		final Statistics statistic = new Statistics();
-		final double invGamma = 1.0 / gamma;
-
-		for (int i = 0; i < n; i++) {
-			float c1 = image1.getFloat(i);
-			float c2 = image2.getFloat(i);
-
-			if (c1 < 0.f)
-				continue;
-			if (c2 < 0.f)
-				continue;
-
-			double g1 = Math.pow(c1, invGamma);
-			double g2 = Math.pow(c2, invGamma);
-
-			if (g2 == 0)
-				continue;
-			double difference = (g1 - g2) / g2;
-			double squared = difference * difference;
-
-			statistic.add(squared);
-		}
-
-		return statistic.getAverage();
+		return getError(image1, image2, gamma, false).relativeMse;
 	}
 
 	/**
@@ -142,88 +153,141 @@ public class PFMUtil {
 	 */
 	public static double getMSE(PFMImage image1, PFMImage image2, double gamma)
 			throws IllegalArgumentException {
-		if (image1 == null)
-			throw new NullPointerException("the first image is null!");
-		if (image2 == null)
-			throw new NullPointerException("the second image is null!");
-		if (gamma <= 0)
-			throw new IllegalArgumentException("the gamma must be positive!");
-		if (image1.width != image2.width || image1.height != image2.height)
-			throw new IllegalArgumentException(
-					"the images do not have matching size!" + image1.width
-							+ "x" + image1.height + " vs " + image2.width + "x"
-							+ image2.height);
-
-		final int n = image1.nbOfFloats();
-		final Statistics statistic = new Statistics();
-		final double invGamma = 1.0 / gamma;
-
-		for (int i = 0; i < n; i++) {
-			float c1 = image1.getFloat(i);
-			float c2 = image2.getFloat(i);
-
-			if (c1 < 0.f)
-				continue;
-			if (c2 < 0.f)
-				continue;
-
-			double g1 = Math.pow(c1, invGamma);
-			double g2 = Math.pow(c2, invGamma);
-			double difference = g1 - g2;
-			double squared = difference * difference;
-
-			statistic.add(squared);
-
-		}
-
-		return statistic.getAverage();
+		return getError(image1, image2, gamma, false).mse;
 	}
 
 	/**
-	 * Computes the mean squared error between the two given images.
+	 * Computes the squared error of every color component between the two
+	 * given images.
 	 * 
 	 * @param image1
 	 *            the first image.
 	 * @param image2
 	 *            the second image.
+	 * @param gamma
+	 *            the gamma correction to apply to the colors of the images.
 	 * @throws NullPointerException
 	 *             when one of the images is null.
 	 * @throws IllegalArgumentException
 	 *             when the sizes of the images do not match.
-	 * @return the mean squared error between the two given images.
+	 * @return an image containing the squared error of every color component.
 	 */
 	public static PFMImage getMSEImage(PFMImage image1, PFMImage image2,
 			double gamma) throws IllegalArgumentException {
+		return getError(image1, image2, gamma, true).image;
+	}
+
+	/**
+	 * Computes the mean squared error, the mean squared relative error, the
+	 * mean absolute error, the maximum error and optionally the squared error
+	 * image between the two given images in a single pass.
+	 * 
+	 * Color components which are negative in either image are ignored (and
+	 * are zero in the error image). The relative error is relative to the
+	 * second image and ignores components where it is zero.
+	 * 
+	 * @param image1
+	 *            the first image.
+	 * @param image2
+	 *            the second image (the reference).
+	 * @param gamma
+	 *            the gamma correction to apply to the colors of the images.
+	 * @param errorImage
+	 *            whether the squared error image should be computed.
+	 * @throws NullPointerException
+	 *             when one of the images is null.
+	 * @throws IllegalArgumentException
+	 *             when the gamma is not positive or the sizes of the images
+	 *             do not match.
+	 * @return the errors between the two given images.
+	 */
+	public static PFMError getError(final PFMImage image1,
+			final PFMImage image2, double gamma, boolean errorImage) throws NullPointerException,
+			IllegalArgumentException {
 		if (image1 == null)
 			throw new NullPointerException("the first image is null!");
 		if (image2 == null)
 			throw new NullPointerException("the second image is null!");
+		if (gamma <= 0)
+			throw new IllegalArgumentException("the gamma must be positive!");
 		if (image1.width != image2.width || image1.height != image2.height)
 			throw new IllegalArgumentException(String.format(
 					"the images do not have matching size! %dx%d vs %dx%d",
 					image1.width, image1.height, image2.width, image2.height));
 
-		final int n = image1.nbOfFloats();
-		final PFMImage result = new PFMImage(image1.width, image1.height);
-		final double invGamma = 1.0 / gamma;
-
-		for (int i = 0; i < n; ++i) {
-			float c1 = image1.getFloat(i);
-			float c2 = image2.getFloat(i);
-
-			if (c1 < 0 || c2 < 0)
-				result.setFloat(i, 0.f);
-			else {
-				double g1 = Math.pow(c1, invGamma);
-				double g2 = Math.pow(c2, invGamma);
-				double difference = g1 - g2;
-				double squared = difference * difference;
-				result.setFloat(i, (float) squared);
-
-			}
-		}
-
-		return result;
+		final PFMImage result = errorImage ? new PFMImage(image1.width,
+				image1.height) : null;
+		final Power power = new Power(1.0 / gamma);
+
+		ErrorSums sums = PFMTiles.reduce(image1.width, image1.height,
+				new Kernel<ErrorSums>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+					 */
+					@Override
+					public ErrorSums apply(Tile tile) {
+						final float[] floats1 = new float[3 * tile.area()];
+						final float[] floats2 = new float[3 * tile.area()];
+						image1.getRegion(tile, floats1, 0);
+						image2.getRegion(tile, floats2, 0);
+
+						ErrorSums sums = new ErrorSums();
+						for (int i = 0; i < floats1.length; ++i) {
+							float c1 = floats1[i];
+							float c2 = floats2[i];
+
+							if (c1 < 0.f || c2 < 0.f) {
+								floats1[i] = 0.f;
+								continue;
+							}
+
+							double g1 = power.apply(c1);
+							double g2 = power.apply(c2);
+							double difference = g1 - g2;
+							double squared = difference * difference;
+							double absolute = Math.abs(difference);
+
+							sums.squared.add(squared);
+							sums.absolute.add(absolute);
+							if (absolute > sums.max)
+								sums.max = absolute;
+							++sums.count;
+
+							if (g2 != 0) {
+								double relative = difference / g2;
+								sums.relative.add(relative * relative);
+								++sums.relativeCount;
+							}
+
+							floats1[i] = (float) squared;
+						}
+
+						if (result != null)
+							result.setRegion(tile, floats1, 0);
+						return sums;
+					}
+				}, new Reducer<ErrorSums>() {
+					/*
+					 * (non-Javadoc)
+					 * 
+					 * @see pfm.PFMTiles.Reducer#reduce(java.lang.Object,
+					 * java.lang.Object)
+					 */
+					@Override
+					public ErrorSums reduce(ErrorSums first, ErrorSums second) {
+						return first.add(second);
+					}
+				});
+
+		final long count = sums.count;
+		final long relativeCount = sums.relativeCount;
+		return new PFMError(count == 0 ? 0 : sums.squared.getSum() / count,
+				relativeCount == 0 ? 0 : sums.relative.getSum()
+						/ relativeCount, count == 0 ? 0
+						: sums.absolute.getSum() / count, sums.max, count,
+				relativeCount, result);
 	}
 
 	/**
@@ -259,8 +323,8 @@ public class PFMUtil {
 	 *             when the sizes of the images do not match.
 	 * @return the mean squared error between the two given images.
 	 */
-	public static PFMImage difference(PFMImage image1, PFMImage image2,
-			float scale) {
+	public static PFMImage difference(final PFMImage image1,
+			final PFMImage image2, final float scale) {
 		if (image1 == null)
 			throw new NullPointerException("the first image is null!");
 		if (image2 == null)
@@ -269,15 +333,144 @@ public class PFMUtil {
 			throw new IllegalArgumentException(
 					"the images do not have matching size!");
 
-		final int n = image1.nbOfFloats();
 		final PFMImage result = new PFMImage(image1.width, image1.height);
-		for (int i = 0; i < n; ++i) {
-			float c1 = image1.getFloat(i);
-			float c2 = image2.getFloat(i);
-			float difference = scale * Math.abs(c1 - c2);
-			result.setFloat(i, difference);
-		}
+
+		PFMTiles.map(image1.width, image1.height, new Kernel<Void>() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see pfm.PFMTiles.Kernel#apply(core.Tile)
+			 */
+			@Override
+			public Void apply(Tile tile) {
+				float[] floats1 = new float[3 * tile.area()];
+				float[] floats2 = new float[3 * tile.area()];
+				image1.getRegion(tile, floats1, 0);
+				image2.getRegion(tile, floats2, 0);
+
+				for (int i = 0; i < floats1.length; ++i)
+					floats1[i] = scale * Math.abs(floats1[i] - floats2[i]);
+
+				result.setRegion(tile, floats1, 0);
+				return null;
+			}
+		});
 
 		return result;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Raises floats to a fixed exponent without the general power function.
+	 * 
+	 * A float is a power of two times a mantissa in [1, 2), so its power is
+	 * the power of the power of two, looked up by the exponent bits, times
+	 * the power of the mantissa, interpolated linearly between the powers of
+	 * the 4097 mantissas with the top 12 mantissa bits. The relative error of
+	 * the interpolation is below 1e-8, smaller than the precision of a float.
+	 */
+	private static class Power {
+		/**
+		 * The number of mantissa bits which index the table.
+		 */
+		private static final int INDEX_BITS = 12;
+
+		/**
+		 * The number of mantissa bits which are interpolated.
+		 */
+		private static final int FRACTION_BITS = 23 - INDEX_BITS;
+
+		/**
+		 * The exponent.
+		 */
+		private final double exponent;
+
+		/**
+		 * The powers of the powers of two, by the exponent bits of a float
+		 * (null when no table is required).
+		 */
+		private final double[] scales;
+
+		/**
+		 * The powers of the mantissas with the given top bits (null when no
+		 * table is required).
+		 */
+		private final double[] mantissas;
+
+		/**
+		 * 
+		 * @param exponent
+		 */
+		public Power(double exponent) {
+			this.exponent = exponent;
+			if (exponent == 1.0 || exponent == 0.5) {
+				scales = null;
+				mantissas = null;
+				return;
+			}
+
+			scales = new double[256];
+			for (int e = 1; e < 255; ++e)
+				scales[e] = Math.pow(2.0, (e - 127) * exponent);
+			mantissas = new double[(1 << INDEX_BITS) + 1];
+			for (int i = 0; i < mantissas.length; ++i)
+				mantissas[i] = Math.pow(1.0 + i / (double) (1 << INDEX_BITS),
+						exponent);
+		}
+
+		/**
+		 * Raises the given value to the exponent.
+		 * 
+		 * @param value
+		 *            the non-negative value.
+		 * @return the given value raised to the exponent.
+		 */
+		public double apply(float value) {
+			if (exponent == 1.0)
+				return value;
+			if (exponent == 0.5)
+				return Math.sqrt(value);
+
+			final int bits = Float.floatToRawIntBits(value);
+			final int e = (bits >>> 23) & 0xFF;
+			// zero, subnormals, infinity and NaN
+			if (e == 0 || e == 255)
+				return Math.pow(value, exponent);
+
+			final int mantissa = bits & 0x7FFFFF;
+			final int index = mantissa >>> FRACTION_BITS;
+			final double t = (mantissa & ((1 << FRACTION_BITS) - 1))
+					/ (double) (1 << FRACTION_BITS);
+			final double m0 = mantissas[index];
+			return scales[e] * (m0 + t * (mantissas[index + 1] - m0));
+		}
+	}
+
+	/**
+	 * The partial sums of the errors over a group of tiles.
+	 */
+	private static class ErrorSums {
+		private final CompensatedSum squared = new CompensatedSum();
+		private final CompensatedSum relative = new CompensatedSum();
+		private final CompensatedSum absolute = new CompensatedSum();
+		private double max = 0;
+		private long count = 0;
+		private long relativeCount = 0;
+
+		/**
+		 * Adds the given partial sums to these partial sums.
+		 * 
+		 * @param other
+		 *            the partial sums to add.
+		 * @return these partial sums.
+		 */
+		public ErrorSums add(ErrorSums other) {
+			squared.add(other.squared);
+			relative.add(other.relative);
+			absolute.add(other.absolute);
+			max = Math.max(max, other.max);
+			count += other.count;
+			relativeCount += other.relativeCount;
+			return this;
+		}
+	}
+}
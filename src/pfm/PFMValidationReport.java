@@ -0,0 +1,270 @@
+package pfm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Summary of the negative, NaN and infinite floats found while validating a
+ * Portable Float Map image.
+ * 
+ * @author Niels Billen
+ * @version 1.0
+ * 
+ *          Redistribution and use in source and binary forms, with or without
+ *          modification, are permitted provided that the following conditions
+ *          are met:
+ * 
+ *          - Redistributions of source code must retain the above copyright
+ *          notice, this list of conditions and the following disclaimer.
+ * 
+ *          - Redistributions in binary form must reproduce the above copyright
+ *          notice, this list of conditions and the following disclaimer in the
+ *          documentation and/or other materials provided with the distribution.
+ * 
+ *          THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *          "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *          LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *          FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *          COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *          INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *          BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *          LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *          CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *          LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *          ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *          POSSIBILITY OF SUCH DAMAGE.
+ */
+public class PFMValidationReport {
+	/**
+	 * The names of the color channels.
+	 */
+	private static final String[] colors = { "red", "green", "blue" };
+
+	/**
+	 * An invalid float in the image.
+	 */
+	public static class Sample {
+		/**
+		 * The horizontal position of the pixel.
+		 */
+		public final int x;
+
+		/**
+		 * The vertical position of the pixel.
+		 */
+		public final int y;
+
+		/**
+		 * The color channel of the float (0 = red, 1 = green, 2 = blue).
+		 */
+		public final int channel;
+
+		/**
+		 * The value of the float.
+		 */
+		public final float value;
+
+		/**
+		 * Creates a new invalid sample.
+		 * 
+		 * @param x
+		 *            the horizontal position of the pixel.
+		 * @param y
+		 *            the vertical position of the pixel.
+		 * @param channel
+		 *            the color channel of the float.
+		 * @param value
+		 *            the value of the float.
+		 */
+		public Sample(int x, int y, int channel, float value) {
+			this.x = x;
+			this.y = y;
+			this.channel = channel;
+			this.value = value;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("pixel at coordinate (%d, %d) has value "
+					+ "%.16f for the %s color component", x, y, value,
+					colors[channel]);
+		}
+	}
+
+	/**
+	 * The validation mode used to create this report.
+	 */
+	public final PFMValidation mode;
+
+	/**
+	 * The maximum number of samples to collect.
+	 */
+	private final int limit;
+
+	/**
+	 * The number of negative floats.
+	 */
+	private long negative = 0;
+
+	/**
+	 * The number of NaN floats.
+	 */
+	private long nan = 0;
+
+	/**
+	 * The number of infinite floats.
+	 */
+	private long infinite = 0;
+
+	/**
+	 * The first invalid floats.
+	 */
+	private final List<Sample> samples = new ArrayList<Sample>();
+
+	/**
+	 * Creates an empty report.
+	 * 
+	 * @param mode
+	 *            the validation mode.
+	 * @param limit
+	 *            the maximum number of samples to collect.
+	 * @throws NullPointerException
+	 *             when the given mode is null.
+	 * @throws IllegalArgumentException
+	 *             when the limit is negative.
+	 */
+	public PFMValidationReport(PFMValidation mode, int limit)
+			throws NullPointerException, IllegalArgumentException {
+		if (mode == null)
+			throw new NullPointerException("the given mode is null!");
+		if (limit < 0)
+			throw new IllegalArgumentException("the limit cannot be negative!");
+		this.mode = mode;
+		this.limit = limit;
+	}
+
+	/**
+	 * Returns whether the given float is invalid.
+	 * 
+	 * @param value
+	 *            the float to check.
+	 * @return whether the given float is negative, NaN or infinite.
+	 */
+	public static boolean isInvalid(float value) {
+		return !(value >= 0 && value < Float.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Records the given invalid float.
+	 * 
+	 * @param x
+	 *            the horizontal position of the pixel.
+	 * @param y
+	 *            the vertical position of the pixel.
+	 * @param channel
+	 *            the color channel of the float.
+	 * @param value
+	 *            the invalid value.
+	 * @throws IllegalStateException
+	 *             when failing fast.
+	 */
+	void record(int x, int y, int channel, float value)
+			throws IllegalStateException {
+		if (Float.isNaN(value))
+			++nan;
+		else if (Float.isInfinite(value))
+			++infinite;
+		else
+			++negative;
+
+		Sample sample = null;
+		if (mode == PFMValidation.FAIL_FAST
+				|| (mode == PFMValidation.COLLECT && samples.size() < limit)) {
+			sample = new Sample(x, y, channel, value);
+			samples.add(sample);
+		}
+
+		if (mode == PFMValidation.FAIL_FAST)
+			throw new IllegalStateException("invalid image: " + sample + "!");
+	}
+
+	/**
+	 * Returns the number of negative floats.
+	 * 
+	 * @return the number of negative floats.
+	 */
+	public long nbOfNegative() {
+		return negative;
+	}
+
+	/**
+	 * Returns the number of NaN floats.
+	 * 
+	 * @return the number of NaN floats.
+	 */
+	public long nbOfNaN() {
+		return nan;
+	}
+
+	/**
+	 * Returns the number of infinite floats.
+	 * 
+	 * @return the number of infinite floats.
+	 */
+	public long nbOfInfinite() {
+		return infinite;
+	}
+
+	/**
+	 * Returns the total number of invalid floats.
+	 * 
+	 * @return the total number of invalid floats.
+	 */
+	public long nbOfInvalid() {
+		return negative + nan + infinite;
+	}
+
+	/**
+	 * Returns whether no invalid floats were found.
+	 * 
+	 * @return whether no invalid floats were found.
+	 */
+	public boolean isValid() {
+		return nbOfInvalid() == 0;
+	}
+
+	/**
+	 * Returns the collected invalid floats.
+	 * 
+	 * @return an unmodifiable view of the collected invalid floats.
+	 */
+	public List<Sample> getSamples() {
+		return Collections.unmodifiableList(samples);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(String.format(
+				"[ Validation ]:\n" + "negative:           %d\n"
+						+ "NaN:                %d\n"
+						+ "infinite:           %d\n", negative, nan,
+				infinite));
+		for (Sample sample : samples)
+			builder.append("  ").append(sample).append("\n");
+		if (nbOfInvalid() > samples.size() && !samples.isEmpty())
+			builder.append(String.format("  ... and %d more\n",
+					nbOfInvalid() - samples.size()));
+		return builder.toString();
+	}
+}
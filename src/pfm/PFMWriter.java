@@ -1,14 +1,19 @@
 package pfm;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
 
 /**
- * Implementation of a class capable of reading Portable Float Map images.
+ * Implementation of a class capable of writing Portable Float Map images.
  * 
  * @author Niels Billen
  * @version 1.0
@@ -39,50 +44,177 @@ import java.nio.ByteBuffer;
  */
 public class PFMWriter {
 	/**
-	 * Reads a Portable Float Map from the file specified by the given filename.
+	 * The size in bytes of the buffer through which the rows are written.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the given image as a little endian color Portable Float Map to
+	 * the file specified by the given filename.
 	 * 
 	 * @param filename
-	 *            name of the file to read the Portable Float Map from.
+	 *            name of the file to write the Portable Float Map to.
+	 * @param image
+	 *            the image to write.
+	 * @throws NullPointerException
+	 *             when the given filename or image is null.
 	 * @throws IOException
-	 *             when an exception occurs during the reading of the file.
-	 * @return an object containing the Portable Float Map image.
+	 *             when an exception occurs during the writing of the file.
 	 */
 	public static void write(String filename, PFMImage image)
-			throws IOException {
+			throws NullPointerException, IOException {
+		if (filename == null)
+			throw new NullPointerException("the given filename is null!");
 		write(new File(filename), image);
 	}
 
 	/**
-	 * Reads a Portable Float Map from the given file.
+	 * Writes the given image as a little endian color Portable Float Map to
+	 * the given file.
+	 * 
+	 * @param file
+	 *            file to write the Portable Float Map to.
+	 * @param image
+	 *            the image to write.
+	 * @throws NullPointerException
+	 *             when the given file or image is null.
+	 * @throws IOException
+	 *             when an exception occurs during the writing of the file.
+	 */
+	public static void write(File file, PFMImage image)
+			throws NullPointerException, IOException {
+		write(file, image, false, ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the given image as a Portable Float Map to the given file.
+	 * 
+	 * A grayscale image ("Pf") stores the average of the red, green and blue
+	 * components of every pixel. The byte order is encoded in the sign of the
+	 * scale in the header (-1.0 for little endian and 1.0 for big endian).
+	 * 
+	 * When the floats of the image are backed by a direct or memory mapped
+	 * buffer with the requested byte order, a color image is written straight
+	 * from that buffer without copying the floats.
+	 * 
+	 * The image is written to a temporary file next to the given file, which
+	 * then replaces the given file. An image mapped from the given file can
+	 * therefore be written back to it.
 	 * 
 	 * @param file
-	 *            file to read the Portable Float Map from.
+	 *            file to write the Portable Float Map to.
+	 * @param image
+	 *            the image to write.
+	 * @param gray
+	 *            whether to write a grayscale image.
+	 * @param order
+	 *            the byte order of the floats in the file.
+	 * @throws NullPointerException
+	 *             when the given file, image or byte order is null.
 	 * @throws IOException
-	 *             when an exception occurs during the reading of the file.
-	 * @return an object containing the Portable Float Map image.
+	 *             when an exception occurs during the writing of the file.
 	 */
-	public static void write(File file, PFMImage image) throws IOException {
-		{
-			FileWriter writer = new FileWriter(file);
-			BufferedWriter w = new BufferedWriter(writer);
-			w.write("PF\n");
-			w.write(image.width + " " + image.height + "\n");
-			w.write("1.0\n");
-			w.flush();
-			w.close();
-			writer.close();
+	public static void write(File file, PFMImage image, boolean gray,
+			ByteOrder order) throws NullPointerException, IOException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		if (image == null)
+			throw new NullPointerException("the given image is null!");
+		if (order == null)
+			throw new NullPointerException("the given byte order is null!");
+
+		// the image may be backed by the file which is replaced, so the file
+		// is never truncated while the image is written
+		File part = new File(file.getAbsolutePath() + "." + UUID.randomUUID()
+				+ ".part");
+		try {
+			writeNew(part, image, gray, order);
+			Files.move(part.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(part.toPath());
 		}
+	}
+
+	/**
+	 * Writes the given image as a Portable Float Map to the given new file.
+	 * 
+	 * @param file
+	 *            the file to create.
+	 * @param image
+	 *            the image to write.
+	 * @param gray
+	 *            whether to write a grayscale image.
+	 * @param order
+	 *            the byte order of the floats in the file.
+	 * @throws IOException
+	 *             when an exception occurs during the writing of the file.
+	 */
+	private static void writeNew(File file, PFMImage image, boolean gray,
+			ByteOrder order) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			String header = String.format("%s\n%d %d\n%s\n", gray ? "Pf"
+					: "PF", image.width, image.height,
+					order == ByteOrder.LITTLE_ENDIAN ? "-1.0" : "1.0");
+			write(channel, ByteBuffer.wrap(header
+					.getBytes(StandardCharsets.US_ASCII)));
+
+			/*****************************************************
+			 * Color images in a matching buffer are written as is
+			 *****************************************************/
+
+			ByteBuffer bytes = image.getStorage().getBytes();
+			if (!gray && bytes != null && bytes.order() == order) {
+				write(channel, bytes);
+				return;
+			}
+
+			/*****************************************************
+			 * Other images are streamed row by row
+			 *****************************************************/
+
+			final int channels = gray ? 1 : 3;
+			final int rowSize = channels * image.width * Float.BYTES;
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(
+					Math.max(1, BUFFER_SIZE / rowSize) * rowSize).order(order);
+			final FloatBuffer floats = buffer.asFloatBuffer();
+			final float[] row = new float[3 * image.width];
 
-		{
-			ByteBuffer buffer = ByteBuffer.allocate(4 * image.nbOfFloats());
-			FileOutputStream stream = new FileOutputStream(file, true);
-			for (int i = 0; i < image.nbOfFloats(); ++i) {
-				float f = image.getFloat(i);
-				buffer = buffer.putFloat(f);
+			for (int y = 0; y < image.height; ++y) {
+				image.getRow(y, row, 0);
+
+				if (gray) {
+					for (int x = 0; x < image.width; ++x)
+						floats.put((float) (((double) row[3 * x]
+								+ row[3 * x + 1] + row[3 * x + 2]) / 3.0));
+				} else
+					floats.put(row);
+
+				if (!floats.hasRemaining() || y == image.height - 1) {
+					buffer.limit(floats.position() * Float.BYTES);
+					write(channel, buffer);
+					buffer.clear();
+					floats.clear();
+				}
 			}
-			stream.write(buffer.array());
-			stream.flush();
-			stream.close();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Writes all the remaining bytes in the given buffer to the given channel.
+	 * 
+	 * @param channel
+	 *            the channel to write to.
+	 * @param buffer
+	 *            the bytes to write.
+	 * @throws IOException
+	 *             when an exception occurs during the writing.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
@@ -0,0 +1,338 @@
+package task;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pfm.PFMError;
+import pfm.PFMImage;
+import pfm.PFMUtil;
+
+/**
+ * Evaluates the intermediate images of a render against a reference image
+ * and decides when the render has converged far enough to be stopped.
+ * 
+ * A render has converged when the relative mean squared error of an
+ * intermediate image drops below the target, or when the error curve has
+ * flattened: the error did not decrease by more than a given fraction over
+ * the last few intermediate images.
+ * 
+ * A monitor records the error curve of a single render. The monitor of a
+ * task is a template: every execution of the task evaluates its intermediate
+ * images with a fresh {@link #copy()}, so a retry or a concurrent execution
+ * starts from an empty curve. The reference image is shared.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class ConvergenceMonitor {
+	/**
+	 * The first line of a curve file of a render which was stopped early.
+	 */
+	private static final String STOPPED_EARLY = "# stopped early: ";
+
+	/**
+	 * The reference image.
+	 */
+	private final PFMImage reference;
+
+	/**
+	 * The relative mean squared error at which the render has converged.
+	 */
+	private final double target;
+
+	/**
+	 * The number of intermediate images over which the error curve must have
+	 * flattened (0 = never stop because of a flat curve).
+	 */
+	private int window = 0;
+
+	/**
+	 * The fraction by which the error must at least decrease over the window
+	 * for the curve not to be flat.
+	 */
+	private double tolerance = 0;
+
+	/**
+	 * The points on the error curve.
+	 */
+	private final List<Point> curve = new ArrayList<Point>();
+
+	/**
+	 * Why the render converged (null when it did not).
+	 */
+	private String reason = null;
+
+	/**
+	 * The lock guarding the curve and the state of the monitor.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Creates a new monitor which stops a render when the relative mean
+	 * squared error drops below the given target.
+	 * 
+	 * @param reference
+	 *            the reference image.
+	 * @param target
+	 *            the relative mean squared error at which the render has
+	 *            converged (0 = only stop when the curve has flattened).
+	 * @throws NullPointerException
+	 *             when the given reference is null.
+	 * @throws IllegalArgumentException
+	 *             when the given target is negative.
+	 */
+	public ConvergenceMonitor(PFMImage reference, double target)
+			throws NullPointerException, IllegalArgumentException {
+		if (reference == null)
+			throw new NullPointerException("the given reference is null!");
+		if (target < 0)
+			throw new IllegalArgumentException(
+					"the target must be larger than or equal to zero!");
+		this.reference = reference;
+		this.target = target;
+	}
+
+	/**
+	 * Also stops the render when the relative mean squared error did not
+	 * decrease by more than the given fraction over the given number of
+	 * intermediate images.
+	 * 
+	 * @param window
+	 *            the number of intermediate images (0 = never stop because
+	 *            of a flat curve).
+	 * @param tolerance
+	 *            the fraction of the error (e.g. 0.01).
+	 * @throws IllegalArgumentException
+	 *             when the window is negative or the tolerance is not between
+	 *             zero and one.
+	 */
+	public void setFlattening(int window, double tolerance)
+			throws IllegalArgumentException {
+		if (window < 0)
+			throw new IllegalArgumentException(
+					"the window must be larger than or equal to zero!");
+		if (tolerance < 0 || tolerance > 1)
+			throw new IllegalArgumentException(
+					"the tolerance must lie between zero and one!");
+		lock.lock();
+		try {
+			this.window = window;
+			this.tolerance = tolerance;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a new monitor with the same reference, target and flattening
+	 * as this monitor and an empty error curve.
+	 * 
+	 * @return a new monitor with an empty error curve.
+	 */
+	public ConvergenceMonitor copy() {
+		ConvergenceMonitor result = new ConvergenceMonitor(reference, target);
+		lock.lock();
+		try {
+			result.window = window;
+			result.tolerance = tolerance;
+		} finally {
+			lock.unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the given intermediate image to the error curve.
+	 * 
+	 * @param index
+	 *            the index of the intermediate image, as numbered by pbrt.
+	 * @param elapsed
+	 *            the time in seconds since the render started.
+	 * @param image
+	 *            the intermediate image.
+	 * @throws NullPointerException
+	 *             when the given image is null.
+	 * @throws IllegalArgumentException
+	 *             when the size of the image does not match the reference.
+	 * @return whether the render has converged.
+	 */
+	public boolean add(int index, double elapsed, PFMImage image)
+			throws NullPointerException, IllegalArgumentException {
+		PFMError error = PFMUtil.getError(image, reference, 1.0, false);
+		lock.lock();
+		try {
+			Point point = new Point(index, elapsed, error.relativeMse,
+					error.mse);
+			curve.add(point);
+			if (reason != null)
+				return true;
+
+			if (target > 0 && point.relativeMse <= target)
+				reason = String.format(
+						"the relative MSE %.6g reached the target %.6g",
+						point.relativeMse, target);
+			else if (window > 0 && curve.size() > window) {
+				Point previous = curve.get(curve.size() - 1 - window);
+				if (previous.relativeMse - point.relativeMse <= tolerance
+						* previous.relativeMse)
+					reason = String.format(
+							"the relative MSE decreased from %.6g to %.6g over the last %d images",
+							previous.relativeMse, point.relativeMse, window);
+			}
+			return reason != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns whether the render has converged.
+	 * 
+	 * @return whether the render has converged.
+	 */
+	public boolean isConverged() {
+		lock.lock();
+		try {
+			return reason != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns why the render converged.
+	 * 
+	 * @return why the render converged (null when it did not).
+	 */
+	public String getReason() {
+		lock.lock();
+		try {
+			return reason;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the points on the error curve in the order they were added.
+	 * 
+	 * @return the points on the error curve.
+	 */
+	public List<Point> getCurve() {
+		lock.lock();
+		try {
+			return Collections.unmodifiableList(new ArrayList<Point>(curve));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the error curve to the given file, as tab separated columns with
+	 * the index, the elapsed time, the relative mean squared error and the
+	 * mean squared error of every intermediate image.
+	 * 
+	 * @param file
+	 *            the file to write to.
+	 * @throws NullPointerException
+	 *             when the given file is null.
+	 * @throws IOException
+	 *             when the file could not be written.
+	 */
+	public void write(File file) throws NullPointerException, IOException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		String stopped = getReason();
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(
+				file.toPath(), StandardCharsets.UTF_8))) {
+			if (stopped != null)
+				writer.println(STOPPED_EARLY + stopped);
+			writer.println("index\ttime[s]\trelmse\tmse");
+			for (Point point : getCurve())
+				writer.println(String.format("%d\t%.3f\t%.6g\t%.6g",
+						point.index, point.elapsed, point.relativeMse,
+						point.mse));
+		}
+	}
+
+	/**
+	 * Returns whether the given error curve, as written by
+	 * {@link #write(File)}, belongs to a render which was stopped early.
+	 * 
+	 * @param file
+	 *            the file containing the error curve.
+	 * @throws NullPointerException
+	 *             when the given file is null.
+	 * @return whether the render was stopped early (false when the file
+	 *         cannot be read).
+	 */
+	public static boolean isStoppedEarly(File file)
+			throws NullPointerException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		if (!file.isFile())
+			return false;
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+				StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			return line != null && line.startsWith(STOPPED_EARLY);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A point on the error curve.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static class Point {
+		/**
+		 * The index of the intermediate image.
+		 */
+		public final int index;
+
+		/**
+		 * The time in seconds since the render started.
+		 */
+		public final double elapsed;
+
+		/**
+		 * The relative mean squared error of the intermediate image.
+		 */
+		public final double relativeMse;
+
+		/**
+		 * The mean squared error of the intermediate image.
+		 */
+		public final double mse;
+
+		/**
+		 * Creates a new point on the error curve.
+		 * 
+		 * @param index
+		 *            the index of the intermediate image.
+		 * @param elapsed
+		 *            the time in seconds since the render started.
+		 * @param relativeMse
+		 *            the relative mean squared error.
+		 * @param mse
+		 *            the mean squared error.
+		 */
+		public Point(int index, double elapsed, double relativeMse, double mse) {
+			this.index = index;
+			this.elapsed = elapsed;
+			this.relativeMse = relativeMse;
+			this.mse = mse;
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package task;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import pbrt.scene.PBRTScene;
@@ -11,6 +14,12 @@ import pbrt.scene.PBRTScene;
  * @version 0.1
  */
 public abstract class RenderTaskInterface {
+	/**
+	 * The extensions of all the result files pbrt writes.
+	 */
+	public static final List<String> ALL_ARTIFACTS = Collections
+			.unmodifiableList(Arrays.asList("pfm", "txt", "exr", "png"));
+
 	/**
 	 * 
 	 */
@@ -31,6 +40,17 @@ public abstract class RenderTaskInterface {
 	 */
 	private final String filename;
 
+	/**
+	 * The extensions of the result files which are retrieved.
+	 */
+	private volatile List<String> artifacts = ALL_ARTIFACTS;
+
+	/**
+	 * The monitor which decides when the render has converged (null when the
+	 * task always renders to completion).
+	 */
+	private volatile ConvergenceMonitor convergenceMonitor = null;
+
 	/**
 	 * 
 	 * @param directory
@@ -63,6 +83,69 @@ public abstract class RenderTaskInterface {
 		return directory;
 	}
 
+	/**
+	 * Returns the extensions of the result files which are retrieved from the
+	 * computer which rendered the task. A task is only done when all of them
+	 * are present.
+	 * 
+	 * @return the extensions of the result files which are retrieved.
+	 */
+	public List<String> getArtifacts() {
+		return artifacts;
+	}
+
+	/**
+	 * Sets the extensions of the result files which are retrieved from the
+	 * computer which rendered the task, for instance only "pfm" and "txt" for
+	 * a parameter sweep which does not need the tone mapped images.
+	 * 
+	 * @param extensions
+	 *            the extensions of the result files.
+	 * @throws NullPointerException
+	 *             when the given extensions are null.
+	 * @throws IllegalArgumentException
+	 *             when no extensions are given.
+	 */
+	public void setArtifacts(String... extensions)
+			throws NullPointerException, IllegalArgumentException {
+		if (extensions == null)
+			throw new NullPointerException("the given extensions are null!");
+		if (extensions.length == 0)
+			throw new IllegalArgumentException(
+					"at least one extension must be given!");
+		for (String extension : extensions)
+			if (extension == null)
+				throw new NullPointerException(
+						"one of the given extensions is null!");
+		this.artifacts = Collections.unmodifiableList(Arrays
+				.asList(extensions.clone()));
+	}
+
+	/**
+	 * Returns the monitor which decides when the render has converged.
+	 * 
+	 * @return the monitor which decides when the render has converged (null
+	 *         when the task always renders to completion).
+	 */
+	public ConvergenceMonitor getConvergenceMonitor() {
+		return convergenceMonitor;
+	}
+
+	/**
+	 * Sets the monitor which decides when the render has converged. The
+	 * computers which can observe the intermediate images pbrt writes
+	 * evaluate them with a copy of the monitor for every execution and stop
+	 * the render once it has converged. Only the local computer can, an
+	 * execution service refuses to start such a task on other computers.
+	 * 
+	 * @param monitor
+	 *            the monitor (null when the task always renders to
+	 *            completion).
+	 */
+	public void setConvergenceMonitor(ConvergenceMonitor monitor) {
+		this.convergenceMonitor = monitor;
+	}
+
 	/**
 	 * Returns the horizontal resolution for rendering the image.
 	 * 
@@ -104,4 +187,15 @@ public abstract class RenderTaskInterface {
 	 * @return the number of samples per pixel to render the image with.
 	 */
 	public abstract int nbOfSamples();
+
+	/**
+	 * Returns an estimate of the amount of work required to render the task,
+	 * which is the total number of samples (samples per pixel times the number
+	 * of pixels).
+	 * 
+	 * @return an estimate of the amount of work required to render the task.
+	 */
+	public long getCost() {
+		return (long) nbOfSamples() * getXResolution() * getYResolution();
+	}
 }
@@ -0,0 +1,80 @@
+package util;
+
+/**
+ * A sum of doubles which compensates for the rounding errors of the additions
+ * (Kahan-Babuska summation).
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class CompensatedSum {
+	/**
+	 * The uncompensated sum.
+	 */
+	private double sum = 0;
+
+	/**
+	 * The accumulated rounding errors.
+	 */
+	private double compensation = 0;
+
+	/**
+	 * Creates a new sum which is zero.
+	 */
+	public CompensatedSum() {
+	}
+
+	/**
+	 * Adds the given value to the sum.
+	 * 
+	 * @param value
+	 *            the value to add.
+	 * @return this sum.
+	 */
+	public CompensatedSum add(double value) {
+		double t = sum + value;
+		if (Math.abs(sum) >= Math.abs(value))
+			compensation += (sum - t) + value;
+		else
+			compensation += (value - t) + sum;
+		sum = t;
+		return this;
+	}
+
+	/**
+	 * Adds the given sum to this sum.
+	 * 
+	 * @param other
+	 *            the sum to add.
+	 * @throws NullPointerException
+	 *             when the given sum is null.
+	 * @return this sum.
+	 */
+	public CompensatedSum add(CompensatedSum other)
+			throws NullPointerException {
+		if (other == null)
+			throw new NullPointerException("the given sum is null!");
+		add(other.sum);
+		compensation += other.compensation;
+		return this;
+	}
+
+	/**
+	 * Returns the value of the sum.
+	 * 
+	 * @return the value of the sum.
+	 */
+	public double getSum() {
+		return sum + compensation;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return Double.toString(getSum());
+	}
+}
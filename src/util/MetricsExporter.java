@@ -0,0 +1,216 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Makes the metrics of a {@link MetricsRegistry} available outside the
+ * application: on <code>http://localhost:&lt;port&gt;/metrics</code> in the
+ * text format of Prometheus, and as a time series which is appended to a
+ * file at a fixed interval.
+ * 
+ * The HTTP server only listens on the loopback interface and the time series
+ * is written by a single daemon thread, so exporting costs nothing while
+ * nobody is looking.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class MetricsExporter implements Closeable {
+	/**
+	 * The registry whose metrics are exported.
+	 */
+	private final MetricsRegistry registry;
+
+	/**
+	 * The server of the scrape endpoint (null when it was not started).
+	 */
+	private HttpServer server;
+
+	/**
+	 * The executor which writes the time series (null when it was not
+	 * started).
+	 */
+	private ScheduledExecutorService recorder;
+
+	/**
+	 * The file the time series is appended to (null when it is not
+	 * recorded).
+	 */
+	private File file;
+
+	/**
+	 * Creates an exporter of the given registry.
+	 * 
+	 * @param registry
+	 *            the registry whose metrics are exported.
+	 * @throws NullPointerException
+	 *             when the given registry is null.
+	 */
+	public MetricsExporter(MetricsRegistry registry)
+			throws NullPointerException {
+		if (registry == null)
+			throw new NullPointerException("the given registry is null!");
+		this.registry = registry;
+	}
+
+	/**
+	 * Serves the metrics on <code>/metrics</code> of the given port of the
+	 * loopback interface.
+	 * 
+	 * @param port
+	 *            the port (0 = any free port).
+	 * @return the port the metrics are served on.
+	 * @throws IllegalStateException
+	 *             when the metrics are already served.
+	 * @throws IOException
+	 *             when the server could not be started.
+	 */
+	public synchronized int serve(int port) throws IllegalStateException,
+			IOException {
+		if (server != null)
+			throw new IllegalStateException("the metrics are already served!");
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				0);
+		server.createContext("/metrics", new HttpHandler() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver
+			 * .HttpExchange)
+			 */
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = registry.export()
+						.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.setExecutor(null);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Appends the values of all the metrics to the given file every given
+	 * number of milliseconds, as tab separated rows with the time in
+	 * milliseconds since the epoch, the name of the series, the host and the
+	 * value. A header is written when the file is new.
+	 * 
+	 * @param file
+	 *            the file to append to.
+	 * @param interval
+	 *            the interval in milliseconds.
+	 * @throws NullPointerException
+	 *             when the given file is null.
+	 * @throws IllegalArgumentException
+	 *             when the given interval is not positive.
+	 * @throws IllegalStateException
+	 *             when the metrics are already recorded.
+	 */
+	public synchronized void record(final File file, long interval)
+			throws NullPointerException, IllegalArgumentException,
+			IllegalStateException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		if (interval <= 0)
+			throw new IllegalArgumentException(
+					"the interval must be larger than zero!");
+		if (recorder != null)
+			throw new IllegalStateException(
+					"the metrics are already recorded!");
+
+		this.file = file;
+		recorder = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see
+			 * java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+			 */
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metrics-recorder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		recorder.scheduleAtFixedRate(new Runnable() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.lang.Runnable#run()
+			 */
+			@Override
+			public void run() {
+				append(file);
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Appends the current values of all the metrics to the given file.
+	 * 
+	 * @param file
+	 *            the file to append to.
+	 */
+	private void append(File file) {
+		StringBuilder builder = new StringBuilder();
+		if (!file.exists())
+			builder.append("time\tmetric\thost\tvalue\n");
+		registry.sample(builder, System.currentTimeMillis());
+		try (Writer writer = Files.newBufferedWriter(file.toPath(),
+				StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			writer.write(builder.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops serving and recording the metrics. The time series receives a
+	 * last sample.
+	 */
+	@Override
+	public synchronized void close() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (recorder != null) {
+			recorder.shutdown();
+			try {
+				recorder.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			append(file);
+			recorder = null;
+			file = null;
+		}
+	}
+}
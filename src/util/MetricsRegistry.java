@@ -0,0 +1,609 @@
+package util;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A registry of named counters, gauges and histograms, each of which carries
+ * the name of the host it describes (an empty host describes the whole
+ * cluster).
+ * 
+ * The metrics can be exported in the text format of Prometheus, so any
+ * scraper can collect them, or sampled as rows of a time series. Looking up a
+ * metric creates it when it does not exist yet, so the code which records a
+ * metric does not have to declare it up front.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class MetricsRegistry {
+	/**
+	 * The quantiles which are exported for every histogram.
+	 */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	/**
+	 * The registry which is shared by the whole application.
+	 */
+	private static final MetricsRegistry instance = new MetricsRegistry();
+
+	/**
+	 * The metrics by their name and host.
+	 */
+	private final Map<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+	/**
+	 * Returns the registry which is shared by the whole application.
+	 * 
+	 * @return the registry which is shared by the whole application.
+	 */
+	public static MetricsRegistry get() {
+		return instance;
+	}
+
+	/**
+	 * Returns the counter with the given name and host.
+	 * 
+	 * @param name
+	 *            the name of the counter.
+	 * @param host
+	 *            the host the counter describes.
+	 * @throws NullPointerException
+	 *             when the given name or host is null.
+	 * @throws IllegalArgumentException
+	 *             when a metric of another type has the same name and host.
+	 * @return the counter with the given name and host.
+	 */
+	public Counter counter(String name, String host)
+			throws NullPointerException, IllegalArgumentException {
+		return lookup(Counter.class, name, host);
+	}
+
+	/**
+	 * Returns the gauge with the given name and host.
+	 * 
+	 * @param name
+	 *            the name of the gauge.
+	 * @param host
+	 *            the host the gauge describes.
+	 * @throws NullPointerException
+	 *             when the given name or host is null.
+	 * @throws IllegalArgumentException
+	 *             when a metric of another type has the same name and host.
+	 * @return the gauge with the given name and host.
+	 */
+	public Gauge gauge(String name, String host) throws NullPointerException,
+			IllegalArgumentException {
+		return lookup(Gauge.class, name, host);
+	}
+
+	/**
+	 * Returns the histogram with the given name and host.
+	 * 
+	 * @param name
+	 *            the name of the histogram.
+	 * @param host
+	 *            the host the histogram describes.
+	 * @throws NullPointerException
+	 *             when the given name or host is null.
+	 * @throws IllegalArgumentException
+	 *             when a metric of another type has the same name and host.
+	 * @return the histogram with the given name and host.
+	 */
+	public Histogram histogram(String name, String host)
+			throws NullPointerException, IllegalArgumentException {
+		return lookup(Histogram.class, name, host);
+	}
+
+	/**
+	 * Returns the metric of the given type with the given name and host,
+	 * creating it when it does not exist yet.
+	 * 
+	 * @param type
+	 *            the type of the metric.
+	 * @param name
+	 *            the name of the metric.
+	 * @param host
+	 *            the host the metric describes.
+	 * @return the metric of the given type with the given name and host.
+	 */
+	private <T extends Metric> T lookup(Class<T> type, String name,
+			String host) throws NullPointerException, IllegalArgumentException {
+		if (name == null)
+			throw new NullPointerException("the given name is null!");
+		if (host == null)
+			throw new NullPointerException("the given host is null!");
+
+		String key = name + "\0" + host;
+		Metric metric = metrics.get(key);
+		if (metric == null) {
+			Metric created;
+			if (type == Counter.class)
+				created = new Counter(name, host);
+			else if (type == Gauge.class)
+				created = new Gauge(name, host);
+			else
+				created = new Histogram(name, host);
+			metric = metrics.putIfAbsent(key, created);
+			if (metric == null)
+				metric = created;
+		}
+		if (!type.isInstance(metric))
+			throw new IllegalArgumentException("the metric \"" + name
+					+ "\" of \"" + host + "\" is not a "
+					+ type.getSimpleName().toLowerCase(Locale.ROOT) + "!");
+		return type.cast(metric);
+	}
+
+	/**
+	 * Returns all the metrics in the text format of Prometheus.
+	 * 
+	 * @return all the metrics in the text format of Prometheus.
+	 */
+	public String export() {
+		StringBuilder builder = new StringBuilder();
+		String previous = null;
+		for (Metric metric : metrics.values()) {
+			if (!metric.name.equals(previous))
+				builder.append("# TYPE ").append(metric.name).append(' ')
+						.append(metric.getType()).append('\n');
+			previous = metric.name;
+			metric.export(builder);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the current value of every metric to the given builder, as tab
+	 * separated rows with the given time, the name of the series, the host
+	 * and the value. A histogram results in a series for its count, sum,
+	 * quantiles and maximum.
+	 * 
+	 * @param builder
+	 *            the builder to append to.
+	 * @param time
+	 *            the time in milliseconds since the epoch.
+	 * @throws NullPointerException
+	 *             when the given builder is null.
+	 */
+	public void sample(StringBuilder builder, long time)
+			throws NullPointerException {
+		if (builder == null)
+			throw new NullPointerException("the given builder is null!");
+		for (Metric metric : metrics.values())
+			metric.sample(builder, time);
+	}
+
+	/**
+	 * Formats the given value for the exports.
+	 * 
+	 * @param value
+	 *            the value.
+	 * @return the formatted value.
+	 */
+	private static String format(double value) {
+		if (Double.isNaN(value))
+			return "NaN";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		return String.format(Locale.ROOT, "%.6g", value);
+	}
+
+	/**
+	 * A metric of a host.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static abstract class Metric {
+		/**
+		 * The name of the metric.
+		 */
+		public final String name;
+
+		/**
+		 * The host the metric describes (empty for the whole cluster).
+		 */
+		public final String host;
+
+		/**
+		 * Creates a new metric.
+		 * 
+		 * @param name
+		 *            the name of the metric.
+		 * @param host
+		 *            the host the metric describes.
+		 */
+		private Metric(String name, String host) {
+			this.name = name;
+			this.host = host;
+		}
+
+		/**
+		 * Returns the type of the metric as known by Prometheus.
+		 * 
+		 * @return the type of the metric as known by Prometheus.
+		 */
+		protected abstract String getType();
+
+		/**
+		 * Appends the metric in the text format of Prometheus.
+		 * 
+		 * @param builder
+		 *            the builder to append to.
+		 */
+		protected abstract void export(StringBuilder builder);
+
+		/**
+		 * Appends the rows of the time series of the metric.
+		 * 
+		 * @param builder
+		 *            the builder to append to.
+		 * @param time
+		 *            the time in milliseconds since the epoch.
+		 */
+		protected abstract void sample(StringBuilder builder, long time);
+
+		/**
+		 * Appends a line in the text format of Prometheus.
+		 * 
+		 * @param builder
+		 *            the builder to append to.
+		 * @param suffix
+		 *            the suffix of the name of the series.
+		 * @param label
+		 *            an extra label (may be null).
+		 * @param value
+		 *            the value.
+		 */
+		protected void line(StringBuilder builder, String suffix,
+				String label, double value) {
+			builder.append(name).append(suffix);
+			if (!host.isEmpty() || label != null) {
+				builder.append('{');
+				if (!host.isEmpty())
+					builder.append("host=\"").append(host).append('"');
+				if (!host.isEmpty() && label != null)
+					builder.append(',');
+				if (label != null)
+					builder.append(label);
+				builder.append('}');
+			}
+			builder.append(' ').append(format(value)).append('\n');
+		}
+
+		/**
+		 * Appends a row of the time series.
+		 * 
+		 * @param builder
+		 *            the builder to append to.
+		 * @param time
+		 *            the time in milliseconds since the epoch.
+		 * @param suffix
+		 *            the suffix of the name of the series.
+		 * @param value
+		 *            the value.
+		 */
+		protected void row(StringBuilder builder, long time, String suffix,
+				double value) {
+			builder.append(time).append('\t').append(name).append(suffix)
+					.append('\t').append(host).append('\t')
+					.append(format(value)).append('\n');
+		}
+	}
+
+	/**
+	 * A value which only increases.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static class Counter extends Metric {
+		/**
+		 * The value of the counter.
+		 */
+		private final AtomicLong value = new AtomicLong();
+
+		/**
+		 * Creates a new counter.
+		 * 
+		 * @param name
+		 *            the name of the counter.
+		 * @param host
+		 *            the host the counter describes.
+		 */
+		private Counter(String name, String host) {
+			super(name, host);
+		}
+
+		/**
+		 * Increments the counter by one.
+		 */
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		/**
+		 * Increments the counter by the given amount.
+		 * 
+		 * @param amount
+		 *            the amount.
+		 * @throws IllegalArgumentException
+		 *             when the given amount is negative.
+		 */
+		public void add(long amount) throws IllegalArgumentException {
+			if (amount < 0)
+				throw new IllegalArgumentException(
+						"a counter cannot decrease!");
+			value.addAndGet(amount);
+		}
+
+		/**
+		 * Returns the value of the counter.
+		 * 
+		 * @return the value of the counter.
+		 */
+		public long get() {
+			return value.get();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#getType()
+		 */
+		@Override
+		protected String getType() {
+			return "counter";
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#export(java.lang.StringBuilder)
+		 */
+		@Override
+		protected void export(StringBuilder builder) {
+			line(builder, "", null, get());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#sample(java.lang.StringBuilder,
+		 * long)
+		 */
+		@Override
+		protected void sample(StringBuilder builder, long time) {
+			row(builder, time, "", get());
+		}
+	}
+
+	/**
+	 * A value which can go up and down.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static class Gauge extends Metric {
+		/**
+		 * The value of the gauge.
+		 */
+		private volatile double value = 0;
+
+		/**
+		 * Creates a new gauge.
+		 * 
+		 * @param name
+		 *            the name of the gauge.
+		 * @param host
+		 *            the host the gauge describes.
+		 */
+		private Gauge(String name, String host) {
+			super(name, host);
+		}
+
+		/**
+		 * Sets the value of the gauge.
+		 * 
+		 * @param value
+		 *            the value.
+		 */
+		public void set(double value) {
+			this.value = value;
+		}
+
+		/**
+		 * Returns the value of the gauge.
+		 * 
+		 * @return the value of the gauge.
+		 */
+		public double get() {
+			return value;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#getType()
+		 */
+		@Override
+		protected String getType() {
+			return "gauge";
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#export(java.lang.StringBuilder)
+		 */
+		@Override
+		protected void export(StringBuilder builder) {
+			line(builder, "", null, get());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#sample(java.lang.StringBuilder,
+		 * long)
+		 */
+		@Override
+		protected void sample(StringBuilder builder, long time) {
+			row(builder, time, "", get());
+		}
+	}
+
+	/**
+	 * The distribution of a measured value, kept in constant memory by a
+	 * {@link StreamingStatistics}.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	public static class Histogram extends Metric {
+		/**
+		 * The statistics of the measured values.
+		 */
+		private final StreamingStatistics statistics = new StreamingStatistics();
+
+		/**
+		 * The sum of the measured values.
+		 */
+		private final CompensatedSum sum = new CompensatedSum();
+
+		/**
+		 * The lock guarding the statistics.
+		 */
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * Creates a new histogram.
+		 * 
+		 * @param name
+		 *            the name of the histogram.
+		 * @param host
+		 *            the host the histogram describes.
+		 */
+		private Histogram(String name, String host) {
+			super(name, host);
+		}
+
+		/**
+		 * Adds the given measured value.
+		 * 
+		 * @param value
+		 *            the value.
+		 */
+		public void add(double value) {
+			lock.lock();
+			try {
+				statistics.add(value);
+				sum.add(value);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the number of measured values.
+		 * 
+		 * @return the number of measured values.
+		 */
+		public long size() {
+			lock.lock();
+			try {
+				return statistics.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns an estimate of the given quantile of the measured values.
+		 * 
+		 * @param q
+		 *            the quantile (between 0 and 1).
+		 * @throws IllegalArgumentException
+		 *             when the quantile does not lie between 0 and 1.
+		 * @return an estimate of the given quantile, or NaN when nothing was
+		 *         measured.
+		 */
+		public double getQuantile(double q) throws IllegalArgumentException {
+			lock.lock();
+			try {
+				return statistics.getQuantile(q);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns the values which are exported: the quantiles, the count,
+		 * the sum and the maximum.
+		 * 
+		 * @return the values which are exported.
+		 */
+		private double[] values() {
+			lock.lock();
+			try {
+				double[] values = new double[QUANTILES.length + 3];
+				for (int i = 0; i < QUANTILES.length; ++i)
+					values[i] = statistics.getQuantile(QUANTILES[i]);
+				values[QUANTILES.length] = statistics.size();
+				values[QUANTILES.length + 1] = sum.getSum();
+				values[QUANTILES.length + 2] = statistics.size() == 0 ? Double.NaN
+						: statistics.getMaximum();
+				return values;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#getType()
+		 */
+		@Override
+		protected String getType() {
+			return "summary";
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#export(java.lang.StringBuilder)
+		 */
+		@Override
+		protected void export(StringBuilder builder) {
+			double[] values = values();
+			for (int i = 0; i < QUANTILES.length; ++i)
+				line(builder, "", "quantile=\"" + QUANTILES[i] + "\"",
+						values[i]);
+			line(builder, "_count", null, values[QUANTILES.length]);
+			line(builder, "_sum", null, values[QUANTILES.length + 1]);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see util.MetricsRegistry.Metric#sample(java.lang.StringBuilder,
+		 * long)
+		 */
+		@Override
+		protected void sample(StringBuilder builder, long time) {
+			double[] values = values();
+			for (int i = 0; i < QUANTILES.length; ++i)
+				row(builder, time,
+						String.format(Locale.ROOT, "_p%d",
+								Math.round(100 * QUANTILES[i])), values[i]);
+			row(builder, time, "_count", values[QUANTILES.length]);
+			row(builder, time, "_sum", values[QUANTILES.length + 1]);
+			row(builder, time, "_max", values[QUANTILES.length + 2]);
+		}
+	}
+}
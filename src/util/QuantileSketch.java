@@ -0,0 +1,278 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A bounded memory sketch which estimates the quantiles of a stream of data
+ * (a KLL sketch).
+ * 
+ * The data is kept in a hierarchy of compactors. Every item in the compactor
+ * at level h represents 2^h items of the stream. When a compactor is full, it
+ * is sorted and every other item is promoted to the next level. The memory
+ * usage is O(k log(n/k)) and the rank error is roughly 1.7 / k.
+ * 
+ * Sketches can be merged, which allows data to be summarized by several
+ * threads in parallel. The sketch uses a fixed seed, so adding and merging
+ * the same data in the same order always gives the same estimates.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class QuantileSketch {
+	/**
+	 * The default size of the largest compactor.
+	 */
+	public static final int DEFAULT_K = 200;
+
+	/**
+	 * The ratio between the capacities of successive compactors.
+	 */
+	private static final double RATIO = 2.0 / 3.0;
+
+	/**
+	 * The size of the largest compactor.
+	 */
+	private final int k;
+
+	/**
+	 * The compactors, starting from the lowest level.
+	 */
+	private final List<Compactor> compactors = new ArrayList<Compactor>();
+
+	/**
+	 * Decides which half of a compactor is promoted.
+	 */
+	private final Random random = new Random(0);
+
+	/**
+	 * The capacities of the compactors.
+	 */
+	private int[] capacities;
+
+	/**
+	 * The number of items stored in all the compactors.
+	 */
+	private int storedItems = 0;
+
+	/**
+	 * The sum of the capacities of all the compactors.
+	 */
+	private int totalCapacity;
+
+	/**
+	 * The number of items added to the sketch.
+	 */
+	private long n = 0;
+
+	/**
+	 * Creates a new sketch with the default accuracy.
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Creates a new sketch with the given accuracy.
+	 * 
+	 * @param k
+	 *            the size of the largest compactor.
+	 * @throws IllegalArgumentException
+	 *             when k is smaller than 8.
+	 */
+	public QuantileSketch(int k) throws IllegalArgumentException {
+		if (k < 8)
+			throw new IllegalArgumentException("k must be at least 8!");
+		this.k = k;
+		addCompactor();
+	}
+
+	/**
+	 * Adds the given value to the sketch.
+	 * 
+	 * @param value
+	 *            the value to add.
+	 */
+	public void add(double value) {
+		compactors.get(0).add(value);
+		++n;
+		if (++storedItems >= totalCapacity)
+			compress();
+	}
+
+	/**
+	 * Merges the given sketch into this sketch.
+	 * 
+	 * @param other
+	 *            the sketch to merge.
+	 * @throws NullPointerException
+	 *             when the given sketch is null.
+	 */
+	public void merge(QuantileSketch other) throws NullPointerException {
+		if (other == null)
+			throw new NullPointerException("the given sketch is null!");
+
+		for (int h = 0; h < other.compactors.size(); ++h) {
+			if (h == compactors.size())
+				addCompactor();
+			Compactor source = other.compactors.get(h);
+			Compactor destination = compactors.get(h);
+			for (int i = 0; i < source.size; ++i)
+				destination.add(source.data[i]);
+			storedItems += source.size;
+		}
+		n += other.n;
+		while (storedItems >= totalCapacity)
+			compress();
+	}
+
+	/**
+	 * Returns the number of items added to the sketch.
+	 * 
+	 * @return the number of items added to the sketch.
+	 */
+	public long size() {
+		return n;
+	}
+
+	/**
+	 * Returns an estimate of the given quantile of the data.
+	 * 
+	 * @param q
+	 *            the quantile (between 0 and 1).
+	 * @throws IllegalArgumentException
+	 *             when the quantile does not lie between 0 and 1.
+	 * @return an estimate of the given quantile, or NaN when the sketch is
+	 *         empty.
+	 */
+	public double getQuantile(double q) throws IllegalArgumentException {
+		if (!(q >= 0 && q <= 1))
+			throw new IllegalArgumentException(
+					"the quantile must lie between 0 and 1!");
+		if (n == 0)
+			return Double.NaN;
+
+		int items = 0;
+		for (Compactor compactor : compactors)
+			items += compactor.size;
+
+		double[] values = new double[items];
+		long[] weights = new long[items];
+		Integer[] order = new Integer[items];
+
+		int index = 0;
+		long total = 0;
+		for (int h = 0; h < compactors.size(); ++h) {
+			Compactor compactor = compactors.get(h);
+			for (int i = 0; i < compactor.size; ++i, ++index) {
+				values[index] = compactor.data[i];
+				weights[index] = 1L << h;
+				order[index] = index;
+				total += 1L << h;
+			}
+		}
+
+		final double[] v = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.util.Comparator#compare(java.lang.Object,
+			 * java.lang.Object)
+			 */
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(v[a], v[b]);
+			}
+		});
+
+		double rank = q * total;
+		long cumulative = 0;
+		for (int i = 0; i < items; ++i) {
+			cumulative += weights[order[i]];
+			if (cumulative >= rank)
+				return values[order[i]];
+		}
+		return values[order[items - 1]];
+	}
+
+	/**
+	 * Adds a compactor at the top of the hierarchy and updates the
+	 * capacities of the compactors.
+	 */
+	private void addCompactor() {
+		compactors.add(new Compactor());
+
+		final int levels = compactors.size();
+		capacities = new int[levels];
+		totalCapacity = 0;
+		for (int h = 0; h < levels; ++h) {
+			int depth = levels - h - 1;
+			capacities[h] = Math.max(2,
+					(int) Math.ceil(k * Math.pow(RATIO, depth)));
+			totalCapacity += capacities[h];
+		}
+	}
+
+	/**
+	 * Compacts the lowest compactor which exceeds its capacity.
+	 */
+	private void compress() {
+		for (int h = 0; h < compactors.size(); ++h) {
+			Compactor compactor = compactors.get(h);
+			if (compactor.size < capacities[h])
+				continue;
+			if (h + 1 == compactors.size())
+				addCompactor();
+			storedItems -= compactor.compact(compactors.get(h + 1),
+					random.nextBoolean());
+			return;
+		}
+	}
+
+	/**
+	 * A growable buffer of items which all have the same weight.
+	 */
+	private static class Compactor {
+		private double[] data = new double[16];
+		private int size = 0;
+
+		/**
+		 * 
+		 * @param value
+		 */
+		public void add(double value) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * size);
+			data[size++] = value;
+		}
+
+		/**
+		 * Sorts the items and promotes every other item to the given
+		 * compactor. When the number of items is odd, the largest item
+		 * remains.
+		 * 
+		 * @param next
+		 *            the compactor at the next level.
+		 * @param odd
+		 *            whether the items at the odd or even positions are
+		 *            promoted.
+		 * @return the number of items by which the sketch shrunk.
+		 */
+		public int compact(Compactor next, boolean odd) {
+			Arrays.sort(data, 0, size);
+			int pairs = size / 2;
+			for (int i = 0; i < pairs; ++i)
+				next.add(data[2 * i + (odd ? 1 : 0)]);
+			if (size % 2 == 1) {
+				data[0] = data[size - 1];
+				size = 1;
+			} else
+				size = 0;
+			return pairs;
+		}
+	}
+}
@@ -1,13 +1,17 @@
 package util;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Allows to calculate statistics of data.
  * 
+ * All the data is kept in a growable array of doubles, so the median and the
+ * percentiles are exact. They are found with quickselect in linear time
+ * instead of sorting the data. Use {@link StreamingStatistics} when the data
+ * does not fit in memory.
+ * 
  * @author Niels Billen
  * @version 0.1
  */
@@ -33,14 +37,20 @@ public class Statistics implements Iterable<Double> {
 	private double variance = 0;
 
 	/**
-	 * List containing the data (required for finding the median value).
+	 * Array containing the data (required for finding the median value). Only
+	 * the first size elements are used, in no particular order.
 	 */
-	private final List<Double> data = new ArrayList<Double>();
+	private double[] data = new double[16];
 
 	/**
-	 * Boolean flag to check whether the data is sorted.
+	 * The amount of data values.
 	 */
-	private boolean isSorted = true;
+	private int size = 0;
+
+	/**
+	 * The cached median value of the data (NaN when it has to be recomputed).
+	 */
+	private double median = Double.NaN;
 
 	/**
 	 * 
@@ -57,6 +67,23 @@ public class Statistics implements Iterable<Double> {
 			add(data);
 	}
 
+	/**
+	 * Adds all the data of the given statistics without boxing the values.
+	 * 
+	 * @param statistics
+	 *            the statistics whose data to add.
+	 * @throws NullPointerException
+	 *             when the given statistics are null.
+	 */
+	public void add(Statistics statistics) throws NullPointerException {
+		if (statistics == null)
+			throw new NullPointerException("the given statistics are null!");
+		final int n = statistics.size;
+		ensureCapacity(size + n);
+		for (int i = 0; i < n; ++i)
+			add(statistics.data[i]);
+	}
+
 	/**
 	 * 
 	 * @param iterator
@@ -105,8 +132,22 @@ public class Statistics implements Iterable<Double> {
 		variance = variance + (value - average) * (value - oldAverage);
 		minimum = Math.min(minimum, value);
 		maximum = Math.max(maximum, value);
-		data.add(value);
-		isSorted = false;
+		ensureCapacity(n + 1);
+		data[size++] = value;
+		median = Double.NaN;
+	}
+
+	/**
+	 * Grows the data array so it can hold at least the given amount of
+	 * values.
+	 * 
+	 * @param capacity
+	 *            the required capacity.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > data.length)
+			data = Arrays.copyOf(data,
+					Math.max(capacity, data.length + (data.length >> 1)));
 	}
 
 	/**
@@ -133,22 +174,101 @@ public class Statistics implements Iterable<Double> {
 	 * @return the median value of the statistic.
 	 */
 	public double getMedian() {
-		if (data.isEmpty())
+		if (size == 0)
 			return Double.NaN;
+		if (Double.isNaN(median))
+			median = getPercentile(0.5);
+		return median;
+	}
 
-		if (!isSorted) {
-			isSorted = true;
-			Collections.sort(data);
-		}
+	/**
+	 * Returns the given percentile of the data. The percentile is linearly
+	 * interpolated between the two closest ranks, so the percentile 0.5 is the
+	 * median.
+	 * 
+	 * @param p
+	 *            the percentile (between 0 and 1).
+	 * @throws IllegalArgumentException
+	 *             when the percentile does not lie between 0 and 1.
+	 * @return the given percentile of the data.
+	 */
+	public double getPercentile(double p) throws IllegalArgumentException {
+		if (!(p >= 0 && p <= 1))
+			throw new IllegalArgumentException(
+					"the percentile must lie between 0 and 1!");
+		if (size == 0)
+			return Double.NaN;
+
+		final double rank = p * (size - 1);
+		final int lower = (int) Math.floor(rank);
+		final double t = rank - lower;
+
+		select(data, 0, size, lower);
+		if (t == 0)
+			return data[lower];
+
+		// everything after the lower rank is at least as large, so the next
+		// rank is the smallest value of that part
+		double upper = data[lower + 1];
+		for (int i = lower + 2; i < size; ++i)
+			if (Double.compare(data[i], upper) < 0)
+				upper = data[i];
+		return data[lower] * (1 - t) + t * upper;
+	}
+
+	/**
+	 * Partially reorders the given range of the array so the element at the
+	 * given index is the one which would be there when the range was sorted.
+	 * All the elements before it are smaller than or equal to it and all the
+	 * elements after it are larger than or equal to it.
+	 * 
+	 * @param array
+	 *            the array to reorder.
+	 * @param from
+	 *            the first index of the range (inclusive).
+	 * @param to
+	 *            the last index of the range (exclusive).
+	 * @param index
+	 *            the index of the element to select.
+	 */
+	private static void select(double[] array, int from, int to, int index) {
+		while (to - from > 16) {
+			// median of three pivot
+			final int middle = (from + to) >>> 1;
+			double a = array[from], b = array[middle], c = array[to - 1];
+			final double pivot = Double.compare(a, b) < 0 ? (Double.compare(b,
+					c) < 0 ? b : (Double.compare(a, c) < 0 ? c : a)) : (Double
+					.compare(a, c) < 0 ? a : (Double.compare(b, c) < 0 ? c : b));
 
-		final int n = data.size();
+			int i = from, j = to - 1;
+			while (i <= j) {
+				while (Double.compare(array[i], pivot) < 0)
+					++i;
+				while (Double.compare(pivot, array[j]) < 0)
+					--j;
+				if (i <= j) {
+					final double swap = array[i];
+					array[i++] = array[j];
+					array[j--] = swap;
+				}
+			}
 
-		if (n % 2 == 0) {
-			int offset = n / 2;
+			if (index <= j)
+				to = j + 1;
+			else if (index >= i)
+				from = i;
+			else
+				return;
+		}
 
-			return data.get(offset) * 0.5 + 0.5 * data.get(offset - 1);
-		} else
-			return data.get(n / 2);
+		// insertion sort for the small remaining range
+		for (int i = from + 1; i < to; ++i) {
+			final double value = array[i];
+			int j = i - 1;
+			for (; j >= from && Double.compare(array[j], value) > 0; --j)
+				array[j + 1] = array[j];
+			array[j + 1] = value;
+		}
 	}
 
 	/**
@@ -195,7 +315,7 @@ public class Statistics implements Iterable<Double> {
 	 * @return the amount of data values.
 	 */
 	public int size() {
-		return data.size();
+		return size;
 	}
 
 	/*
@@ -217,17 +337,41 @@ public class Statistics implements Iterable<Double> {
 				getMinimum(), getMaximum());
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Returns an iterator over the data. The values are returned in no
+	 * particular order.
 	 * 
-	 * @see java.lang.Iterable#iterator()
+	 * @return an iterator over the data.
 	 */
 	@Override
 	public Iterator<Double> iterator() {
-		if (!isSorted) {
-			isSorted = true;
-			Collections.sort(data);
-		}
-		return data.iterator();
+		return new Iterator<Double>() {
+			/**
+			 * The index of the next value.
+			 */
+			private int index = 0;
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.util.Iterator#hasNext()
+			 */
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			/*
+			 * (non-Javadoc)
+			 * 
+			 * @see java.util.Iterator#next()
+			 */
+			@Override
+			public Double next() {
+				if (index >= size)
+					throw new NoSuchElementException();
+				return data[index++];
+			}
+		};
 	}
-}
+}
\ No newline at end of file
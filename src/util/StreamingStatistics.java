@@ -0,0 +1,207 @@
+package util;
+
+/**
+ * Allows to calculate statistics of a stream of data in constant memory.
+ * 
+ * The average, variance, minimum and maximum are exact. The median and the
+ * other quantiles are estimated with a {@link QuantileSketch}. Statistics
+ * which were collected separately (for example by different threads) can be
+ * merged.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class StreamingStatistics {
+	/**
+	 * The minimum value of the data.
+	 */
+	private double minimum = Double.POSITIVE_INFINITY;
+
+	/**
+	 * The maximum value of the data.
+	 */
+	private double maximum = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * The average value of the data.
+	 */
+	private double average = 0;
+
+	/**
+	 * The sum of the squared differences from the average.
+	 */
+	private double variance = 0;
+
+	/**
+	 * The amount of data values.
+	 */
+	private long n = 0;
+
+	/**
+	 * Estimates the quantiles of the data.
+	 */
+	private final QuantileSketch sketch;
+
+	/**
+	 * Creates empty statistics with the default accuracy for the quantiles.
+	 */
+	public StreamingStatistics() {
+		this(QuantileSketch.DEFAULT_K);
+	}
+
+	/**
+	 * Creates empty statistics with the given accuracy for the quantiles.
+	 * 
+	 * @param k
+	 *            the accuracy of the quantile sketch.
+	 * @throws IllegalArgumentException
+	 *             when k is smaller than 8.
+	 */
+	public StreamingStatistics(int k) throws IllegalArgumentException {
+		sketch = new QuantileSketch(k);
+	}
+
+	/**
+	 * Adds the given value to the statistics.
+	 * 
+	 * @param value
+	 *            the value to add.
+	 */
+	public void add(double value) {
+		++n;
+		final double delta = value - average;
+		average += delta / n;
+		variance += delta * (value - average);
+		if (value < minimum)
+			minimum = value;
+		if (value > maximum)
+			maximum = value;
+		sketch.add(value);
+	}
+
+	/**
+	 * Merges the given statistics into these statistics.
+	 * 
+	 * @param other
+	 *            the statistics to merge.
+	 * @throws NullPointerException
+	 *             when the given statistics are null.
+	 * @return these statistics.
+	 */
+	public StreamingStatistics merge(StreamingStatistics other)
+			throws NullPointerException {
+		if (other == null)
+			throw new NullPointerException("the given statistics are null!");
+		if (other.n == 0)
+			return this;
+
+		final long total = n + other.n;
+		final double delta = other.average - average;
+		average += delta * other.n / total;
+		variance += other.variance + delta * delta * n * other.n / total;
+		n = total;
+		minimum = Math.min(minimum, other.minimum);
+		maximum = Math.max(maximum, other.maximum);
+		sketch.merge(other.sketch);
+		return this;
+	}
+
+	/**
+	 * Returns the minimum value of the data.
+	 * 
+	 * @return the minimum value of the data.
+	 */
+	public double getMinimum() {
+		return minimum;
+	}
+
+	/**
+	 * Returns the maximum value of the data.
+	 * 
+	 * @return the maximum value of the data.
+	 */
+	public double getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Returns an estimate of the median value of the data.
+	 * 
+	 * @return an estimate of the median value of the data.
+	 */
+	public double getMedian() {
+		return getQuantile(0.5);
+	}
+
+	/**
+	 * Returns an estimate of the given quantile of the data.
+	 * 
+	 * @param q
+	 *            the quantile (between 0 and 1).
+	 * @throws IllegalArgumentException
+	 *             when the quantile does not lie between 0 and 1.
+	 * @return an estimate of the given quantile of the data.
+	 */
+	public double getQuantile(double q) throws IllegalArgumentException {
+		return sketch.getQuantile(q);
+	}
+
+	/**
+	 * Returns the average value of the data.
+	 * 
+	 * @return the average value of the data.
+	 */
+	public double getAverage() {
+		return average;
+	}
+
+	/**
+	 * Returns the variance of the data.
+	 * 
+	 * @return the variance of the data.
+	 */
+	public double getVariance() {
+		if (n == 0)
+			return Double.POSITIVE_INFINITY;
+		else if (n == 1)
+			return 0;
+		return variance / (n - 1);
+	}
+
+	/**
+	 * Returns the standard deviation of the data.
+	 * 
+	 * @return the standard deviation of the data.
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Returns the amount of data values.
+	 * 
+	 * @return the amount of data values.
+	 */
+	public long size() {
+		return n;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format(
+				"[ Statistics ]:\n" + "n:                  %d\n"
+						+ "average:            %.10f\n"
+						+ "median:             %.10f\n"
+						+ "standard deviation: %.10f\n"
+						+ "variance:           %.10f\n"
+						+ "minimum:            %.10f\n"
+						+ "maximum:            %.10f\n", size(), getAverage(),
+				getMedian(), getStandardDeviation(), getVariance(),
+				getMinimum(), getMaximum());
+	}
+}
@@ -0,0 +1,320 @@
+package util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads the regular files from a stream in the (ustar) tar format, one entry
+ * at a time. Directories and other special entries are skipped. Names which
+ * do not fit in a ustar header are read from the long name entries of GNU
+ * tar and the path records of pax extended headers.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class TarReader {
+	/**
+	 * The stream to read from.
+	 */
+	private final InputStream stream;
+
+	/**
+	 * The maximum size in bytes of a long name entry or extended header.
+	 */
+	private static final int MAX_EXTENDED_SIZE = 1 << 20;
+
+	/**
+	 * The header block of the current entry.
+	 */
+	private final byte[] header = new byte[TarWriter.BLOCK_SIZE];
+
+	/**
+	 * Buffer for copying the contents of the entries.
+	 */
+	private final byte[] buffer = new byte[8192];
+
+	/**
+	 * The name of the current entry (null when there is none).
+	 */
+	private String name;
+
+	/**
+	 * The size in bytes of the current entry.
+	 */
+	private long size;
+
+	/**
+	 * The number of bytes of the current entry (including the padding) which
+	 * were not read yet.
+	 */
+	private long remaining = 0;
+
+	/**
+	 * Creates a new tar reader which reads from the given stream.
+	 * 
+	 * @param stream
+	 *            the stream to read from.
+	 * @throws NullPointerException
+	 *             when the given stream is null.
+	 */
+	public TarReader(InputStream stream) throws NullPointerException {
+		if (stream == null)
+			throw new NullPointerException("the given stream is null!");
+		this.stream = stream;
+	}
+
+	/**
+	 * Advances to the next regular file in the archive, skipping the rest of
+	 * the current one.
+	 * 
+	 * @return whether there is a next file.
+	 * @throws IOException
+	 *             when the archive is malformed or could not be read.
+	 */
+	public boolean next() throws IOException {
+		skip(remaining);
+		remaining = 0;
+
+		// the name of the next entry given by a long name entry or extended
+		// header (null when the name in its own header applies)
+		String longName = null;
+		while (true) {
+			if (!readBlock(header)) {
+				name = null;
+				return false;
+			}
+
+			boolean empty = true;
+			for (byte b : header)
+				if (b != 0) {
+					empty = false;
+					break;
+				}
+			if (empty) {
+				name = null;
+				return false;
+			}
+
+			String entryName = get(0, 100);
+			String prefix = get(345, 155);
+			if (!prefix.isEmpty() && get(257, 5).equals("ustar"))
+				entryName = prefix + "/" + entryName;
+			String sizeField = get(124, 12).trim();
+			long entrySize = sizeField.isEmpty() ? 0 : Long.parseLong(
+					sizeField, 8);
+			long padded = (entrySize + TarWriter.BLOCK_SIZE - 1)
+					/ TarWriter.BLOCK_SIZE * TarWriter.BLOCK_SIZE;
+			byte type = header[156];
+
+			if (type == 'L') {
+				longName = readExtended(entrySize, padded);
+				int end = longName.indexOf('\0');
+				if (end >= 0)
+					longName = longName.substring(0, end);
+				continue;
+			}
+			if (type == 'x') {
+				String path = getPath(readExtended(entrySize, padded));
+				if (path != null)
+					longName = path;
+				continue;
+			}
+			if (type == '0' || type == 0) {
+				if (longName != null)
+					entryName = longName;
+				name = entryName.startsWith("./") ? entryName.substring(2)
+						: entryName;
+				size = entrySize;
+				remaining = padded;
+				return true;
+			}
+			longName = null;
+			skip(padded);
+		}
+	}
+
+	/**
+	 * Reads the contents of a long name entry or an extended header.
+	 * 
+	 * @param size
+	 *            the size of the contents.
+	 * @param padded
+	 *            the size of the contents including the padding.
+	 * @return the contents.
+	 * @throws IOException
+	 *             when the contents are too large or could not be read.
+	 */
+	private String readExtended(long size, long padded) throws IOException {
+		if (size > MAX_EXTENDED_SIZE)
+			throw new IOException("the extended header of " + size
+					+ " bytes is too large!");
+		byte[] contents = new byte[(int) size];
+		int offset = 0;
+		while (offset < contents.length) {
+			int n = stream.read(contents, offset, contents.length - offset);
+			if (n < 0)
+				throw new EOFException("unexpected end of the archive!");
+			offset += n;
+		}
+		skip(padded - size);
+		return new String(contents, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the path in the given records of a pax extended header. Every
+	 * record has the form "<length> <key>=<value>\n", where the length
+	 * counts the bytes of the whole record.
+	 * 
+	 * @param records
+	 *            the records.
+	 * @return the path in the given records (null when there is none).
+	 * @throws IOException
+	 *             when the records are malformed.
+	 */
+	private static String getPath(String records) throws IOException {
+		byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+		String path = null;
+		int offset = 0;
+		while (offset < bytes.length) {
+			int space = offset;
+			while (space < bytes.length && bytes[space] != ' ')
+				++space;
+			int length;
+			try {
+				length = Integer.parseInt(new String(bytes, offset, space
+						- offset, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				throw new IOException("malformed extended header!", e);
+			}
+			if (length <= space - offset || offset + length > bytes.length)
+				throw new IOException("malformed extended header!");
+			String record = new String(bytes, space + 1, offset + length
+					- space - 2, StandardCharsets.UTF_8);
+			if (record.startsWith("path="))
+				path = record.substring(5);
+			offset += length;
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the name of the current file.
+	 * 
+	 * @return the name of the current file.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the size in bytes of the current file.
+	 * 
+	 * @return the size in bytes of the current file.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Copies the contents of the current file to the given stream.
+	 * 
+	 * @param out
+	 *            the stream to copy to.
+	 * @throws IllegalStateException
+	 *             when there is no current file or it was already copied.
+	 * @throws IOException
+	 *             when an exception occurs while copying.
+	 */
+	public void copy(OutputStream out) throws IllegalStateException,
+			IOException {
+		if (name == null || remaining == 0 && size > 0)
+			throw new IllegalStateException("there is no file to copy!");
+
+		long left = size;
+		while (left > 0) {
+			int n = stream.read(buffer, 0, (int) Math.min(buffer.length, left));
+			if (n < 0)
+				throw new EOFException("unexpected end of the archive!");
+			out.write(buffer, 0, n);
+			left -= n;
+		}
+		skip(remaining - size);
+		remaining = 0;
+	}
+
+	/**
+	 * Copies the contents of the current file to the given file.
+	 * 
+	 * @param file
+	 *            the file to copy to.
+	 * @throws IOException
+	 *             when an exception occurs while copying.
+	 */
+	public void copy(File file) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			copy(out);
+		}
+	}
+
+	/**
+	 * Reads a full block.
+	 * 
+	 * @param block
+	 *            the block to read.
+	 * @return false when the stream ended before the block.
+	 * @throws IOException
+	 *             when the stream ends in the middle of the block.
+	 */
+	private boolean readBlock(byte[] block) throws IOException {
+		int offset = 0;
+		while (offset < block.length) {
+			int n = stream.read(block, offset, block.length - offset);
+			if (n < 0) {
+				if (offset == 0)
+					return false;
+				throw new EOFException("unexpected end of the archive!");
+			}
+			offset += n;
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the given number of bytes.
+	 * 
+	 * @param n
+	 *            the number of bytes to skip.
+	 * @throws IOException
+	 *             when the stream ends early.
+	 */
+	private void skip(long n) throws IOException {
+		while (n > 0) {
+			int read = stream.read(buffer, 0, (int) Math.min(buffer.length, n));
+			if (read < 0)
+				throw new EOFException("unexpected end of the archive!");
+			n -= read;
+		}
+	}
+
+	/**
+	 * Returns the null terminated string in the given field of the header.
+	 * 
+	 * @param offset
+	 *            the offset of the field.
+	 * @param length
+	 *            the length of the field.
+	 * @return the string in the given field.
+	 */
+	private String get(int offset, int length) {
+		int end = offset;
+		while (end < offset + length && header[end] != 0)
+			++end;
+		return new String(header, offset, end - offset,
+				StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,248 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Writes regular files to a stream in the (ustar) tar format, so a set of
+ * files can be transferred in a single stream and be unpacked with
+ * <code>tar -x</code>.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class TarWriter implements Closeable {
+	/**
+	 * The size of a tar block in bytes.
+	 */
+	static final int BLOCK_SIZE = 512;
+
+	/**
+	 * The stream to write to.
+	 */
+	private final OutputStream stream;
+
+	/**
+	 * Buffer for copying the contents of the files.
+	 */
+	private final byte[] buffer = new byte[8192];
+
+	/**
+	 * Creates a new tar writer which writes to the given stream.
+	 * 
+	 * @param stream
+	 *            the stream to write to.
+	 * @throws NullPointerException
+	 *             when the given stream is null.
+	 */
+	public TarWriter(OutputStream stream) throws NullPointerException {
+		if (stream == null)
+			throw new NullPointerException("the given stream is null!");
+		this.stream = stream;
+	}
+
+	/**
+	 * Adds the given file to the archive under the given name.
+	 * 
+	 * @param name
+	 *            the name of the file in the archive (directories are
+	 *            separated by slashes).
+	 * @param file
+	 *            the file to add.
+	 * @throws NullPointerException
+	 *             when the given name or file is null.
+	 * @throws IllegalArgumentException
+	 *             when the name is too long for the tar format.
+	 * @throws IOException
+	 *             when an exception occurs while reading the file or writing
+	 *             the archive.
+	 */
+	public void add(String name, File file) throws NullPointerException,
+			IllegalArgumentException, IOException {
+		if (file == null)
+			throw new NullPointerException("the given file is null!");
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			add(name, file.length(), in);
+		}
+	}
+
+	/**
+	 * Adds the given bytes to the archive as a file with the given name.
+	 * 
+	 * @param name
+	 *            the name of the file in the archive.
+	 * @param data
+	 *            the contents of the file.
+	 * @throws NullPointerException
+	 *             when the given name or data is null.
+	 * @throws IllegalArgumentException
+	 *             when the name is too long for the tar format.
+	 * @throws IOException
+	 *             when an exception occurs while writing the archive.
+	 */
+	public void add(String name, byte[] data) throws NullPointerException,
+			IllegalArgumentException, IOException {
+		if (data == null)
+			throw new NullPointerException("the given data is null!");
+		writeHeader(name, data.length);
+		stream.write(data);
+		pad(data.length);
+	}
+
+	/**
+	 * Adds a file with the given name and size to the archive, whose contents
+	 * are read from the given stream.
+	 * 
+	 * @param name
+	 *            the name of the file in the archive.
+	 * @param size
+	 *            the number of bytes of the file.
+	 * @param in
+	 *            the stream containing the contents of the file.
+	 * @throws NullPointerException
+	 *             when the given name or stream is null.
+	 * @throws IllegalArgumentException
+	 *             when the name is too long for the tar format.
+	 * @throws IOException
+	 *             when the stream ends early or an exception occurs while
+	 *             writing the archive.
+	 */
+	public void add(String name, long size, InputStream in)
+			throws NullPointerException, IllegalArgumentException, IOException {
+		if (in == null)
+			throw new NullPointerException("the given stream is null!");
+		writeHeader(name, size);
+
+		long remaining = size;
+		while (remaining > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (n < 0)
+				throw new IOException("unexpected end of the file \"" + name
+						+ "\"!");
+			stream.write(buffer, 0, n);
+			remaining -= n;
+		}
+		pad(size);
+	}
+
+	/**
+	 * Writes the end of the archive and flushes the stream. The underlying
+	 * stream is not closed.
+	 * 
+	 * @throws IOException
+	 *             when an exception occurs while writing the archive.
+	 */
+	public void finish() throws IOException {
+		stream.write(new byte[2 * BLOCK_SIZE]);
+		stream.flush();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+		stream.close();
+	}
+
+	/**
+	 * Writes the header of a regular file.
+	 * 
+	 * @param name
+	 *            the name of the file.
+	 * @param size
+	 *            the size of the file in bytes.
+	 * @throws IOException
+	 *             when an exception occurs while writing the archive.
+	 */
+	private void writeHeader(String name, long size) throws IOException {
+		if (name == null)
+			throw new NullPointerException("the given name is null!");
+
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		String prefix = "";
+		if (bytes.length > 100) {
+			// long names are split over the prefix and name fields
+			int index = name.lastIndexOf('/', name.length() - 1);
+			while (index > 0
+					&& name.substring(index + 1).getBytes(
+							StandardCharsets.UTF_8).length <= 100
+					&& name.substring(0, index)
+							.getBytes(StandardCharsets.UTF_8).length > 155)
+				index = name.lastIndexOf('/', index - 1);
+			if (index <= 0
+					|| name.substring(index + 1).getBytes(
+							StandardCharsets.UTF_8).length > 100)
+				throw new IllegalArgumentException("the name \"" + name
+						+ "\" is too long!");
+			prefix = name.substring(0, index);
+			name = name.substring(index + 1);
+		}
+
+		byte[] header = new byte[BLOCK_SIZE];
+		put(header, 0, 100, name);
+		put(header, 100, 8, String.format("%07o", 0644));
+		put(header, 108, 8, String.format("%07o", 0));
+		put(header, 116, 8, String.format("%07o", 0));
+		put(header, 124, 12, String.format("%011o", size));
+		put(header, 136, 12,
+				String.format("%011o", System.currentTimeMillis() / 1000));
+		header[156] = '0';
+		put(header, 257, 6, "ustar");
+		put(header, 263, 2, "00");
+		put(header, 345, 155, prefix);
+
+		// the checksum is computed with the checksum field set to spaces
+		for (int i = 148; i < 156; ++i)
+			header[i] = ' ';
+		int checksum = 0;
+		for (byte b : header)
+			checksum += b & 0xFF;
+		put(header, 148, 8, String.format("%06o", checksum));
+		header[155] = ' ';
+
+		stream.write(header);
+	}
+
+	/**
+	 * Pads the contents of a file with the given size to a whole number of
+	 * blocks.
+	 * 
+	 * @param size
+	 *            the size of the file in bytes.
+	 * @throws IOException
+	 *             when an exception occurs while writing the archive.
+	 */
+	private void pad(long size) throws IOException {
+		int remainder = (int) (size % BLOCK_SIZE);
+		if (remainder != 0)
+			stream.write(new byte[BLOCK_SIZE - remainder]);
+	}
+
+	/**
+	 * Copies the given string into the given field of the header.
+	 * 
+	 * @param header
+	 *            the header.
+	 * @param offset
+	 *            the offset of the field.
+	 * @param length
+	 *            the length of the field.
+	 * @param value
+	 *            the value of the field.
+	 */
+	private static void put(byte[] header, int offset, int length,
+			String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(bytes, 0, header, offset,
+				Math.min(bytes.length, length));
+	}
+}
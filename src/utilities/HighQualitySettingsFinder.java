@@ -1,6 +1,7 @@
 package utilities;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -15,6 +16,7 @@ import distributed.RemoteCluster;
 import distributed.RemoteComputer;
 import distributed.RemoteExecutionMonitor;
 import distributed.RenderTaskExecutionService;
+import distributed.TaskJournal;
 
 /**
  * 
@@ -75,10 +77,7 @@ public class HighQualitySettingsFinder {
 					sceneOutputDirectory, filename, samples, 256, 256, 8,
 					sigma, largestep, seed);
 
-			boolean done = LocalComputer.get().done(task);
-			if (!done)
-				tasks.add(task);
-
+			tasks.add(task);
 		}
 	}
 
@@ -88,6 +87,17 @@ public class HighQualitySettingsFinder {
 	public void execute() {
 		RenderTaskExecutionService service = new RenderTaskExecutionService();
 
+		File file = new File(LocalComputer.get().pbrtDirectory,
+				"output/pssmlt-highquality/journal.tsv");
+		TaskJournal journal;
+		try {
+			journal = new TaskJournal(file);
+		} catch (IOException e) {
+			throw new IllegalStateException("could not open the journal \""
+					+ file + "\"!", e);
+		}
+		service.setJournal(journal);
+
 		for (RenderTaskInterface task : tasks)
 			service.submit(task);
 
@@ -104,5 +114,11 @@ public class HighQualitySettingsFinder {
 
 		service.shutdown();
 		service.awaitTermination();
+
+		try {
+			journal.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 }
@@ -3,9 +3,12 @@ package utilities;
 import java.io.File;
 import java.io.FilenameFilter;
 
+import pfm.PFMError;
 import pfm.PFMImage;
 import pfm.PFMReader;
 import pfm.PFMUtil;
+import pfm.PFMValidation;
+import pfm.PFMValidationReport;
 import pfm.PFMWriter;
 import util.FileUtil;
 import util.Printer;
@@ -35,6 +38,9 @@ public class ImageComparator extends CommandLineAdapter {
 				new File(".").getAbsoluteFile().getParent());
 		addStringSetting("reference", "Filename of the reference image.",
 				new File(home, "renderdata").getAbsolutePath());
+		addStringSetting("validation",
+				"Reports negative, NaN and infinite pixels in the images "
+						+ "(off, count, collect or fail_fast).", "off");
 
 		/*
 		 * --reference
@@ -87,15 +93,22 @@ public class ImageComparator extends CommandLineAdapter {
 			System.out.format("[ %s ]\n", filename);
 
 			if (filename.endsWith(".pfm")) {
-				final PFMImage image = PFMUtil.normalizeByAverage(PFMReader
-						.read(file));
-				final double mse = PFMUtil.getMSE(image, reference, 2.2);
+				final PFMImage original = PFMReader.read(file);
+				final PFMValidationReport report = original
+						.validate(PFMValidation.valueOf(getStringSetting(
+								"validation").toUpperCase()));
+				if (!report.isValid())
+					System.err.print(report);
 
-				System.out.format("  %-20s: %.16f\n", "mean squared error:",mse);
+				final PFMImage image = PFMUtil.normalizeByAverage(original);
+				final PFMError error = PFMUtil.getError(image, reference, 2.2,
+						true);
+
+				System.out.format("  %-20s: %.16f\n", "mean squared error:",
+						error.mse);
 
 				final String extensionless = filename.replaceAll("\\.pfm$", "");
-				final PFMImage mseImage = PFMUtil.getMSEImage(image, reference,
-						2.2);
+				final PFMImage mseImage = error.image;
 
 				PFMWriter.write(extensionless + "-difference.pfm", mseImage);
 				mseImage.write(extensionless + "-difference.png", 1.0);
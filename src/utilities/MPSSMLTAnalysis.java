@@ -16,6 +16,7 @@ import java.util.regex.Pattern;
 
 import pfm.PFMImage;
 import pfm.PFMReader;
+import pfm.PFMStorage;
 import pfm.PFMUtil;
 import util.FileUtil;
 import util.Statistics;
@@ -98,6 +99,8 @@ public class MPSSMLTAnalysis extends CommandLineAdapter {
 		addStringSetting("output",
 				"Sets the output directory to the given value", new File(
 						"pssmltsettings").getAbsolutePath());
+		addStringSetting("storage",
+				"Where to store the images (heap, direct or mapped).", "heap");
 
 		addExample("--directory /home/niels/renderdata --output /home/niels/analysis reference/kitchen pssmlt/kitchen");
 	}
@@ -126,6 +129,9 @@ public class MPSSMLTAnalysis extends CommandLineAdapter {
 	 */
 	@Override
 	public void handleArgument(String argument, CommandLineArguments arguments) {
+		PFMImage.setDefaultStorageType(PFMStorage.Type
+				.valueOf(getStringSetting("storage").toUpperCase()));
+
 		try {
 			analyse(argument, arguments.next());
 		} catch (IOException e) {
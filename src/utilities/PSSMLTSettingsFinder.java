@@ -1,12 +1,15 @@
 package utilities;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 import task.PSSMLTRenderTask;
 import task.RenderTaskInterface;
+import util.MetricsExporter;
+import util.MetricsRegistry;
 import util.Printer;
 import cli.CommandLineAdapter;
 import cli.CommandLineArguments;
@@ -17,6 +20,7 @@ import distributed.RemoteCluster;
 import distributed.RemoteComputer;
 import distributed.RemoteExecutionMonitor;
 import distributed.RenderTaskExecutionService;
+import distributed.TaskJournal;
 
 /**
  * 
@@ -24,6 +28,12 @@ import distributed.RenderTaskExecutionService;
  * @version 0.1
  */
 public class PSSMLTSettingsFinder extends CommandLineAdapter {
+	/**
+	 * The interval in milliseconds at which the metrics are appended to the
+	 * metrics file.
+	 */
+	private static final long METRICS_INTERVAL = 10000;
+
 	/**
 	 * 
 	 */
@@ -42,6 +52,12 @@ public class PSSMLTSettingsFinder extends CommandLineAdapter {
 				"Number of times the experiments have to be repeated.", 1000);
 		addIntegerSetting("samples",
 				"Number of samples to render each experiment with.", 1024);
+		addIntegerSetting("batch",
+				"Maximum number of experiments sent to a computer at once.", 1);
+		addIntegerSetting("metricsport",
+				"Local port serving the metrics on /metrics (0 = off).", 0);
+		addStringSetting("metricsfile",
+				"File the metrics are appended to every ten seconds.", "");
 
 		// -samples 1024 -xresolution 120 -yresolution 64 -maxdepth 8
 		// mirror-balls kitchen -xresolution 64 mirror-ring caustic-glass
@@ -121,9 +137,7 @@ public class PSSMLTSettingsFinder extends CommandLineAdapter {
 							getIntegerSetting("maxdepth"), sigma, largestep,
 							seed);
 
-					boolean done = LocalComputer.get().done(task);
-					if (!done)
-						tasks.add(task);
+					tasks.add(task);
 				}
 			}
 		}
@@ -138,6 +152,18 @@ public class PSSMLTSettingsFinder extends CommandLineAdapter {
 	public void finished() {
 		RenderTaskExecutionService service = new RenderTaskExecutionService();
 
+		File file = new File(LocalComputer.get().pbrtDirectory,
+				"output/pssmlt/journal.tsv");
+		TaskJournal journal;
+		try {
+			journal = new TaskJournal(file);
+		} catch (IOException e) {
+			throw new IllegalStateException("could not open the journal \""
+					+ file + "\"!", e);
+		}
+		service.setJournal(journal);
+		service.setBatchSize(getIntegerSetting("batch"));
+
 		for (RenderTaskInterface task : tasks)
 			service.submit(task);
 
@@ -152,7 +178,27 @@ public class PSSMLTSettingsFinder extends CommandLineAdapter {
 
 		service.addListener(new RemoteExecutionMonitor(service));
 
+		MetricsExporter exporter = new MetricsExporter(MetricsRegistry.get());
+		try {
+			if (getIntegerSetting("metricsport") > 0)
+				System.out.println("serving the metrics on http://localhost:"
+						+ exporter.serve(getIntegerSetting("metricsport"))
+						+ "/metrics");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if (!getStringSetting("metricsfile").isEmpty())
+			exporter.record(new File(getStringSetting("metricsfile")),
+					METRICS_INTERVAL);
+
 		service.shutdown();
 		service.awaitTermination();
+
+		try {
+			journal.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		exporter.close();
 	}
 }
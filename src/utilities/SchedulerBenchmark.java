@@ -0,0 +1,549 @@
+package utilities;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pbrt.scene.PBRTScene;
+import task.RenderTaskInterface;
+import task.RenderTaskProgressListener;
+import util.StreamingStatistics;
+import cli.CommandLineAdapter;
+import cli.CommandLineArguments;
+import distributed.Computer;
+import distributed.ExecutionException;
+import distributed.RenderTaskExecutionService;
+
+/**
+ * Measures how the {@link RenderTaskExecutionService} schedules synthetic
+ * tasks on simulated computers.
+ * 
+ * Every argument names the distribution of the task durations of a workload:
+ * <code>constant</code>, <code>uniform</code>, <code>exponential</code>,
+ * <code>lognormal</code> or <code>bimodal</code>. All distributions have the
+ * requested mean duration. The simulated computers sleep for the duration of
+ * a task divided by their speed and fail with the requested probability at a
+ * random moment during the task. Without arguments all the distributions are
+ * measured.
+ * 
+ * For every run the makespan, its ratio to the lower bound given by the total
+ * work and the longest task, the dispatch latency percentiles, the
+ * utilization of the slots and the contention on the monitor of the service
+ * are reported. The results can be appended to a tab separated file, so
+ * scheduler changes can be compared with earlier measurements.
+ * 
+ * @author Niels Billen
+ * @version 0.1
+ */
+public class SchedulerBenchmark extends CommandLineAdapter {
+	/**
+	 * The names of the supported distributions of the task durations.
+	 */
+	private static final String[] distributions = { "constant", "uniform",
+			"exponential", "lognormal", "bimodal" };
+
+	/**
+	 * The columns of the report.
+	 */
+	private static final String[] columns = { "distribution", "run", "nodes",
+			"slots", "tasks", "makespan[s]", "efficiency", "p50[ms]",
+			"p90[ms]", "p99[ms]", "max[ms]", "utilization", "locks",
+			"contended", "lockwait[ms]", "wakeups", "speculations",
+			"failures" };
+
+	/**
+	 * Whether a workload was measured.
+	 */
+	private boolean measured = false;
+
+	/**
+	 * Creates the benchmark.
+	 */
+	public SchedulerBenchmark() {
+		super("schedulerbenchmark", "[<options>] [<distribution...>]");
+
+		addIntegerSetting("nodes", "Number of simulated computers.", 50);
+		addIntegerSetting("slots",
+				"Number of tasks a simulated computer executes at once.", 1);
+		addIntegerSetting("tasks", "Number of tasks per workload.", 1000);
+		addDoubleSetting("duration",
+				"Mean duration of a task in milliseconds.", 20.0);
+		addDoubleSetting("failures",
+				"Probability that the execution of a task fails.", 0.0);
+		addDoubleSetting("heterogeneity",
+				"Standard deviation of the logarithm of the computer speeds.",
+				0.0);
+		addIntegerSetting("batch",
+				"Maximum number of tasks sent to a computer at once.", 1);
+		addIntegerSetting("speculative",
+				"Whether straggling tasks are executed speculatively (0/1).",
+				1);
+		addIntegerSetting("errordelay",
+				"Milliseconds a computer is excluded after a failure.", 100);
+		addIntegerSetting("runs", "Number of runs per workload.", 1);
+		addIntegerSetting("seed", "Seed of the random workloads.", 0);
+		addStringSetting("output",
+				"Tab separated file to which the results are appended.", "");
+
+		addExample("-nodes 200 -tasks 5000 -duration 10 exponential lognormal");
+		addExample("-nodes 50 -slots 4 -failures 0.01 -heterogeneity 0.5 "
+				+ "-output benchmark.tsv bimodal");
+	}
+
+	/**
+	 * 
+	 * @param arguments
+	 */
+	public static void main(String[] arguments) {
+		new SchedulerBenchmark().parse(arguments);
+	}
+
+	/**
+	 * 
+	 * @param arguments
+	 */
+	public static void main(CommandLineArguments arguments) {
+		new SchedulerBenchmark().parse(arguments);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see cli.CommandLineAdapter#handleArgument(java.lang.String,
+	 * cli.CommandLineArguments)
+	 */
+	@Override
+	public void handleArgument(String argument, CommandLineArguments arguments) {
+		boolean known = false;
+		for (String distribution : distributions)
+			known |= distribution.equals(argument);
+		if (!known)
+			throw new IllegalArgumentException("unknown distribution \""
+					+ argument + "\"!");
+		measure(argument);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see cli.CommandLineAdapter#finished()
+	 */
+	@Override
+	public void finished() {
+		if (!measured)
+			for (String distribution : distributions)
+				measure(distribution);
+	}
+
+	/**
+	 * Measures the workload with the given distribution of the task
+	 * durations and reports the results.
+	 * 
+	 * @param distribution
+	 *            the distribution of the task durations.
+	 */
+	private void measure(String distribution) {
+		if (!measured)
+			System.out.println(String.join("\t", columns));
+		measured = true;
+
+		for (int run = 0; run < getIntegerSetting("runs"); ++run) {
+			String[] result = run(distribution, run);
+			System.out.println(String.join("\t", result));
+
+			String output = getStringSetting("output");
+			if (!output.isEmpty()) {
+				try {
+					append(new File(output), result);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes a single run of the workload with the given distribution of
+	 * the task durations.
+	 * 
+	 * @param distribution
+	 *            the distribution of the task durations.
+	 * @param run
+	 *            the index of the run.
+	 * @return the values of the columns of the report.
+	 */
+	private String[] run(String distribution, int run) {
+		final int nodes = getIntegerSetting("nodes");
+		final int slots = getIntegerSetting("slots");
+		final int nbOfTasks = getIntegerSetting("tasks");
+		final double mean = getDoubleSetting("duration");
+		final Random random = new Random(getIntegerSetting("seed") * 31L
+				+ run);
+
+		RenderTaskExecutionService service = new RenderTaskExecutionService();
+		service.setBatchSize(getIntegerSetting("batch"));
+		service.setSpeculative(getIntegerSetting("speculative") != 0);
+		service.setErrorDelay(getIntegerSetting("errordelay"));
+
+		/*----------------------------------------------------------------------
+		 * Create the simulated computers and the workload
+		 *--------------------------------------------------------------------*/
+
+		double capacity = 0;
+		double fastest = 0;
+		List<SimulatedComputer> computers = new ArrayList<SimulatedComputer>();
+		for (int i = 0; i < nodes; ++i) {
+			double speed = Math.exp(random.nextGaussian()
+					* getDoubleSetting("heterogeneity"));
+			SimulatedComputer computer = new SimulatedComputer("node" + i,
+					slots, speed, getDoubleSetting("failures"),
+					random.nextLong());
+			computers.add(computer);
+			service.add(computer);
+			capacity += speed * slots;
+			fastest = Math.max(fastest, speed);
+		}
+
+		double work = 0;
+		double longest = 0;
+		for (int i = 0; i < nbOfTasks; ++i) {
+			double duration = sample(distribution, mean, random);
+			work += duration;
+			longest = Math.max(longest, duration);
+			service.submit(new SyntheticTask(i, duration));
+		}
+
+		/*----------------------------------------------------------------------
+		 * Execute the workload
+		 *--------------------------------------------------------------------*/
+
+		long start = System.nanoTime();
+		service.shutdown();
+		service.awaitTermination();
+		double makespan = (System.nanoTime() - start) / 1e6;
+
+		/*----------------------------------------------------------------------
+		 * Report the results
+		 *--------------------------------------------------------------------*/
+
+		double bound = Math.max(work / capacity, longest / fastest);
+		double busy = 0;
+		long failures = 0;
+		for (SimulatedComputer computer : computers) {
+			busy += computer.busy.get() / 1e6;
+			failures += computer.failures.get();
+		}
+		StreamingStatistics latency = service.getDispatchLatency();
+
+		return new String[] {
+				distribution,
+				Integer.toString(run + 1),
+				Integer.toString(nodes),
+				Integer.toString(slots),
+				Integer.toString(nbOfTasks),
+				String.format("%.3f", makespan / 1000),
+				String.format("%.3f", bound / makespan),
+				String.format("%.3f", latency.getQuantile(0.5)),
+				String.format("%.3f", latency.getQuantile(0.9)),
+				String.format("%.3f", latency.getQuantile(0.99)),
+				String.format("%.3f", latency.getMaximum()),
+				String.format("%.3f", busy / (makespan * nodes * slots)),
+				Long.toString(service.getLockAcquisitions()),
+				Long.toString(service.getLockContentions()),
+				String.format("%.3f", service.getLockWaitTime() / 1e6),
+				Long.toString(service.getDispatcherWakeups()),
+				Long.toString(service.getSpeculations()),
+				Long.toString(failures) };
+	}
+
+	/**
+	 * Draws a task duration from the given distribution with the given mean.
+	 * 
+	 * @param distribution
+	 *            the name of the distribution.
+	 * @param mean
+	 *            the mean of the distribution.
+	 * @param random
+	 *            the random number generator.
+	 * @return a task duration in milliseconds.
+	 */
+	private static double sample(String distribution, double mean,
+			Random random) {
+		if (distribution.equals("uniform"))
+			return 2 * mean * random.nextDouble();
+		if (distribution.equals("exponential"))
+			return -mean * Math.log(1 - random.nextDouble());
+		if (distribution.equals("lognormal"))
+			return mean * Math.exp(random.nextGaussian() - 0.5);
+		if (distribution.equals("bimodal"))
+			return random.nextDouble() < 0.9 ? 0.5 * mean : 5.5 * mean;
+		return mean;
+	}
+
+	/**
+	 * Appends the given results to the given tab separated file, preceded by
+	 * the time of the measurement. The header is written when the file does
+	 * not exist yet.
+	 * 
+	 * @param file
+	 *            the file.
+	 * @param result
+	 *            the values of the columns of the report.
+	 * @throws IOException
+	 *             when the file could not be written.
+	 */
+	private static void append(File file, String[] result) throws IOException {
+		boolean header = !file.exists();
+		try (Writer writer = new FileWriter(file, true)) {
+			if (header)
+				writer.write("time\t" + String.join("\t", columns) + "\n");
+			writer.write(System.currentTimeMillis() + "\t"
+					+ String.join("\t", result) + "\n");
+		}
+	}
+
+	/**
+	 * A task which only has a duration.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class SyntheticTask extends RenderTaskInterface {
+		/**
+		 * The duration of the task in milliseconds on a computer with unit
+		 * speed.
+		 */
+		public final double duration;
+
+		/**
+		 * The index of the task in the workload.
+		 */
+		private final int index;
+
+		/**
+		 * Creates a new synthetic task.
+		 * 
+		 * @param index
+		 *            the index of the task in the workload.
+		 * @param duration
+		 *            the duration of the task in milliseconds on a computer
+		 *            with unit speed.
+		 */
+		public SyntheticTask(int index, double duration) {
+			super("benchmark", "task-" + index);
+			this.index = index;
+			this.duration = duration;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see task.RenderTaskInterface#getXResolution()
+		 */
+		@Override
+		public int getXResolution() {
+			return 1;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see task.RenderTaskInterface#getYResolution()
+		 */
+		@Override
+		public int getYResolution() {
+			return 1;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see task.RenderTaskInterface#getScene()
+		 */
+		@Override
+		public PBRTScene getScene() {
+			return new PBRTScene();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see task.RenderTaskInterface#getSceneName()
+		 */
+		@Override
+		public String getSceneName() {
+			return "synthetic";
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see task.RenderTaskInterface#getSeed()
+		 */
+		@Override
+		public long getSeed() {
+			return index;
+		}
+
+		/**
+		 * Returns the duration in microseconds, so the cost of the task is
+		 * proportional to its duration.
+		 * 
+		 * @see task.RenderTaskInterface#nbOfSamples()
+		 */
+		@Override
+		public int nbOfSamples() {
+			return (int) Math.max(1, Math.round(duration * 1000));
+		}
+	}
+
+	/**
+	 * A computer which sleeps instead of rendering.
+	 * 
+	 * @author Niels Billen
+	 * @version 0.1
+	 */
+	private static class SimulatedComputer extends Computer {
+		/**
+		 * The name of the computer.
+		 */
+		private final String name;
+
+		/**
+		 * The number of tasks the computer executes at once.
+		 */
+		private final int slots;
+
+		/**
+		 * The speed of the computer relative to a computer with unit speed.
+		 */
+		private final double speed;
+
+		/**
+		 * The probability that the execution of a task fails.
+		 */
+		private final double failureRate;
+
+		/**
+		 * Decides which executions fail.
+		 */
+		private final Random random;
+
+		/**
+		 * The total time in nanoseconds the slots of the computer were busy.
+		 */
+		public final AtomicLong busy = new AtomicLong();
+
+		/**
+		 * The number of executions which failed.
+		 */
+		public final AtomicLong failures = new AtomicLong();
+
+		/**
+		 * Released when the execution of a task is cancelled, by task.
+		 */
+		private final Map<RenderTaskInterface, CountDownLatch> running = new ConcurrentHashMap<RenderTaskInterface, CountDownLatch>();
+
+		/**
+		 * Creates a new simulated computer.
+		 * 
+		 * @param name
+		 *            the name of the computer.
+		 * @param slots
+		 *            the number of tasks the computer executes at once.
+		 * @param speed
+		 *            the speed of the computer.
+		 * @param failureRate
+		 *            the probability that the execution of a task fails.
+		 * @param seed
+		 *            the seed which decides which executions fail.
+		 */
+		public SimulatedComputer(String name, int slots, double speed,
+				double failureRate, long seed) {
+			super(1);
+			this.name = name;
+			this.slots = slots;
+			this.speed = speed;
+			this.failureRate = failureRate;
+			this.random = new Random(seed);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see distributed.Computer#getName()
+		 */
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see distributed.Computer#nProcessors()
+		 */
+		@Override
+		public int nProcessors() {
+			return slots;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see distributed.Computer#execute(task.RenderTaskInterface,
+		 * task.RenderTaskProgressListener)
+		 */
+		@Override
+		public void execute(RenderTaskInterface task,
+				RenderTaskProgressListener listener)
+				throws NullPointerException, ExecutionException {
+			double duration = ((SyntheticTask) task).duration / speed;
+			boolean fail = random.nextDouble() < failureRate;
+			if (fail)
+				duration *= random.nextDouble();
+
+			CountDownLatch cancelled = new CountDownLatch(1);
+			running.put(task, cancelled);
+			long start = System.nanoTime();
+			try {
+				if (cancelled.await((long) (duration * 1e6),
+						TimeUnit.NANOSECONDS))
+					throw new ExecutionException("the task was cancelled!");
+			} catch (InterruptedException e) {
+				throw new ExecutionException("the task was interrupted!", e);
+			} finally {
+				running.remove(task);
+				busy.addAndGet(System.nanoTime() - start);
+			}
+
+			if (fail) {
+				failures.incrementAndGet();
+				throw new ExecutionException("simulated failure on " + name
+						+ "!");
+			}
+			listener.completion(1, duration / 1000, 0);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see distributed.Computer#cancel(task.RenderTaskInterface)
+		 */
+		@Override
+		public void cancel(RenderTaskInterface task) {
+			CountDownLatch cancelled = running.get(task);
+			if (cancelled != null)
+				cancelled.countDown();
+		}
+	}
+}